@@ -0,0 +1,58 @@
+package org.meh.java2wsdl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Annotating a single implementation class in memory and rewriting its
+ * XmlAnySimpleType getters, local variables and casts, as the number of
+ * XmlAnySimpleType getters grows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImplementationBenchmark {
+
+  @Param({"1", "10", "100"})
+  public int accessors;
+  private String source;
+  private SourceTransformer transformer;
+  private SourceTransformer.Context context;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    SourceCorpus corpus = new SourceCorpus(1);
+    corpus.setInterfaces(1);
+    corpus.setSubInterfaces(0);
+    corpus.setAccessors(this.accessors);
+    corpus.setExact(true);
+    // the implementation follows its interface:
+    Iterator<Map.Entry<String, String>> sources = corpus.generate().entrySet().iterator();
+    sources.next();
+    Map.Entry<String, String> implementation = sources.next();
+    this.source = implementation.getValue();
+    this.transformer = new SourceTransformer("Impl", true, null);
+    this.context = SourceCorpus.context(implementation.getKey());
+  }
+
+  @Benchmark
+  public SourceTransformer.Result annotateImplementation() {
+    return this.transformer.transform(this.source, this.context);
+  }
+}
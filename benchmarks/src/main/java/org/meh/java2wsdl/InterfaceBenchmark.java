@@ -0,0 +1,55 @@
+package org.meh.java2wsdl;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Annotating a single interface in memory, as its number of sub-interfaces
+ * (and so its enums, XmlAnySimpleType accessors and adapters) grows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterfaceBenchmark {
+
+  @Param({"10", "100", "1000"})
+  public int subInterfaces;
+  private String source;
+  private SourceTransformer transformer;
+  private SourceTransformer.Context context;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    SourceCorpus corpus = new SourceCorpus(1);
+    corpus.setInterfaces(1);
+    corpus.setDepth(1);
+    corpus.setSubInterfaces(this.subInterfaces);
+    corpus.setExact(true);
+    // interfaces come first:
+    Map.Entry<String, String> iface = corpus.generate().entrySet().iterator().next();
+    this.source = iface.getValue();
+    this.transformer = new SourceTransformer("Impl", true,
+            SourceCorpus.SUB_INTERFACES);
+    this.context = SourceCorpus.context(iface.getKey());
+  }
+
+  @Benchmark
+  public SourceTransformer.Result annotateInterface() {
+    return this.transformer.transform(this.source, this.context);
+  }
+}
@@ -0,0 +1,117 @@
+package org.meh.java2wsdl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end throughput, in sources per second, over a corpus of
+ * {@value #SOURCES} sources generated as the tests generate theirs (half interfaces, half implementations): once
+ * through execute(), reading and writing every file, and once annotating the
+ * same sources in memory only, through SourceTransformer.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(PipelineBenchmark.SOURCES)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class PipelineBenchmark {
+
+  /**
+   * Number of sources in the tree.
+   */
+  static final int SOURCES = 10000;
+
+  /**
+   * The generated sources, in memory.
+   */
+  @State(Scope.Benchmark)
+  public static class Sources {
+
+    File root;
+    File dirIface;
+    File dirImpl;
+    Map<String, String> tree;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+      this.root = Files.createTempDirectory("java2wsdl-bench").toFile();
+      SourceCorpus corpus = new SourceCorpus(1);
+      corpus.setInterfaces(SOURCES / 2);
+      this.dirIface = corpus.getInterfaceDirs(this.root)[0];
+      this.dirImpl = corpus.getImplementationDirs(this.root)[0];
+      this.tree = corpus.generate();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      delete(this.root);
+    }
+  }
+
+  /**
+   * The generated sources on disk, written afresh before every invocation
+   * (which is not measured).
+   */
+  @State(Scope.Benchmark)
+  public static class Tree {
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Setup(Level.Invocation)
+    public void reset(Sources sources) throws IOException {
+      delete(sources.root);
+      SourceCorpus.write(sources.tree, sources.root);
+    }
+  }
+
+  @Benchmark
+  public int withIo(Sources sources, Tree tree) throws IOException {
+    AnnotatorApp app = new AnnotatorApp(sources.root,
+            sources.dirIface.getPath(), sources.dirImpl.getPath(), "Impl", "",
+            SourceCorpus.SUB_INTERFACES, true);
+    app.setEncoding(SourceCorpus.CHARSET.name());
+    app.setThreads(tree.threads);
+    return app.execute();
+  }
+
+  @Benchmark
+  public int inMemory(Sources sources) {
+    SourceTransformer transformer = new SourceTransformer("Impl", true,
+            SourceCorpus.SUB_INTERFACES);
+    int length = 0;
+    for (Map.Entry<String, String> entry : sources.tree.entrySet()) {
+      length += transformer.transform(entry.getValue(),
+              SourceCorpus.context(entry.getKey())).getSource().length();
+    }
+    return length;
+  }
+
+  private static void delete(File file) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File child : files) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,199 @@
+package org.meh.java2wsdl;
+
+import java.io.File;
+import java.io.IOException;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Annotates XMLBeans generated sources within the build, rather than in a
+ * JVM of its own; the parameters are those of the command line.
+ *
+ * Either a source root is walked for packages of interfaces with an impl
+ * package of implementations (the default, as XMLBeans generates them), or
+ * the interface and implementation directories are given.
+ */
+@Mojo(name = "annotate", defaultPhase = LifecyclePhase.PROCESS_SOURCES,
+        threadSafe = true)
+public class AnnotateMojo extends AbstractMojo {
+
+  /**
+   * Directory walked for packages of interfaces and their implementations;
+   * not used if interface directories are given.
+   */
+  @Parameter(property = "java2wsdl.sourceRoot",
+          defaultValue = "${project.build.directory}/generated-sources/xmlbeans")
+  private File sourceRoot;
+  /**
+   * Root directory from which package names are determined; defaults to the
+   * source root.
+   */
+  @Parameter(property = "java2wsdl.baseDirectory")
+  private File baseDirectory;
+  /**
+   * Directories of interfaces, separated by ';'.
+   */
+  @Parameter(property = "java2wsdl.interfaceDirectories")
+  private String interfaceDirectories;
+  /**
+   * Directories of the implementations of the interfaces, separated by ';'.
+   */
+  @Parameter(property = "java2wsdl.implementationDirectories")
+  private String implementationDirectories;
+  /**
+   * The prefix/suffix of the implementation classes.
+   */
+  @Parameter(property = "java2wsdl.classImplMarker",
+          defaultValue = AnnotatorApp.DEFAULT_CLASS_IMPL_MARKER)
+  private String classImplMarker;
+  /**
+   * Is the class marker a suffix (or a prefix)?
+   */
+  @Parameter(property = "java2wsdl.suffixed", defaultValue = "true")
+  private boolean suffixed;
+  /**
+   * XML type name prefixes of the implementation classes, separated by ';'.
+   */
+  @Parameter(property = "java2wsdl.xmlTypePrefixes")
+  private String xmlTypePrefixes;
+  /**
+   * [InterfaceSuffix]:[class1,...,classN] sub-interface listings, separated
+   * by ';'.
+   */
+  @Parameter(property = "java2wsdl.subInterfaces")
+  private String subInterfaces;
+  /**
+   * Annotate every nested interface, rather than the listed sub-interfaces?
+   */
+  @Parameter(property = "java2wsdl.detectSubInterfaces", defaultValue = "false")
+  private boolean detectSubInterfaces;
+  /**
+   * Rules file of rewrite rules to run on every source, and settings of the
+   * annotations; only the default rules are run if not given.
+   */
+  @Parameter(property = "java2wsdl.rules")
+  private File rules;
+  /**
+   * Number of threads to annotate files with; 0 for one per processor.
+   */
+  @Parameter(property = "java2wsdl.threads", defaultValue = "1")
+  private int threads;
+  /**
+   * Only process sources changed since the last incremental run?
+   */
+  @Parameter(property = "java2wsdl.incremental", defaultValue = "false")
+  private boolean incremental;
+  /**
+   * Stage what is written, and only replace the sources once annotated?
+   */
+  @Parameter(property = "java2wsdl.transactional", defaultValue = "false")
+  private boolean transactional;
+  /**
+   * Read large sources through a window, a few blocks at a time, rather
+   * than in to the heap whole?
+   */
+  @Parameter(property = "java2wsdl.boundedMemory", defaultValue = "false")
+  private boolean boundedMemory;
+  /**
+   * The slice of the sources to annotate, like 2/4 for the second of four;
+   * all of them if not given.
+   */
+  @Parameter(property = "java2wsdl.shard")
+  private String shard;
+  /**
+   * Merge what the shards left once every shard is done, rather than
+   * annotating?
+   */
+  @Parameter(property = "java2wsdl.mergeShards", defaultValue = "false")
+  private boolean mergeShards;
+  /**
+   * Merge the adapters of each package in to a single file?
+   */
+  @Parameter(property = "java2wsdl.mergeAdapters", defaultValue = "false")
+  private boolean mergeAdapters;
+  /**
+   * File to write the time spent in each stage, and counts of what was done,
+   * to as JSON; not written if not given.
+   */
+  @Parameter(property = "java2wsdl.report")
+  private File report;
+  /**
+   * Encoding of the sources.
+   */
+  @Parameter(property = "java2wsdl.encoding",
+          defaultValue = "${project.build.sourceEncoding}")
+  private String encoding;
+  /**
+   * How much is printed: quiet, summary or verbose.
+   */
+  @Parameter(property = "java2wsdl.logLevel", defaultValue = "summary")
+  private String logLevel;
+  /**
+   * Skip annotating?
+   */
+  @Parameter(property = "java2wsdl.skip", defaultValue = "false")
+  private boolean skip;
+
+  public void execute() throws MojoExecutionException, MojoFailureException {
+    if (this.skip) {
+      getLog().info("Skipping annotation.");
+      return;
+    }
+    String xmlTypes = this.xmlTypePrefixes == null ? "" : this.xmlTypePrefixes;
+    try {
+      AnnotatorApp app;
+      if (this.interfaceDirectories != null) {
+        if (this.implementationDirectories == null || this.baseDirectory == null) {
+          throw new MojoFailureException("implementationDirectories and"
+                  + " baseDirectory must be given along with interfaceDirectories.");
+        }
+        app = new AnnotatorApp(this.baseDirectory, this.interfaceDirectories,
+                this.implementationDirectories, this.classImplMarker, xmlTypes,
+                this.subInterfaces, this.suffixed);
+      } else {
+        if (!this.sourceRoot.isDirectory()) {
+          getLog().info("No sources to annotate in " + this.sourceRoot);
+          return;
+        }
+        File base = this.baseDirectory == null ? this.sourceRoot : this.baseDirectory;
+        app = new AnnotatorApp(base, this.sourceRoot, this.classImplMarker,
+                xmlTypes, this.subInterfaces, this.suffixed);
+      }
+      int count = this.threads;
+      if (count < 1) {
+        count = Runtime.getRuntime().availableProcessors();
+      }
+      app.setThreads(count);
+      app.setIncremental(this.incremental);
+      app.setTransactional(this.transactional);
+      app.setBoundedMemory(this.boundedMemory);
+      app.setShard(this.shard);
+      app.setMergeShards(this.mergeShards);
+      app.setMergeAdapters(this.mergeAdapters);
+      app.setDetectSubInterfaces(this.detectSubInterfaces);
+      if (this.rules != null) {
+        app.setRules(this.rules);
+      }
+      app.setLogLevel(this.logLevel);
+      if (this.report != null) {
+        app.setReport(this.report.getPath());
+      }
+      if (this.encoding != null) {
+        app.setEncoding(this.encoding);
+      }
+      if (app.execute() != 0) {
+        throw new MojoFailureException("Nothing was annotated.");
+      }
+    } catch (IOException ex) {
+      throw new MojoExecutionException("Could not annotate sources: "
+              + ex.getMessage(), ex);
+    } catch (IllegalArgumentException ex) {
+      throw new MojoFailureException("Could not annotate sources: "
+              + ex.getMessage());
+    }
+  }
+}
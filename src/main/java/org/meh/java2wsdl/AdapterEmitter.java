@@ -0,0 +1,402 @@
+package org.meh.java2wsdl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Collects the XmlAdapter classes created during a run and writes them out
+ * in one go at the end of it, package by package, rendering them from a
+ * precompiled template in to a single reused buffer.
+ *
+ * Adapters are either written one per file, or merged in to a single
+ * {@value #MERGED_FILE_NAME} per package; a merged file keeps the classes it
+ * already declares, unless they are created again.
+ *
+ * Adapters may be added from several threads at once; flushing is done by a
+ * single thread.
+ */
+class AdapterEmitter {
+
+  /**
+   * Name of the file the adapters of a package are merged in to.
+   */
+  static final String MERGED_FILE_NAME = "XmlAdapters.java";
+  /**
+   * The class every adapter extends.
+   */
+  private static final String XML_ADAPTER = "javax.xml.bind.annotation.adapters.XmlAdapter";
+  /**
+   * Start of an adapter source file.
+   */
+  private static final SourceTemplate HEADER = new SourceTemplate(
+          "package ${package};", "package");
+  /**
+   * An import of an adapter source file.
+   */
+  private static final SourceTemplate IMPORT = new SourceTemplate(
+          "\nimport ${name};", "name");
+  /**
+   * An adapter class.
+   */
+  private static final SourceTemplate DECLARATION = new SourceTemplate(
+          "\nclass ${adapter} extends XmlAdapter<${impl}, ${iface}> {"
+          + "\n\t@Override"
+          + "\n\tpublic ${iface} unmarshal(${impl} v) {"
+          + "\n\t\treturn v;"
+          + "\n\t}"
+          + "\n\t@Override"
+          + "\n\tpublic ${impl} marshal(${iface} v) {"
+          + "\n\t\treturn (${impl}) v;"
+          + "\n\t}"
+          + "\n}\n",
+          "adapter", "impl", "iface");
+  /**
+   * Writes the adapters.
+   */
+  private final SourceIO io;
+  /**
+   * Merge the adapters of a package in to one file?
+   */
+  private final boolean merged;
+  /**
+   * Adapters to write, by directory, then by (unmerged) file.
+   */
+  private final Map<File, Map<File, Adapter>> queued = new LinkedHashMap<File, Map<File, Adapter>>();
+  /**
+   * Classes declared in the merged file of each directory before the run.
+   */
+  private final ConcurrentMap<File, Set<String>> mergedClasses = new ConcurrentHashMap<File, Set<String>>();
+
+  /**
+   * Create a new emitter.
+   *
+   * @param io writes the adapters.
+   * @param merged true to merge the adapters of a package in to one file.
+   */
+  AdapterEmitter(SourceIO io, boolean merged) {
+    this.io = io;
+    this.merged = merged;
+  }
+
+  /**
+   * Get the file an adapter ends up in.
+   *
+   * @param adapter the file of the adapter, were it written on its own.
+   * @return the file the adapter is written to.
+   */
+  File getTarget(File adapter) {
+    if (this.merged) {
+      return new File(adapter.getParentFile(), MERGED_FILE_NAME);
+    }
+    return adapter;
+  }
+
+  /**
+   * Determine if an adapter was written by an earlier run.
+   *
+   * @param adapter the file of the adapter, were it written on its own.
+   * @return true if the adapter exists.
+   * @throws IOException if a merged adapters file could not be read.
+   */
+  boolean exists(File adapter) throws IOException {
+    if (!this.merged) {
+      return adapter.exists();
+    }
+    File dir = adapter.getAbsoluteFile().getParentFile();
+    Set<String> classes = this.mergedClasses.get(dir);
+    if (classes == null) {
+      classes = new HashSet<String>();
+      File file = new File(dir, MERGED_FILE_NAME);
+      if (file.isFile()) {
+        for (JavaOutline.Type type : JavaOutline.parse(this.io.read(file)).getTypes()) {
+          classes.add(type.getName());
+        }
+      }
+      this.mergedClasses.putIfAbsent(dir, classes);
+    }
+    String name = adapter.getName();
+    return classes.contains(name.substring(0, name.length() - ".java".length()));
+  }
+
+  /**
+   * Queue an adapter to be written when the emitter is flushed.
+   *
+   * @param file the file of the adapter, were it written on its own.
+   * @param adapter the adapter.
+   */
+  synchronized void add(File file, Adapter adapter) {
+    File dir = file.getAbsoluteFile().getParentFile();
+    Map<File, Adapter> adapters = this.queued.get(dir);
+    if (adapters == null) {
+      adapters = new LinkedHashMap<File, Adapter>();
+      this.queued.put(dir, adapters);
+    }
+    adapters.put(file, adapter);
+  }
+
+  /**
+   * Write every queued adapter; files that already hold what would be
+   * written are left alone, keeping their modification times (so that
+   * incremental compilers do not recompile them).
+   *
+   * @param manifest records the files written; may be null.
+   * @param stats counts the files left alone; may be null.
+   * @return the number of files written.
+   * @throws IOException if a file could not be written.
+   */
+  synchronized int flush(Manifest manifest, RunStats stats) throws IOException {
+    StringBuilder buffer = new StringBuilder(1024);
+    int written = 0;
+    try {
+      for (Map.Entry<File, Map<File, Adapter>> dir : this.queued.entrySet()) {
+        if (this.merged) {
+          File file = new File(dir.getKey(), MERGED_FILE_NAME);
+          buffer.setLength(0);
+          this.renderMerged(buffer, file, dir.getValue().values());
+          written += this.write(file, buffer, manifest, stats);
+          continue;
+        }
+        for (Map.Entry<File, Adapter> adapter : dir.getValue().entrySet()) {
+          buffer.setLength(0);
+          adapter.getValue().renderUnit(buffer);
+          written += this.write(adapter.getKey(), buffer, manifest, stats);
+        }
+      }
+    } finally {
+      this.queued.clear();
+    }
+    return written;
+  }
+
+  /**
+   * Take every queued adapter, rather than writing it, for another run to
+   * write (as shards leave their adapters to be merged).
+   *
+   * @return the adapters, by the file of each, were it written on its own.
+   */
+  synchronized Map<File, Adapter> drain() {
+    Map<File, Adapter> adapters = new LinkedHashMap<File, Adapter>();
+    for (Map<File, Adapter> dir : this.queued.values()) {
+      adapters.putAll(dir);
+    }
+    this.queued.clear();
+    return adapters;
+  }
+
+  /**
+   * Render the merged adapters file of a package: the classes and imports it
+   * already has, with the given adapters added (or replacing the classes of
+   * the same name).
+   */
+  private void renderMerged(StringBuilder buffer, File file,
+          Iterable<Adapter> adapters) throws IOException {
+    Map<String, Adapter> byName = new TreeMap<String, Adapter>();
+    Set<String> imports = new LinkedHashSet<String>();
+    imports.add(XML_ADAPTER);
+    String packageName = null;
+    for (Adapter adapter : adapters) {
+      byName.put(adapter.className, adapter);
+      packageName = adapter.packageName;
+    }
+    List<String> kept = new ArrayList<String>();
+    if (file.isFile()) {
+      String content = this.io.read(file).toString();
+      JavaOutline outline = JavaOutline.parse(content);
+      imports.addAll(outline.getImports());
+      for (JavaOutline.Type type : outline.getTypes()) {
+        if (!byName.containsKey(type.getName()) && type.getEnd() > -1) {
+          kept.add(content.substring(type.getStart(), type.getEnd()));
+        }
+      }
+    }
+    for (Adapter adapter : byName.values()) {
+      imports.add(adapter.importName);
+    }
+    HEADER.render(buffer, packageName);
+    for (String name : imports) {
+      IMPORT.render(buffer, name);
+    }
+    for (String type : kept) {
+      buffer.append('\n').append(type).append('\n');
+    }
+    for (Adapter adapter : byName.values()) {
+      adapter.render(buffer);
+    }
+  }
+
+  /**
+   * Write an adapters file, unless it already holds the content.
+   *
+   * @return 1 if the file was written, 0 if not.
+   */
+  private int write(File file, CharSequence content, Manifest manifest,
+          RunStats stats) throws IOException {
+    int written = 0;
+    if (this.isUnchanged(file, content, manifest)) {
+      if (stats != null) {
+        stats.add(RunStats.Counter.ADAPTERS_UNCHANGED, 1);
+      }
+    } else {
+      this.io.write(file, content);
+      written = 1;
+    }
+    if (manifest != null) {
+      manifest.record(file, content);
+    }
+    return written;
+  }
+
+  /**
+   * Determine if a file already holds the given content: by the hash the
+   * manifest recorded, if the file has not changed since, otherwise by
+   * reading it.
+   */
+  private boolean isUnchanged(File file, CharSequence content,
+          Manifest manifest) throws IOException {
+    if (!file.isFile()) {
+      return false;
+    }
+    if (manifest != null && manifest.holds(file, content)) {
+      return true;
+    }
+    String existing = this.io.read(file).toString();
+    return existing.length() == content.length()
+            && existing.contentEquals(content);
+  }
+
+  /**
+   * An XmlAdapter class binding an interface to its implementation. Adapters
+   * are equal when they have the same name and bind the same types, and so
+   * render the same source.
+   */
+  static final class Adapter {
+
+    private final String packageName;
+    private final String importName;
+    private final String className;
+    private final String implType;
+    private final String ifaceType;
+
+    /**
+     * Create a new adapter.
+     *
+     * @param packageName the package of the adapter (and the interface).
+     * @param importName the implementation class to import.
+     * @param className the name of the adapter class.
+     * @param implType the implementation type, as referred to in the adapter.
+     * @param ifaceType the interface type, as referred to in the adapter.
+     */
+    Adapter(String packageName, String importName, String className,
+            String implType, String ifaceType) {
+      this.packageName = packageName;
+      this.importName = importName;
+      this.className = className;
+      this.implType = implType;
+      this.ifaceType = ifaceType;
+    }
+
+    /**
+     * @return the simple name of the adapter class.
+     */
+    String getClassName() {
+      return this.className;
+    }
+
+    /**
+     * @return the qualified name of the adapter class.
+     */
+    String getQualifiedName() {
+      if (this.packageName.length() == 0) {
+        return this.className;
+      }
+      return this.packageName + "." + this.className;
+    }
+
+    /**
+     * @return the interface and implementation the adapter binds, as
+     * reported.
+     */
+    String getBinding() {
+      return this.ifaceType + " to " + this.implType + " (" + this.importName
+              + ")";
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Adapter)) {
+        return false;
+      }
+      Adapter adapter = (Adapter) other;
+      return this.packageName.equals(adapter.packageName)
+              && this.importName.equals(adapter.importName)
+              && this.className.equals(adapter.className)
+              && this.implType.equals(adapter.implType)
+              && this.ifaceType.equals(adapter.ifaceType);
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = this.packageName.hashCode();
+      hash = 31 * hash + this.importName.hashCode();
+      hash = 31 * hash + this.className.hashCode();
+      hash = 31 * hash + this.implType.hashCode();
+      return 31 * hash + this.ifaceType.hashCode();
+    }
+
+    /**
+     * Encode the adapter as a single line, for {@link #decode(String)}.
+     *
+     * @return the line.
+     */
+    String encode() {
+      return this.packageName + '\t' + this.importName + '\t' + this.className
+              + '\t' + this.implType + '\t' + this.ifaceType;
+    }
+
+    /**
+     * Decode an adapter from a line {@link #encode()} gave.
+     *
+     * @param line the line.
+     * @return the adapter.
+     * @throws IllegalArgumentException if the line is not an adapter.
+     */
+    static Adapter decode(String line) {
+      String[] fields = line.split("\t", -1);
+      if (fields.length != 5) {
+        throw new IllegalArgumentException("Not an adapter: " + line);
+      }
+      return new Adapter(fields[0], fields[1], fields[2], fields[3], fields[4]);
+    }
+
+    /**
+     * Render the class declaration of the adapter.
+     *
+     * @param buffer the buffer to append the declaration to.
+     */
+    void render(StringBuilder buffer) {
+      DECLARATION.render(buffer, this.className, this.implType, this.ifaceType);
+    }
+
+    /**
+     * Render the adapter as a source file of its own.
+     *
+     * @param buffer the buffer to append the source to.
+     */
+    void renderUnit(StringBuilder buffer) {
+      HEADER.render(buffer, this.packageName);
+      IMPORT.render(buffer, XML_ADAPTER);
+      IMPORT.render(buffer, this.importName);
+      this.render(buffer);
+    }
+  }
+}
@@ -1,17 +1,28 @@
 package org.meh.java2wsdl;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.HelpFormatter;
@@ -19,7 +30,6 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
-import org.apache.commons.io.FilenameUtils;
 
 /**
  * Hello world!
@@ -36,9 +46,10 @@ public class AnnotatorApp {
    */
   public static final boolean DEFAULT_SUFFIX_CLASS_IMPL_MARKER = true;
   /**
-   * User defined map of classes that contain named sub-interfaces.
+   * Name of the package XMLBeans puts the implementations of the interfaces
+   * of a package in, relative to that package.
    */
-  private Map<String, List<String>> subInterfaces = new HashMap<String, List<String>>();
+  public static final String IMPL_PACKAGE = "impl";
   /**
    * Directories of interfaces.
    */
@@ -52,20 +63,123 @@ public class AnnotatorApp {
    */
   private File dirBase;
   /**
-   * The prefix/suffix of the class, if there is one.
+   * Directory walked for packages of interfaces and their implementations,
+   * instead of using dirIfaces and dirImpls; null if not walking.
    */
-  private String extension;
+  private File dirSourceRoot;
   /**
    * Prefixes to apply to all named xml types; enables users to add prefixes to
    * created class names for ease of use.
    */
   private String[] xmlTypePrefixes;
   /**
-   * Prefix or suffixed class impl name?
+   * Annotates the sources.
    */
-  private boolean suffixed;
+  private SourceTransformer transformer;
+  /**
+   * Number of threads to process files with.
+   */
+  private int threads = 1;
+  /**
+   * Adapters created by this run, by file; guards against two interfaces
+   * being processed at the same time both creating the same adapter, and
+   * finds interfaces that would create different adapters of the same name.
+   */
+  private final ConcurrentMap<File, AdapterEmitter.Adapter> claimedAdapters = new ConcurrentHashMap<File, AdapterEmitter.Adapter>();
+  /**
+   * Only process sources changed since the last run?
+   */
+  private boolean incremental;
+  /**
+   * Content hashes of the sources of the last run; null unless incremental.
+   */
+  private Manifest manifest;
+  /**
+   * Reads and writes sources; uses the platform encoding unless told
+   * otherwise.
+   */
+  private SourceIO io = new SourceIO(Charset.defaultCharset());
+  /**
+   * Merge the adapters of each package in to a single file?
+   */
+  private boolean mergeAdapters;
+  /**
+   * Writes the adapters created by a run once it is done.
+   */
+  private AdapterEmitter emitter = new AdapterEmitter(this.io, false);
+  /**
+   * The implementations of the interfaces of this run, indexed before any
+   * interface is annotated.
+   */
+  private SymbolIndex index;
+  /**
+   * Only print what would be written?
+   */
+  private boolean dryRun;
+  /**
+   * Stage what a run writes, and only write it once the run is done?
+   */
+  private boolean transactional;
+  /**
+   * Keep large sources out of the heap?
+   */
+  private boolean boundedMemory;
+  /**
+   * The slice of the sources this run annotates; null for all of them.
+   */
+  private Shard shard;
+  /**
+   * Merge what the shards of a sharded run left, rather than annotating?
+   */
+  private boolean mergeShards;
+  /**
+   * How much of the run is printed.
+   */
+  private RunLog.Level logLevel = RunLog.Level.SUMMARY;
+  /**
+   * Time spent in each stage of this run, and counts of what it did.
+   */
+  private RunStats stats;
+  /**
+   * Where the stats of a run are reported, as JSON; - for standard out, not
+   * reported if null.
+   */
+  private String report;
+  /**
+   * Decides which adapters the interfaces of this run create.
+   */
+  private final RunAdapterClaims claims = new RunAdapterClaims();
+  /**
+   * Watches the sources between runs; null unless watching.
+   */
+  private SourceWatcher watcher;
 
   public static void main(String[] args) {
+    int status = run(args);
+    if (status != 0) {
+      System.exit(status);
+    }
+  }
+
+  /**
+   * Run the annotator as the command line does, without exiting.
+   *
+   * @param args the command line arguments.
+   * @return the exit status; 0 for success, any other result is a failure.
+   */
+  static int run(String[] args) {
+    return run(args, false);
+  }
+
+  /**
+   * Run the annotator as the command line does, without exiting.
+   *
+   * @param args the command line arguments.
+   * @param job true if run as a job of a daemon, which cannot start another
+   * daemon or watch its sources, as either keeps running.
+   * @return the exit status; 0 for success, any other result is a failure.
+   */
+  static int run(String[] args, boolean job) {
     Options options = new Options();
     Option optionIfaces = new Option("i", "dir-interface", true,
             "Specify the directories where the interfaces are kept;"
@@ -93,29 +207,134 @@ public class AnnotatorApp {
     Option optionSubInterfaces = new Option("u", "sub-interfaces", true,
             "Specify [InterfaceSuffix]:[class1,class2,...,classN] sub-interface"
             + " names for given class suffix. Separate multiple listings with ';'");
+    Option optionAutoSubInterfaces = new Option("a", "auto-sub-interfaces", false,
+            "Annotate every nested interface of an interface, with an adapter"
+            + " to the class nested the same way in its implementation,"
+            + " instead of the sub-interfaces given by -u.");
+    Option optionRules = new Option("f", "rules", true,
+            "Read rewrite rules, run on every source after the annotations are"
+            + " made, and the settings of the annotations (namespace, document"
+            + " suffix and XML type names) from the given file.");
+    Option optionSourceRoot = new Option("R", "source-root", true,
+            "Walk the given directory for packages of interfaces with an "
+            + IMPL_PACKAGE + " package of implementations (as XMLBeans"
+            + " generates them), instead of using -i and -c. The base"
+            + " directory defaults to this directory.");
     Option optionDryRun = new Option("n", "not-really", false,
-            "Print out what would be transformed, but don't actually do it.");
+            "Print out what would be transformed, but don't actually do it;"
+            + " with -v, print the changes as a unified diff. With -z, the"
+            + " annotated zip is not written. Nothing at all is written, so"
+            + " -j can only be -.");
+    Option optionTransactional = new Option("T", "transactional", false,
+            "Stage everything a run writes in " + Journal.DEFAULT_DIR_NAME
+            + " in the base directory, and only replace the sources once"
+            + " the run is done, so that a failed run changes nothing.");
+    Option optionBoundedMemory = new Option("B", "bounded-memory", false,
+            "Read sources of " + (SourceIO.WINDOW_THRESHOLD >> 20) + " MB or"
+            + " more through a window of a few blocks, rather than in to the"
+            + " heap whole; for single byte encodings, UTF-8, and UTF-16 or"
+            + " UTF-32 of a given byte order.");
+    Option optionShard = new Option("S", "shard", true,
+            "Only annotate the given slice of the sources, like 2/4 for the"
+            + " second of four, so that several processes or machines can"
+            + " annotate them at once; adapters are left in "
+            + Shard.DIR_NAME + " in the base directory for -G.");
+    Option optionMergeShards = new Option("G", "merge-shards", false,
+            "Once every shard of a run with -S is done, write the adapters"
+            + " they left (and their index, with -r), checking them for"
+            + " adapters of the same name binding different types.");
+    Option optionThreads = new Option("t", "threads", true,
+            "Number of threads to annotate files with; defaults to 1. Use 0"
+            + " for one thread per available processor.");
+    Option optionIncremental = new Option("r", "incremental", false,
+            "Only process sources that are new or changed since the last run"
+            + " with this option; content hashes are kept in "
+            + Manifest.DEFAULT_FILE_NAME + " in the base directory.");
+    Option optionEncoding = new Option("e", "encoding", true,
+            "Encoding of the sources; defaults to the platform encoding ("
+            + Charset.defaultCharset().name() + ").");
+    Option optionMergeAdapters = new Option("M", "merge-adapters", false,
+            "Write the XmlAdapter classes of each package in to a single "
+            + AdapterEmitter.MERGED_FILE_NAME + " rather than a file each.");
+    Option optionReport = new Option("j", "report", true,
+            "Write the time spent in each stage of the run, and counts of what"
+            + " it did, as JSON to the given file (- for standard out) once the"
+            + " run is done.");
+    Option optionZip = new Option("z", "zip", true,
+            "Annotate the sources of the given zip or jar (- for standard in)"
+            + " in to another, given by -o, instead of using -i and -c; the"
+            + " sources of impl packages are taken to be implementations,"
+            + " any others interfaces.");
+    Option optionOutput = new Option("o", "output", true,
+            "The zip to write the sources of -z and their adapters to;"
+            + " defaults to standard out (-).");
+    Option optionDaemon = new Option("D", "daemon", true,
+            "Keep running, and take jobs (one line of arguments each, as"
+            + " given on the command line) from the given local port, or"
+            + " from standard in if -; any other options are ignored.");
+    Option optionWatch = new Option("w", "watch", false,
+            "Keep running once the sources are annotated, and annotate again"
+            + " whatever changes, once changes have settled; not with -z.");
+    Option optionQuiet = new Option("q", "quiet", false,
+            "Print nothing but errors.");
+    Option optionVerbose = new Option("v", "verbose", false,
+            "Print what is done to each file, rather than only a summary of"
+            + " the run.");
     Option optionHelp = new Option("h", "help", false,
             "Print this help then quit.");
     options.addOption(optionIfaces);
     options.addOption(optionBase);
     options.addOption(optionImpls);
+    options.addOption(optionSourceRoot);
     options.addOption(optionDryRun);
+    options.addOption(optionTransactional);
     options.addOption(optionIfaceMarker);
     options.addOption(optionXmlTypesPrefix);
     options.addOption(optionSubInterfaces);
+    options.addOption(optionAutoSubInterfaces);
+    options.addOption(optionRules);
     options.addOption(optionSuffixed);
+    options.addOption(optionThreads);
+    options.addOption(optionShard);
+    options.addOption(optionMergeShards);
+    options.addOption(optionBoundedMemory);
+    options.addOption(optionIncremental);
+    options.addOption(optionEncoding);
+    options.addOption(optionMergeAdapters);
+    options.addOption(optionReport);
+    options.addOption(optionZip);
+    options.addOption(optionOutput);
+    options.addOption(optionDaemon);
+    options.addOption(optionWatch);
+    options.addOption(optionQuiet);
+    options.addOption(optionVerbose);
     options.addOption(optionHelp);
     CommandLineParser parser = new PosixParser();
     try {
       String dirInterfaces = "";
       String dirImpls = "";
+      File sourceRoot = null;
       String xmlTypePrefixes = "";
       String subIfs = null;
+      boolean autoSubIfs = false;
+      String rules = null;
       File baseDir = null;
       String suffix = DEFAULT_CLASS_IMPL_MARKER;
       boolean suffixed = DEFAULT_SUFFIX_CLASS_IMPL_MARKER;
       boolean dryRun = false;
+      boolean transactional = false;
+      boolean boundedMemory = false;
+      int threads = 1;
+      boolean incremental = false;
+      boolean mergeAdapters = false;
+      String encoding = null;
+      String report = null;
+      String logLevel = RunLog.Level.SUMMARY.name();
+      String zip = null;
+      String output = ZipAnnotator.STANDARD_STREAM;
+      boolean watch = false;
+      String shard = null;
+      boolean mergeShards = false;
       CommandLine cmd = parser.parse(options, args);
       if (cmd.hasOption("i") || cmd.hasOption("dir-interface")) {
         dirInterfaces = cmd.getOptionValue("dir-interface");
@@ -123,7 +342,25 @@ public class AnnotatorApp {
       if (cmd.hasOption("help") || cmd.hasOption('h')) {
         HelpFormatter formatter = new HelpFormatter();
         formatter.printHelp("annotator-app [options], where [options] can be any of:", options);
-        System.exit(0);
+        return 0;
+      }
+      if (job && (cmd.hasOption("D") || cmd.hasOption("daemon"))) {
+        System.out.println("A job cannot start another daemon.");
+        return 1;
+      }
+      if (job && (cmd.hasOption("w") || cmd.hasOption("watch"))) {
+        System.out.println("A job cannot watch its sources.");
+        return 1;
+      }
+      if (cmd.hasOption("D") || cmd.hasOption("daemon")) {
+        AnnotatorDaemon daemon = new AnnotatorDaemon();
+        String port = cmd.getOptionValue("daemon");
+        if ("-".equals(port)) {
+          daemon.serve(System.in, System.out);
+        } else {
+          daemon.listen(Integer.parseInt(port));
+        }
+        return 0;
       }
       if (cmd.hasOption("d") || cmd.hasOption("dir-class-impl")) {
         dirImpls = cmd.getOptionValue("dir-class-impl");
@@ -131,6 +368,12 @@ public class AnnotatorApp {
       if (cmd.hasOption("b") || cmd.hasOption("base-class-dir")) {
         baseDir = new File(cmd.getOptionValue("base-class-dir"));
       }
+      if (cmd.hasOption("R") || cmd.hasOption("source-root")) {
+        sourceRoot = new File(cmd.getOptionValue("source-root"));
+        if (baseDir == null) {
+          baseDir = sourceRoot;
+        }
+      }
       if (cmd.hasOption("c") || cmd.hasOption("class-impl-marker")) {
         suffix = cmd.getOptionValue("class-impl-marker");
       }
@@ -143,27 +386,138 @@ public class AnnotatorApp {
       if (cmd.hasOption("u") || cmd.hasOption("sub-interfaces")) {
         subIfs = cmd.getOptionValue("sub-interfaces");
       }
+      if (cmd.hasOption("a") || cmd.hasOption("auto-sub-interfaces")) {
+        autoSubIfs = true;
+      }
+      if (cmd.hasOption("f") || cmd.hasOption("rules")) {
+        rules = cmd.getOptionValue("rules");
+      }
       if (cmd.hasOption("n") || cmd.hasOption("not-really")) {
         dryRun = true;
       }
+      if (cmd.hasOption("T") || cmd.hasOption("transactional")) {
+        transactional = true;
+      }
+      if (cmd.hasOption("B") || cmd.hasOption("bounded-memory")) {
+        boundedMemory = true;
+      }
+      if (cmd.hasOption("e") || cmd.hasOption("encoding")) {
+        encoding = cmd.getOptionValue("encoding");
+      }
+      if (cmd.hasOption("r") || cmd.hasOption("incremental")) {
+        incremental = true;
+      }
+      if (cmd.hasOption("M") || cmd.hasOption("merge-adapters")) {
+        mergeAdapters = true;
+      }
+      if (cmd.hasOption("w") || cmd.hasOption("watch")) {
+        watch = true;
+      }
+      if (cmd.hasOption("S") || cmd.hasOption("shard")) {
+        shard = cmd.getOptionValue("shard");
+      }
+      if (cmd.hasOption("G") || cmd.hasOption("merge-shards")) {
+        mergeShards = true;
+      }
+      if (cmd.hasOption("q") || cmd.hasOption("quiet")) {
+        logLevel = RunLog.Level.QUIET.name();
+      }
+      if (cmd.hasOption("v") || cmd.hasOption("verbose")) {
+        logLevel = RunLog.Level.VERBOSE.name();
+      }
+      if (cmd.hasOption("j") || cmd.hasOption("report")) {
+        report = cmd.getOptionValue("report");
+      }
+      if (cmd.hasOption("z") || cmd.hasOption("zip")) {
+        zip = cmd.getOptionValue("zip");
+      }
+      if (cmd.hasOption("o") || cmd.hasOption("output")) {
+        output = cmd.getOptionValue("output");
+      }
+      if (cmd.hasOption("t") || cmd.hasOption("threads")) {
+        threads = Integer.parseInt(cmd.getOptionValue("threads"));
+        if (threads < 1) {
+          threads = Runtime.getRuntime().availableProcessors();
+        }
+      }
       try {
-        if ("".equals(dirInterfaces) || "".equals(dirImpls)) {
-          throw new IllegalArgumentException("You must supply a set of "
-                  + " interfaces and implementations.");
+        if (zip != null && watch) {
+          throw new IllegalArgumentException("A zip cannot be watched.");
+        }
+        if ((shard != null || mergeShards) && (zip != null || watch)) {
+          throw new IllegalArgumentException("Only directories of sources"
+                  + " can be sharded, and not watched.");
+        }
+        if (shard != null && mergeShards) {
+          throw new IllegalArgumentException("Shards are merged once every"
+                  + " shard is done, not by one of them.");
+        }
+        if (zip != null) {
+          // standard out may be taken by the zip:
+          RunLog log = new RunLog(ZipAnnotator.STANDARD_STREAM.equals(output)
+                  ? System.err : System.out, RunLog.Level.forName(logLevel));
+          try {
+            new ZipAnnotator(new SourceTransformer(suffix, suffixed, subIfs,
+                    autoSubIfs, rules == null ? RuleSet.defaults()
+                    : RuleSet.load(new File(rules))),
+                    xmlTypePrefixes.split(";")[0], encoding == null
+                    ? Charset.defaultCharset() : Charset.forName(encoding),
+                    log).annotate(zip, dryRun ? null : output);
+          } finally {
+            log.close();
+          }
+          return 0;
+        }
+        AnnotatorApp app;
+        if (sourceRoot != null) {
+          app = new AnnotatorApp(baseDir, sourceRoot, suffix, xmlTypePrefixes,
+                  subIfs, suffixed);
+        } else {
+          if ("".equals(dirInterfaces) || "".equals(dirImpls)) {
+            throw new IllegalArgumentException("You must supply a set of "
+                    + " interfaces and implementations.");
+          }
+          app = new AnnotatorApp(baseDir, dirInterfaces, dirImpls,
+                  suffix, xmlTypePrefixes, subIfs, suffixed);
+        }
+        app.setThreads(threads);
+        app.setIncremental(incremental);
+        app.setMergeAdapters(mergeAdapters);
+        app.setDetectSubInterfaces(autoSubIfs);
+        if (rules != null) {
+          app.setRules(new File(rules));
+        }
+        app.setReport(report);
+        app.setLogLevel(logLevel);
+        app.setDryRun(dryRun);
+        app.setTransactional(transactional);
+        app.setBoundedMemory(boundedMemory);
+        if (shard != null) {
+          app.setShard(shard);
+        }
+        app.setMergeShards(mergeShards);
+        if (encoding != null) {
+          app.setEncoding(encoding);
+        }
+        if (watch) {
+          return app.watch();
         }
-        AnnotatorApp app = new AnnotatorApp(baseDir, dirInterfaces, dirImpls,
-                suffix, xmlTypePrefixes, subIfs, suffixed);
         app.execute();
       } catch (Exception ex) {
         ex.printStackTrace();
         System.err.println(ex.getMessage());
-        System.exit(1);
+        return 1;
       }
     } catch (ParseException pex) {
       pex.printStackTrace();
       System.out.println("Incorrect options: " + pex.getMessage());
-      System.exit(1);
+      return 1;
+    } catch (IOException ex) {
+      ex.printStackTrace();
+      System.err.println(ex.getMessage());
+      return 1;
     }
+    return 0;
   }
 
   /**
@@ -185,28 +539,8 @@ public class AnnotatorApp {
           String suffix, String xmlTypes, String subIfs,
           boolean suffixed) throws IOException {
 
-    System.out.println(subIfs);
-    String[] ifs = new String[]{};
-    if (subIfs != null) {
-      ifs = new String[]{subIfs};
-      if (subIfs.contains(";")) {
-        ifs = subIfs.split(";");
-      }
-    }
-
-    for (String intf : ifs) {
-      String[] split = intf.split(":");
-      String name = split[0];
-      String[] names = split[1].split(",");
-      List<String> nameList = new ArrayList<String>();
-      for (String subclass : names) {
-        nameList.add(subclass);
-      }
-      this.subInterfaces.put(name, nameList);
-    }
+    this.transformer = new SourceTransformer(suffix, suffixed, subIfs);
     this.dirBase = baseDir;
-    this.suffixed = suffixed;
-    this.extension = suffix;
     String[] interfaces = interfaceDirs.split(";");
     String[] impls = implDirs.split(";");
     this.xmlTypePrefixes = xmlTypes.split(";");
@@ -228,141 +562,741 @@ public class AnnotatorApp {
     }
   }
 
+  /**
+   * Create a new run that walks a source tree for packages of interfaces and
+   * their implementations, attempting to annotate and munge classes and
+   * interfaces as necessary.
+   *
+   * @param baseDir base directory at the root package level where all the
+   * sources reside.
+   * @param sourceRoot directory to walk for packages of interfaces with an
+   * impl package of implementations.
+   * @param suffix the suffix for implementation classes; may be null if there
+   * is no suffix.
+   * @param xmlTypes Prefixes to apply to all named xml types; only the first
+   * is used.
+   * @param subIfs sub-interface names for given interface suffixes.
+   * @param suffixed suffix or prefix?
+   */
+  public AnnotatorApp(File baseDir, File sourceRoot, String suffix,
+          String xmlTypes, String subIfs, boolean suffixed) throws IOException {
+
+    this.transformer = new SourceTransformer(suffix, suffixed, subIfs);
+    if (!sourceRoot.isDirectory()) {
+      throw new FileNotFoundException("Error: directory " + sourceRoot
+              + " does not exist.");
+    }
+    this.dirBase = baseDir;
+    this.dirSourceRoot = sourceRoot;
+    this.xmlTypePrefixes = xmlTypes.split(";");
+    this.dirIfaces = new File[0];
+    this.dirImpls = new File[0];
+  }
+
   /**
    * Run it - trawl all classes and interfaces marking up appropriately.
    *
    * @return execution status; 0 for success, any other result is a failure.
    */
   public int execute() throws IOException {
+    return this.execute(null);
+  }
+
+  /**
+   * Annotate the sources over and over: every source first, then, each time
+   * sources change (and changes have settled), the sources changed and the
+   * interfaces their implementations implement. The implementations stay
+   * indexed in between, and what this run wrote is not annotated again. Only
+   * returns once interrupted.
+   *
+   * @return execution status of the last run; 0 for success, any other result
+   * is a failure.
+   * @throws IOException if the sources could not be watched, or annotated
+   * at first.
+   */
+  public int watch() throws IOException {
+    this.watcher = new SourceWatcher(SourceWatcher.DEFAULT_QUIET_MILLIS);
+    int val = 0;
+    try {
+      if (this.dirSourceRoot != null) {
+        this.watcher.watchTree(this.dirSourceRoot);
+      }
+      for (File dir : this.dirIfaces) {
+        this.watcher.watch(dir);
+      }
+      for (File dir : this.dirImpls) {
+        if (!Arrays.asList(this.dirIfaces).contains(dir)) {
+          this.watcher.watch(dir);
+        }
+      }
+      val = this.execute(null);
+      while (true) {
+        Set<File> changes = this.watcher.await();
+        try {
+          // leave out what was written by this run, or rewritten as it was:
+          for (Iterator<File> i = changes.iterator(); i.hasNext();) {
+            if (this.manifest.isUnchanged(i.next())) {
+              i.remove();
+            }
+          }
+          if (!changes.isEmpty()) {
+            val = this.execute(changes);
+          }
+        } catch (IOException ex) {
+          // the sources may still be being written; wait for the next change:
+          System.err.println(ex.getMessage());
+          val = 1;
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return val;
+    } finally {
+      this.watcher.close();
+      this.watcher = null;
+    }
+  }
+
+  /**
+   * Annotate the sources, or only those changed.
+   *
+   * @param changes the sources created, changed or removed since the last
+   * run; null for all.
+   * @return execution status; 0 for success, any other result is a failure.
+   */
+  private int execute(Set<File> changes) throws IOException {
+    int val;
+    if (this.dryRun && this.report != null
+            && !ZipAnnotator.STANDARD_STREAM.equals(this.report)) {
+      throw new IllegalArgumentException("A dry run writes nothing, so it can"
+              + " only report to standard out (-j -).");
+    }
+    this.stats = new RunStats();
+    // shards keep their journals apart, as they run at the same time:
+    File journalBase = this.shard == null ? this.dirBase
+            : this.shard.getDir(this.dirBase);
+    // a run that was killed is finished or undone before anything is read:
+    String recovered;
+    if (!this.dryRun) {
+      recovered = Journal.recover(journalBase);
+    } else if (new File(journalBase, Journal.DEFAULT_DIR_NAME).isDirectory()) {
+      recovered = "An interrupted run left " + Journal.DEFAULT_DIR_NAME
+              + "; the next run that writes finishes or undoes it.";
+    } else {
+      recovered = null;
+    }
+    DryRun plan = this.dryRun ? new DryRun(this.dirBase) : null;
+    if (this.shard != null && plan == null) {
+      this.shard.begin(this.dirBase);
+    }
+    Journal journal = this.transactional && plan == null
+            ? Journal.begin(journalBase) : null;
+    this.io = new SourceIO(this.io.getCharset(), this.stats, plan, journal,
+            this.boundedMemory);
+    if (changes != null) {
+      this.manifest = this.manifest.withIO(this.io);
+    } else if (this.incremental) {
+      this.manifest = Manifest.load(new File(this.dirBase,
+              Manifest.DEFAULT_FILE_NAME), this.io, this.settings());
+      if (this.shard != null) {
+        // merged with the others once every shard is done:
+        this.manifest = this.manifest.withIndex(new File(
+                this.shard.getDir(this.dirBase), Manifest.DEFAULT_FILE_NAME));
+      }
+    } else if (this.watcher != null) {
+      // kept between runs, to tell changes from what a run wrote:
+      this.manifest = new Manifest(new File(this.dirBase,
+              Manifest.DEFAULT_FILE_NAME), this.io, this.settings());
+    }
+    this.emitter = new AdapterEmitter(this.io, this.mergeAdapters);
+    this.claimedAdapters.clear();
+    RunLog log = new RunLog(System.out, this.logLevel);
+    if (recovered != null) {
+      log.summary(recovered);
+    }
+    FileJobRunner runner = new FileJobRunner(this.threads, log);
+    if (changes == null) {
+      this.index = new SymbolIndex();
+    }
+    try {
+      try {
+        if (this.mergeShards) {
+          val = this.merge(log);
+        } else {
+          val = changes == null ? this.annotate(runner)
+                  : this.annotate(runner, changes);
+        }
+      } finally {
+        runner.shutdown();
+        // adapters of the interfaces annotated so far, even if a later one
+        // failed; a shard leaves them to be merged, once done:
+        if (this.shard == null) {
+          long start = this.stats.start();
+          this.stats.add(RunStats.Counter.ADAPTERS_WRITTEN,
+                  this.emitter.flush(this.manifest, this.stats));
+          this.stats.stop(RunStats.Stage.ADAPTERS, start);
+        }
+      }
+      long collisions = this.stats.get(RunStats.Counter.ADAPTER_COLLISIONS);
+      if (collisions > 0) {
+        log.summary(collisions + " adapters were not created, as adapters of"
+                + " the same names bind other types; see -v.");
+      }
+      if (plan != null) {
+        plan.print(log);
+        log.summary("Would annotate " + this.stats.get(RunStats.Counter.FILES_TOUCHED)
+                + " files and write " + this.stats.get(RunStats.Counter.ADAPTERS_WRITTEN)
+                + " adapters; nothing was written.");
+      } else {
+        if (this.incremental) {
+          this.manifest.save();
+        }
+        Map<File, AdapterEmitter.Adapter> left = null;
+        if (this.shard != null) {
+          // the shard is only done, to merge, once its adapters are left:
+          left = this.emitter.drain();
+          this.shard.save(this.dirBase, left, this.incremental, this.io);
+        }
+        if (journal != null) {
+          long start = this.stats.start();
+          journal.commit();
+          this.stats.stop(RunStats.Stage.WRITE, start);
+        }
+        if (this.mergeShards) {
+          Shard.delete(this.dirBase);
+        }
+        log.summary(this.summary());
+        if (left != null) {
+          log.summary("Left " + left.size() + " adapters of " + this.shard
+                  + " in " + Shard.DIR_NAME + " to be merged.");
+        }
+      }
+    } finally {
+      try {
+        if (journal != null) {
+          // unless committed, the sources are left as they were:
+          journal.rollback();
+        }
+      } finally {
+        log.close();
+      }
+    }
+    if (this.report != null) {
+      String json = this.stats.toJson(this.threads);
+      if (ZipAnnotator.STANDARD_STREAM.equals(this.report)) {
+        System.out.print(json);
+      } else {
+        SourceIO.write(new File(this.report), json.getBytes(this.io.getCharset()));
+      }
+    }
+    return val;
+  }
+
+  /**
+   * Write the adapters every shard left, once written by none of the
+   * others, and merge the indexes they left, if incremental.
+   *
+   * @param log prints the adapters colliding.
+   * @return execution status; 0 for success, any other result is a failure.
+   * @throws IOException if a shard is not done, or what a shard left could
+   * not be read.
+   */
+  private int merge(RunLog log) throws IOException {
+    for (Shard.Output output : Shard.load(this.dirBase)) {
+      if (this.incremental && output.getManifest() != null) {
+        this.manifest.merge(Manifest.load(output.getManifest(), this.io,
+                this.settings()));
+      }
+      List<String> messages = new ArrayList<String>();
+      for (Map.Entry<File, AdapterEmitter.Adapter> adapter
+              : output.getAdapters().entrySet()) {
+        AdapterEmitter.Adapter claimed = this.claims.claim(adapter.getKey(),
+                adapter.getValue());
+        if (claimed == null) {
+          this.emitter.add(adapter.getKey(), adapter.getValue());
+        } else if (!claimed.equals(adapter.getValue())) {
+          messages.add("[!] " + adapter.getKey().getName() + " of "
+                  + output.getShard() + " would bind "
+                  + adapter.getValue().getBinding() + ", but already binds "
+                  + claimed.getBinding() + "; leaving it.");
+        }
+      }
+      log.file(messages);
+    }
+    return 0;
+  }
+
+  /**
+   * Index the implementations, then annotate the interfaces and the
+   * implementations.
+   *
+   * @param runner runs the jobs.
+   * @return execution status; 0 for success, any other result is a failure.
+   * @throws IOException if a source could not be annotated.
+   */
+  private int annotate(FileJobRunner runner) throws IOException {
     int val = -1;
+    if (this.dirSourceRoot != null) {
+      // implementations are indexed as they are found, then annotated:
+      PackageVisitor visitor = new PackageVisitor(runner);
+      Files.walkFileTree(this.dirSourceRoot.toPath(), visitor);
+      runner.await();
+      visitor.submit();
+      runner.await();
+      val = 0;
+    }
+    // first index every implementation, then annotate:
+    File[][] classes = new File[this.dirImpls.length][];
+    List<File> implementations = new ArrayList<File>();
+    for (int i = 0; i < this.dirImpls.length; i++) {
+      classes[i] = this.dirImpls[i].listFiles(new JavaSourceFileFilter());
+      implementations.addAll(Arrays.asList(classes[i]));
+    }
+    runner.run(implementations.toArray(new File[implementations.size()]),
+            new IndexJob());
     // for each interface directory:
     for (int i = 0; i < this.dirIfaces.length; i++) {
 
-      String packageName = this.dirIfaces[i].getAbsolutePath().substring(
-              this.dirBase.getAbsolutePath().length() + 1);
-      packageName = packageName.replace("/", ".");
-      String packageNameImpl = this.dirImpls[i].getAbsolutePath().substring(
-              this.dirBase.getAbsolutePath().length() + 1);
-      packageNameImpl = packageNameImpl.replace("/", ".");
+      String packageName = this.packageName(this.dirIfaces[i]);
+      // only used for interfaces whose implementations were not indexed:
+      String packageNameImpl = i < this.dirImpls.length
+              ? this.packageName(this.dirImpls[i])
+              : (packageName.length() == 0 ? IMPL_PACKAGE
+              : packageName + "." + IMPL_PACKAGE);
       // for each interface in that directory:
       File[] interfaces = this.dirIfaces[i].listFiles(new JavaSourceFileFilter());
-      for (File fileInterface : interfaces) {
-        this.annotateInterface(fileInterface, dirIfaces[i], packageName, packageNameImpl);
-      }
+      InterfaceJob job = new InterfaceJob(this.dirIfaces[i], packageName,
+              packageNameImpl);
+      runner.run(this.inShard(interfaces, job), job);
     }
 
     for (int i = 0; i < this.dirImpls.length; i++) {
 
       // now deal with impl classes:
-      File[] classes = this.dirImpls[i].listFiles(new JavaSourceFileFilter());
-      for (File classFile : classes) {
-        BufferedReader reader = new BufferedReader(new FileReader(classFile));
-        StringBuilder builder = new StringBuilder();
-        int read = -1;
-        while ((read = reader.read()) != -1) {
-          builder.append((char) read);
-        }
-        String fileName = FilenameUtils.removeExtension(classFile.getName());
-        fileName = fileName.substring(0, (fileName.length() - this.extension.length()));
-        String pattern = null;
-        String xmlTypePrefix = null;
-        if (this.xmlTypePrefixes != null && i < this.xmlTypePrefixes.length) {
-          xmlTypePrefix = this.xmlTypePrefixes[i];
-        }
-        builder = this.annotateClass(builder, classFile, fileName, xmlTypePrefix);
-        // check for existence of XmlAnySimpleType:
-        boolean modified = false;
-        String annotation = "org.apache.xmlbeans.impl.values.XmlAnySimpleTypeImpl";
-        pattern = "org.apache.xmlbeans.XmlAnySimpleType get";
-        if (builder.toString().contains(pattern)) {
-          int index = builder.toString().indexOf(pattern);
-          if (index > -1) {
-            modified = true;
-            builder = new StringBuilder(builder.toString().replace(pattern, annotation + " get"));
-          }
-        }
-        String replace = "org.apache.xmlbeans.impl.values.XmlAnySimpleTypeImpl target = null;";
-        pattern = "org.apache.xmlbeans.XmlAnySimpleType target = null;";
-        if (builder.toString().contains(pattern)) {
-          int index = builder.toString().indexOf(pattern);
-          if (index > -1) {
-            modified = true;
-            builder = new StringBuilder(builder.toString().replace(pattern, replace));
-          }
-        }
-        replace = "target = (org.apache.xmlbeans.impl.values.XmlAnySimpleTypeImpl)get_store()";
-        pattern = "target = (org.apache.xmlbeans.XmlAnySimpleType)get_store()";
-        if (builder.toString().contains(pattern)) {
-          int index = builder.toString().indexOf(pattern);
-          if (index > -1) {
-            modified = true;
-            builder = new StringBuilder(builder.toString().replace(pattern, replace));
-          }
-        }
-        if (modified) {
-          this.writeFileData(classFile, builder.toString());
-        }
+      String xmlTypePrefix = null;
+      if (this.xmlTypePrefixes != null && i < this.xmlTypePrefixes.length) {
+        xmlTypePrefix = this.xmlTypePrefixes[i];
       }
+      ImplementationJob job = new ImplementationJob(xmlTypePrefix);
+      runner.run(this.inShard(classes[i], job), job);
       val = 0;
     }
     return val;
   }
 
   /**
-   * Add appropriate XML (and other) annotations to the class declaration.
+   * Annotate the sources changed since the last run: index the
+   * implementations changed again, then annotate the interfaces changed and
+   * those the implementations changed (or removed) implement, then the
+   * implementations.
    *
-   * @param builder the non-null builder containing the data to process and
-   * transform.
-   * @param file the non-null file to write the resultant data to.
-   * @param name the non-null name of the class to transform.
-   * @param xmlTypePrefix prefix to add to the class name (helps prevent name
-   * clashes for names like string, int etc.); not used if null.
-   * @throws IOException
+   * @param runner runs the jobs.
+   * @param changes the sources created, changed or removed.
+   * @return execution status; 0 for success, any other result is a failure.
+   * @throws IOException if a source could not be annotated.
    */
-  private StringBuilder annotateClass(StringBuilder builder, File file,
-          String name, String xmlTypePrefix) throws IOException {
-    String pattern = "public class " + name;
-    // rename the xml type to be lower char for 1st char:
-    String data = "\nimport javax.xml.bind.annotation.XmlType;\n\n"
-            + "@XmlType(name=\""
-            + Character.toLowerCase(name.charAt(0))
-            + name.substring(1) + "\")\n" + pattern;
-    if (xmlTypePrefix != null) {
-      data = "\nimport javax.xml.bind.annotation.XmlType;\n\n"
-              + "@XmlType(name=\"" + xmlTypePrefix + ""
-              + Character.toLowerCase(name.charAt(0))
-              + name.substring(1) + "\")\n" + pattern;
+  private int annotate(FileJobRunner runner, Set<File> changes)
+          throws IOException {
+    Set<File> interfaces = new LinkedHashSet<File>();
+    List<File> implementations = new ArrayList<File>();
+    Set<String> implemented = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    for (File file : changes) {
+      FileJobRunner.Job job = this.job(file.getParentFile());
+      if (job instanceof ImplementationJob) {
+        String name = file.getName();
+        implemented.addAll(this.index.remove(this.packageName(file.getParentFile()),
+                name.substring(0, name.length() - ".java".length())));
+        if (file.isFile()) {
+          implementations.add(file);
+        }
+      } else if (job instanceof InterfaceJob && file.isFile()) {
+        interfaces.add(file);
+      }
     }
+    runner.run(implementations.toArray(new File[implementations.size()]),
+            new IndexJob(implemented));
+    for (String iface : implemented) {
+      File file = this.interfaceFile(iface);
+      if (file != null && interfaces.add(file)) {
+        // unchanged, but paired differently:
+        this.manifest.forget(file);
+      }
+    }
+    for (File file : interfaces) {
+      runner.submit(file, this.job(file.getParentFile()));
+    }
+    runner.await();
+    for (File file : implementations) {
+      runner.submit(file, this.job(file.getParentFile()));
+    }
+    runner.await();
+    return 0;
+  }
 
-    builder = new StringBuilder(builder.toString().replace(pattern, data));
-    this.writeFileData(file, builder.toString());
-    return builder;
+  /**
+   * Get the job for the sources of a directory, as a run annotating every
+   * source would give them.
+   *
+   * @param dir the directory.
+   * @return the job; null if the sources of the directory are not annotated.
+   */
+  private FileJobRunner.Job job(File dir) {
+    if (this.dirSourceRoot != null) {
+      FileJobRunner.Job job = this.packageJob(dir);
+      if (job != null) {
+        return job;
+      }
+    }
+    dir = dir.getAbsoluteFile();
+    for (int i = 0; i < this.dirIfaces.length; i++) {
+      if (this.dirIfaces[i].getAbsoluteFile().equals(dir)) {
+        String packageName = this.packageName(this.dirIfaces[i]);
+        return new InterfaceJob(this.dirIfaces[i], packageName,
+                i < this.dirImpls.length ? this.packageName(this.dirImpls[i])
+                : (packageName.length() == 0 ? IMPL_PACKAGE
+                : packageName + "." + IMPL_PACKAGE));
+      }
+    }
+    for (int i = 0; i < this.dirImpls.length; i++) {
+      if (this.dirImpls[i].getAbsoluteFile().equals(dir)) {
+        return new ImplementationJob(this.xmlTypePrefixes != null
+                && i < this.xmlTypePrefixes.length ? this.xmlTypePrefixes[i]
+                : null);
+      }
+    }
+    return null;
   }
 
   /**
-   * Change all instances of interface XmlAnySimpleType to it's implementation.
+   * Get the job for the sources of a directory within the source root: a
+   * package is a package of interfaces when it has an impl package, which
+   * then holds the implementations.
    *
-   * Not a clean solution.
+   * @param dir the directory.
+   * @return the job; null if the directory is neither.
+   */
+  private FileJobRunner.Job packageJob(File dir) {
+    Path path = dir.toPath().toAbsolutePath().normalize();
+    Path root = this.dirSourceRoot.toPath().toAbsolutePath().normalize();
+    if (!path.startsWith(root)) {
+      return null;
+    }
+    if (new File(dir, IMPL_PACKAGE).isDirectory()) {
+      return new InterfaceJob(dir, this.packageName(dir),
+              this.packageName(new File(dir, IMPL_PACKAGE)));
+    }
+    if (IMPL_PACKAGE.equals(dir.getName()) && !path.equals(root)) {
+      String xmlTypePrefix = null;
+      if (this.xmlTypePrefixes != null && this.xmlTypePrefixes.length > 0) {
+        xmlTypePrefix = this.xmlTypePrefixes[0];
+      }
+      return new ImplementationJob(xmlTypePrefix);
+    }
+    return null;
+  }
+
+  /**
+   * Find the source of an interface among the packages of interfaces.
    *
-   * @param file the file to modify.
-   * @param builder contents of the file to perform replacements on.
-   * @throws IOException if the file could not be read or does not exist.
+   * @param iface the qualified name of the interface; nested interfaces are
+   * named through the interfaces they are declared in.
+   * @return the source of its top level interface; null if there is none.
    */
-  private StringBuilder adaptXmlAnySimpleType(File file, StringBuilder builder)
-          throws IOException {
+  private File interfaceFile(String iface) {
+    for (int dot = iface.indexOf('.'); dot > 0; dot = iface.indexOf('.', dot + 1)) {
+      String packageName = iface.substring(0, dot);
+      int end = iface.indexOf('.', dot + 1);
+      String name = end < 0 ? iface.substring(dot + 1) : iface.substring(dot + 1, end);
+      File dir = new File(this.dirBase, packageName.replace('.', File.separatorChar));
+      File file = new File(dir, name + ".java");
+      if (file.isFile() && this.job(dir) instanceof InterfaceJob) {
+        return file;
+      }
+    }
+    File file = new File(this.dirBase, iface.split("\\.")[0] + ".java");
+    return file.isFile() && this.job(this.dirBase) instanceof InterfaceJob
+            ? file : null;
+  }
+
+  /**
+   * Determine if a source belongs to the shard of this run, by its
+   * interface: the interface itself, or the interface an implementation
+   * implements (once indexed).
+   *
+   * @param file the source.
+   * @param job the job for the source.
+   * @return true if the source is annotated by this run.
+   */
+  private boolean inShard(File file, FileJobRunner.Job job) {
+    if (this.shard == null) {
+      return true;
+    }
+    String name = file.getName();
+    name = name.substring(0, name.length() - ".java".length());
+    String packageName = this.packageName(file.getParentFile());
+    if (packageName.length() > 0) {
+      name = packageName + "." + name;
+    }
+    if (job instanceof ImplementationJob && this.index.getInterface(name) != null) {
+      name = this.index.getInterface(name);
+    }
+    return this.shard.owns(name);
+  }
+
+  /**
+   * Keep the sources belonging to the shard of this run.
+   *
+   * @param files the sources.
+   * @param job the job for the sources.
+   * @return the sources annotated by this run.
+   */
+  private File[] inShard(File[] files, FileJobRunner.Job job) {
+    if (this.shard == null) {
+      return files;
+    }
+    List<File> kept = new ArrayList<File>();
+    for (File file : files) {
+      if (this.inShard(file, job)) {
+        kept.add(file);
+      }
+    }
+    return kept.toArray(new File[kept.size()]);
+  }
 
-    String annotation = "@XmlElement(type=org.apache.xmlbeans.impl.values.XmlAnySimpleTypeImpl.class)";
-    String xmlPattern = "org.apache.xmlbeans.XmlAnySimpleType get";
-    if (builder.toString().contains(xmlPattern)) {
-      builder = new StringBuilder(builder.toString().replace(xmlPattern, annotation + "\n" + xmlPattern));
-      this.writeFileData(file, builder.toString());
+  /**
+   * Summarise what the run did.
+   *
+   * @return the summary.
+   */
+  private String summary() {
+    if (this.mergeShards) {
+      return "Merged the shards and wrote "
+              + this.stats.get(RunStats.Counter.ADAPTERS_WRITTEN)
+              + " adapters in "
+              + TimeUnit.NANOSECONDS.toMillis(this.stats.getElapsed()) + " ms.";
     }
-    xmlPattern = "org.apache.xmlbeans.XmlAnySimpleType add";
-    if (builder.toString().contains(xmlPattern)) {
-      builder = new StringBuilder(builder.toString().replace(xmlPattern, annotation + "\n" + xmlPattern));
-      this.writeFileData(file, builder.toString());
+    return "Annotated " + this.stats.get(RunStats.Counter.FILES_TOUCHED)
+            + " files (" + this.stats.get(RunStats.Counter.FILES_UNCHANGED)
+            + " unchanged, " + this.stats.get(RunStats.Counter.FILES_SKIPPED)
+            + " skipped) and wrote "
+            + this.stats.get(RunStats.Counter.ADAPTERS_WRITTEN) + " adapters in "
+            + TimeUnit.NANOSECONDS.toMillis(this.stats.getElapsed()) + " ms.";
+  }
+
+  /**
+   * Describe the settings sources are annotated with, as recorded in the
+   * manifest: sources annotated with other settings are annotated again.
+   *
+   * @return the description.
+   */
+  private String settings() {
+    return "version " + AnnotatorApp.class.getPackage().getImplementationVersion()
+            + "\nencoding " + this.io.getCharset().name()
+            + "\nxml-type-prefixes " + Arrays.toString(this.xmlTypePrefixes)
+            + "\nmerge-adapters " + this.mergeAdapters
+            + "\n" + this.transformer.describe();
+  }
+
+  /**
+   * Derive the name of a package from its directory, relative to the base
+   * directory.
+   *
+   * @param dir the directory of the package.
+   * @return the name of the package; empty for the base directory itself.
+   */
+  private String packageName(File dir) {
+    String path = dir.getAbsolutePath();
+    String base = this.dirBase.getAbsolutePath();
+    if (path.length() <= base.length()) {
+      return "";
+    }
+    return path.substring(base.length() + 1).replace("/", ".");
+  }
+
+  /**
+   * Set the number of threads used to process files; by default files are
+   * processed one at a time on the calling thread.
+   *
+   * @param threads the number of threads; 1 or less to not use extra threads.
+   */
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  /**
+   * Only process the sources that are new or have changed since the last
+   * incremental run; the content hashes of the sources (and the adapters
+   * created for them) are kept in an index file in the base directory.
+   *
+   * @param incremental true to skip unchanged sources.
+   */
+  public void setIncremental(boolean incremental) {
+    this.incremental = incremental;
+  }
+
+  /**
+   * Write the XmlAdapter classes of each package in to a single file, rather
+   * than a file per adapter; adapters already in that file are kept.
+   *
+   * @param mergeAdapters true to merge the adapters of a package.
+   */
+  public void setMergeAdapters(boolean mergeAdapters) {
+    this.mergeAdapters = mergeAdapters;
+  }
+
+  /**
+   * Only print what a run would write, rather than writing anything: a line
+   * for each file that would be changed or created, and, when verbose, the
+   * changes as a unified diff. The report, if any, can only be printed to
+   * standard out.
+   *
+   * @param dryRun true to write nothing.
+   */
+  public void setDryRun(boolean dryRun) {
+    this.dryRun = dryRun;
+  }
+
+  /**
+   * Stage everything a run writes (sources, adapters and the index of an
+   * incremental run) in a journal directory in the base directory, and only
+   * replace the files once the run is done; a run that fails changes
+   * nothing. A run that is killed is finished (if it was replacing the
+   * files) or undone by the next run.
+   *
+   * @param transactional true to stage what is written.
+   */
+  public void setTransactional(boolean transactional) {
+    this.transactional = transactional;
+  }
+
+  /**
+   * Read large sources (of {@value SourceIO#WINDOW_THRESHOLD} bytes or
+   * more) through a window of a few blocks, decoding a block at a time,
+   * rather than decoding them in to the heap whole. The heap a source takes
+   * is then the window, an index of its blocks, and its outline and edits:
+   * it no longer grows with the text, but still grows with the declarations
+   * annotated. A run with an encoding that cannot be read this way (see
+   * the README) fails.
+   *
+   * @param boundedMemory true to keep large sources out of the heap.
+   */
+  public void setBoundedMemory(boolean boundedMemory) {
+    this.boundedMemory = boundedMemory;
+  }
+
+  /**
+   * Only annotate a slice of the sources, so that several processes (or
+   * machines, sharing the sources) can annotate them at once: an interface
+   * belongs to a shard by a hash of its name, and its implementation goes
+   * with it. Adapters (and the index of an incremental run) are left in
+   * {@value Shard#DIR_NAME} in the base directory, to be written by
+   * {@link #setMergeShards(boolean) merging} once every shard is done.
+   *
+   * @param shard the shard, like 2/4 for the second of four; null for all
+   * of the sources.
+   * @throws IllegalArgumentException if the shard is not given as i/N.
+   */
+  public void setShard(String shard) {
+    this.shard = shard == null ? null : Shard.forName(shard);
+  }
+
+  /**
+   * Rather than annotating, write the adapters every shard left (merging
+   * their indexes as well, if incremental), and remove what they left; two
+   * shards creating adapters of the same name binding different types are
+   * reported as colliding, the first shard's adapter kept. Fails, merging
+   * nothing, unless every shard is done.
+   *
+   * @param mergeShards true to merge the shards.
+   */
+  public void setMergeShards(boolean mergeShards) {
+    this.mergeShards = mergeShards;
+  }
+
+  /**
+   * Set how much of a run is printed: quiet prints nothing but errors,
+   * summary (the default) a line once the run is done, and verbose what was
+   * done to each file as well.
+   *
+   * @param level quiet, summary or verbose.
+   * @throws IllegalArgumentException if there is no such level.
+   */
+  public void setLogLevel(String level) {
+    this.logLevel = RunLog.Level.forName(level);
+  }
+
+  /**
+   * Report the time spent in each stage of a run, and counts of what it did
+   * (files touched and skipped, bytes read and written, enums renumbered,
+   * sub-interfaces adapted and rule edits), as JSON once the run is done.
+   *
+   * @param report the file to write the report to; - for standard out, or
+   * null to not report.
+   */
+  public void setReport(String report) {
+    this.report = report;
+  }
+
+  /**
+   * Annotate every nested interface of an interface, with an adapter to the
+   * class nested the same way in its implementation, rather than only the
+   * sub-interfaces listed for its suffix.
+   *
+   * @param detectSubInterfaces true to detect nested interfaces.
+   */
+  public void setDetectSubInterfaces(boolean detectSubInterfaces) {
+    this.transformer = this.transformer.detectingSubInterfaces(detectSubInterfaces);
+  }
+
+  /**
+   * Run the rewrite rules of a rules file on every source, after the
+   * annotations are made, and annotate with the settings of the file; the
+   * rules are added to the default rules.
+   *
+   * @param rules the rules file.
+   * @throws IOException if the file could not be read.
+   * @throws IllegalArgumentException if the file is malformed.
+   */
+  public void setRules(File rules) throws IOException {
+    this.transformer = this.transformer.withRules(RuleSet.load(rules));
+  }
+
+  /**
+   * Set the encoding sources are read and written in; defaults to the
+   * platform encoding.
+   *
+   * @param encoding name of the encoding.
+   */
+  public void setEncoding(String encoding) {
+    this.io = new SourceIO(Charset.forName(encoding));
+  }
+
+  /**
+   * Annotate an implementation class file and run the rules on it (by
+   * default making it use the concrete implementation of XmlAnySimpleType).
+   *
+   * @param classFile the file to modify.
+   * @param xmlTypePrefix prefix to add to the class name; not used if null.
+   * @param messages messages to report once the class is done.
+   * @throws IOException if the file could not be read or written.
+   */
+  private void processImplementation(File classFile, String xmlTypePrefix,
+          List<String> messages) throws IOException {
+    if (this.manifest != null && this.manifest.isUnchanged(classFile)) {
+      messages.add(classFile.getName() + " unchanged since last run; skipping.");
+      this.stats.add(RunStats.Counter.FILES_SKIPPED, 1);
+      return;
+    }
+    SourceFile source = SourceFile.read(classFile, this.io);
+    this.transformer.annotateImplementation(source, xmlTypePrefix, messages,
+            this.stats);
+    // hashed before it is written, as a source read through a window cannot
+    // be read once it is replaced:
+    byte[] hash = this.manifest == null ? null : Manifest.hash(source.getContent());
+    this.commit(source);
+    if (this.manifest != null) {
+      this.manifest.record(classFile, hash, Collections.<File>emptyList());
     }
-    return builder;
   }
 
   /**
@@ -372,280 +1306,258 @@ public class AnnotatorApp {
    * annotations to all inner classes and enums; - modification of
    * XmlAnySimpleType get/add methods to use concrete implementations
    *
+   * The interface is read once and outlined in a single pass; the stages
+   * then queue their edits, which are applied in a single pass, and the
+   * interface is written out once at the end (its adapters are written once
+   * the run is done). Declarations already carrying the annotations a stage
+   * adds are left alone, so annotating an interface twice changes nothing.
+   *
    * @param fileInterface the file to modify.
    * @param dirIface the directory where the file is located.
    * @param packageName the name of the package where the interface resides.
    * @param packageNameImpl the name of the package where the implementing class
    * resides.
+   * @param messages messages to report once the interface is done.
    * @throws IOException if the file could not be read or does not exist.
    */
-  private void annotateInterface(File fileInterface, File dirIface,
-          String packageName, String packageNameImpl) throws IOException {
-
-    BufferedReader reader = new BufferedReader(new FileReader(fileInterface));
-    StringBuilder builder = new StringBuilder();
-    int read = -1;
-    while ((read = reader.read()) != -1) {
-      builder.append((char) read);
-    }
-    String fileName = FilenameUtils.removeExtension(fileInterface.getName());
-    // check that file is interface
-    int startIfacePos = builder.indexOf("public interface " + fileName);
-    if (startIfacePos < 0) {
-      System.out.println("[*] ignoring non-interface "
-              + fileInterface.getName() + ", " + fileName);
+  private void processInterface(File fileInterface, File dirIface,
+          String packageName, String packageNameImpl, List<String> messages)
+          throws IOException {
+
+    if (this.manifest != null && this.manifest.isUnchanged(fileInterface)) {
+      messages.add(fileInterface.getName() + " unchanged since last run; skipping.");
+      this.stats.add(RunStats.Counter.FILES_SKIPPED, 1);
       return;
     }
-    String implFilename = fileName + this.extension + ".java";
-    String abstractFilename = "XmlAdapter" + implFilename;
-    if (!this.suffixed) {
-      abstractFilename = "XmlAdapter" + this.extension + fileName;
-      implFilename = this.extension + fileName + ".java";
-    }
-    /* Here, the XmlJavaTypeAdapter is an auto-generated class (by this
-     * process) that references a marshalling class to bind the interface
-     * to a concrete implementation; we also give a (hopefully unique) name
-     * via the XmlType annotation: */
-    String data = "\nimport javax.xml.bind.annotation.XmlType;\n"
-            + "import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;\n\n"
-            + "@XmlJavaTypeAdapter("
-            + FilenameUtils.removeExtension(abstractFilename) + ".class)\n"
-            + "@XmlType(name=\""
-            + Character.toLowerCase(fileName.charAt(0))
-            + fileName.substring(1) + "\")";
-    // Xml Any Simple element causes problems - find out if it's in this interface:
-    boolean containsXmlElement = false;
-    String xmlPattern = "org.apache.xmlbeans.XmlAnySimpleType get";
-    if (builder.toString().contains(xmlPattern)) {
-      containsXmlElement = true;
-    }
-    xmlPattern = "org.apache.xmlbeans.XmlAnySimpleType add";
-    if (builder.toString().contains(xmlPattern)) {
-      containsXmlElement = true;
-    }
-    // find out if it's got enums - we need to name each enum differently:
-    boolean containsEnum = false;
-    if (builder.toString().contains("static final class Enum extends org.apache.xmlbeans.")) {
-      containsEnum = true;
-    }
-    if (builder.toString().contains("@XmlJavaTypeAdapter")) {
-      // ^ dumb check! TODO make more elegant
-      System.out.println(fileName + " already contains relevant annotation.");
-    } else {
-      // need to add some imports:
-      if (containsEnum) {
-        data = "\nimport javax.xml.bind.annotation.XmlType;\n" + data;
-      }
-      if (containsXmlElement) {
-        data = "\nimport javax.xml.bind.annotation.XmlElement;\n" + data;
-      }
-      // Now finally write the new class definition in to the file:
-      String newContents = builder.toString().replace("public interface " + fileName,
-              data + "\n" + "public interface " + fileName);
-      builder = new StringBuilder(newContents);
-      this.writeFileData(fileInterface, newContents);
-      System.out.println("Updated " + fileInterface.getName() + " with appropriate XML annotations and import statements.");
-    }
-    /* find all enums of StringEnumAbstractBase and add annotations - each
-     * enum in the class needs a unique name; in this case, we create a
-     * prefix and append an index for each enum in the class: */
-    String patternEnum = "static final class Enum extends org.apache.xmlbeans.StringEnumAbstractBase";
-    boolean enums = false;
-    int enumCount = 0;
-    // do a 'blat' replace - all enums have same name at this point (if >1 enums):
-    builder = new StringBuilder(builder.toString().replace(patternEnum,
-            "@XmlType(name=\""
-            + FilenameUtils.removeExtension(fileInterface.getName())
-            + "Enum_IDX" + "\", namespace=\"http://openeyes.org\")\n"
-            + patternEnum));
-
-    int enumIndex = builder.toString().lastIndexOf("Enum_IDX");
-    // now perform replacements based on index:
-    while (enumIndex > -1) {
-      enums = true;
-      builder = new StringBuilder(builder.replace(enumIndex, enumIndex + "Enum_IDX".length(), "Enum_" + (enumCount++)));
-      enumIndex = builder.toString().lastIndexOf("Enum_IDX", enumIndex - 1);
-    }
-    if (enums) {
-      this.writeFileData(fileInterface, builder.toString());
-    }
-    /* EVERY interface requires an abstract class to bind the interface to
-     * a class for marshalling purposes - create the data based
-     * on the intreface name and the impl - this is the XmlJavaTypeAdapter
-     * reference in the header of the interface:
-     */
-    String abstractFileData = this.formatXmlAdapter(packageName,
-            packageNameImpl, fileName);
-    File abstractFile = new File(dirIface, abstractFilename);
-    if (!abstractFile.exists()) {
-      // create the new abstract file
-      this.writeFileData(abstractFile, abstractFileData);
-      System.out.println("[*] Creation of new file in "
-              + abstractFile.getAbsolutePath() + " succeeded");
-
-    } else {
-      System.out.println(abstractFilename + " already exists; leaving it.");
+    SourceFile source = SourceFile.read(fileInterface, this.io);
+    /* adapters referred to by the interface, in the order they are created;
+     * adapters created by an earlier run or another interface map to null: */
+    Map<File, AdapterEmitter.Adapter> adapters = new LinkedHashMap<File, AdapterEmitter.Adapter>();
+    if (!this.transformer.annotateInterface(source, dirIface, packageName,
+            packageNameImpl, this.index, this.claims, adapters, messages,
+            this.stats)) {
+      this.stats.add(RunStats.Counter.FILES_SKIPPED, 1);
+      if (this.manifest != null) {
+        this.manifest.record(fileInterface, source.getContent());
+      }
+      return;
     }
-    /* The interface XmlAnySimpleType for add/get methods barfs:
-     * So we're going to replace all occurrences of the interface
-     * with the concrete implementation:
-     */
-    builder = this.adaptXmlAnySimpleType(fileInterface, builder);
-    // Each interface /might/ have sub-interfaces - let's check to see if there are:
-    StringBuilder copyStr = new StringBuilder(builder);
-    // all sub-interfaces are not newline-based - they'll be indented with spaces:
-    final String str = " public interface ";
-    boolean updated = false;
-    int index = builder.length() - 1;
-    while ((index = copyStr.toString().lastIndexOf(str, index - 1)) > -1
-            && index > startIfacePos) {
-      if (index > -1) {
-        updated = true;
-        int spaceChar = copyStr.toString().indexOf(" ", index
-                + str.length());
-        String subinterface = copyStr.toString().substring(index
-                + str.length(), spaceChar);
-        // hack TODO need to get this to work for multiple configurations
-        String prefix = null;
-
-        for (Iterator<String> it = this.subInterfaces.keySet().iterator(); it.hasNext();) {
-          String subclass = it.next();
-          /* You need knowledge of which subinterfaces contain their own
-           * subinterfaces - this is performed with the -u/--sub-interfaces
-           * option. If the following condition holds, then we've got
-           * a situation where the interface depth looks something like
-           * A->B->C (in terms of inner classes); this means that new
-           * abstract binding classes must be created catering for the
-           * depth of classes:
-           */
-          if (fileName.endsWith(subclass) && this.subInterfaces.get(subclass).contains(subinterface)) {
-            prefix = fileName.substring(0, fileName.length() - "Document".length());
-            String subinterfaceImpl = prefix + "Impl." + subinterface + "Impl";
-            String abstractFileName = "XmlAdapter" + (fileName + "."
-                    + subinterfaceImpl).replace(".", "_");
-            copyStr = new StringBuilder(copyStr.toString().replace(" public interface " + subinterface,
-                    "@XmlJavaTypeAdapter(" + abstractFileName + ".class)\n"
-                    + " public interface " + subinterface));
-            subinterface = prefix + "." + subinterface;
-            System.out.println(abstractFileName + " Updating subinterface " + subinterface);
-            this.writeFileData(new File(dirIface, abstractFileName + ".java"),
-                    this.formatXmlAdapter(packageName,
-                    packageNameImpl, fileName, "." + subinterface, "." + subinterfaceImpl));
-          } else {
-            // Otherwise, it's just a standard sub-interface of the main interface
-            // - which requires a different kind of abstract binding class:
-            String abstractFileName = "XmlAdapter" + (fileName + "."
-                    + subinterface).replace(".", "_") + "Impl";
-            copyStr = new StringBuilder(copyStr.toString().replace(" public interface " + subinterface,
-                    "@XmlJavaTypeAdapter(" + abstractFileName + ".class)\n"
-                    + " public interface " + subinterface));
-            System.out.println("Updating subinterface: " + subinterface
-                    + " with XmlJavaTypeAdapter " + abstractFileName);
-            this.writeFileData(new File(dirIface, abstractFileName + ".java"),
-                    this.formatXmlAdapter(packageName,
-                    packageNameImpl, fileName, "." + subinterface, "." + subinterface + "Impl"));
-          }
-        }
+    byte[] hash = this.manifest == null ? null : Manifest.hash(source.getContent());
+    this.commit(source);
+    // adapters are written (and recorded) once the run is done:
+    Set<File> targets = new LinkedHashSet<File>();
+    for (Map.Entry<File, AdapterEmitter.Adapter> adapter : adapters.entrySet()) {
+      if (adapter.getValue() != null) {
+        this.emitter.add(adapter.getKey(), adapter.getValue());
       }
+      targets.add(this.emitter.getTarget(adapter.getKey()));
+    }
+    // annotated again once the class it is paired with changes, moves or is
+    // renamed, like once an adapter does:
+    String name = fileInterface.getName();
+    name = name.substring(0, name.length() - ".java".length());
+    if (packageName.length() > 0) {
+      name = packageName + "." + name;
     }
-    if (updated) {
-      this.writeFileData(fileInterface, copyStr.toString());
+    SymbolIndex.Implementation implementation = this.index.getImplementation(name);
+    if (implementation != null && implementation.getSource() != null) {
+      targets.add(implementation.getSource());
+    }
+    if (this.manifest != null) {
+      // the adapter of the interface itself always comes first:
+      Map.Entry<File, AdapterEmitter.Adapter> abstractFile = adapters.entrySet().iterator().next();
+      File abstractTarget = this.emitter.getTarget(abstractFile.getKey());
+      if (abstractFile.getValue() == null && abstractTarget.isFile()) {
+        this.manifest.record(abstractTarget);
+      }
+      this.manifest.record(fileInterface, hash, targets);
     }
   }
 
   /**
-   * Write the file data out.
+   * Write a source back if it was changed, counting it as touched or
+   * unchanged.
    *
-   * @param f the file to write to.
-   * @param data the data to write to the file.
-   * @throws IOException if the file could not be read or does not exist.
+   * @param source the source.
+   * @throws IOException if the source could not be written.
    */
-  private void writeFileData(File f, String data) throws IOException {
-    FileWriter fw = new FileWriter(f);
-    fw.write(data);
-    fw.close();
+  private void commit(SourceFile source) throws IOException {
+    this.stats.add(source.commit() ? RunStats.Counter.FILES_TOUCHED
+            : RunStats.Counter.FILES_UNCHANGED, 1);
   }
 
   /**
-   * Creates a new XML Adapter for the specified named interface and package
-   * details. This method is used to create XML adapters for interfaces that
-   * contain an interface that contains an interface and the child class needs
-   * to be mapped to a class.
-   *
-   * @param packageName the name of the package where the interface resides.
-   * @param packageNameImpl the name of the package where the implementation
-   * resides.
-   * @param name the name of the interface that contains the hierarchy of
-   * classes.
-   * @param subclass the child of the interface.
-   * @param subclassImpl name of the subclass implementation.
-   * @return data containing the class information.
+   * Adapters are created unless written by an earlier run, and only once
+   * even when several interfaces are processed at the same time; the first
+   * of two different adapters of the same name is created.
    */
-  private String formatXmlAdapter(String packageName, String packageNameImpl,
-          String name, String subclass, String subclassImpl) {
-    String data = "";
-    if (subclass == null) {
-      subclass = "";
+  private class RunAdapterClaims implements SourceTransformer.AdapterClaims {
+
+    public boolean exists(File adapter) throws IOException {
+      return emitter.exists(adapter);
     }
-    if (subclassImpl == null) {
-      subclassImpl = subclass;
+
+    public AdapterEmitter.Adapter claim(File adapter,
+            AdapterEmitter.Adapter data) {
+      AdapterEmitter.Adapter claimed = claimedAdapters.putIfAbsent(
+              adapter.getAbsoluteFile(), data);
+      if (claimed != null && !claimed.equals(data)) {
+        stats.add(RunStats.Counter.ADAPTER_COLLISIONS, 1);
+      }
+      return claimed;
     }
-    data += "package " + packageName + ";";
-    data += "\nimport javax.xml.bind.annotation.adapters.XmlAdapter;";
-    data += "\nimport " + packageNameImpl + "." + name
-            + this.extension + ";";
 
-    data += "\nclass XmlAdapter" + (name + subclassImpl).replace(".", "_")
-            + " extends XmlAdapter<" + name + "Impl" + subclassImpl
-            + ", " + name + subclass + "> {";
+    public File getTarget(File adapter) {
+      return emitter.getTarget(adapter).getAbsoluteFile();
+    }
+  }
 
-    data += "\n\t@Override";
-    data += "\n\tpublic " + name + subclass + " unmarshal(" + name + "Impl"
-            + subclassImpl + " v) {";
-    data += "\n\t\treturn v;";
-    data += "\n\t}";
+  /**
+   * Annotates the interfaces of a directory.
+   */
+  private class InterfaceJob implements FileJobRunner.Job {
 
-    data += "\n\t@Override";
-    data += "\n\tpublic " + name + "Impl" + subclassImpl + " marshal(" + name + subclass + " v) {";
-    data += "\n\t\treturn (" + name + "Impl" + subclassImpl + ") v;";
-    data += "\n\t}";
-    data += "\n}\n";
-    return data;
+    private final File dirIface;
+    private final String packageName;
+    private final String packageNameImpl;
+
+    InterfaceJob(File dirIface, String packageName, String packageNameImpl) {
+      this.dirIface = dirIface;
+      this.packageName = packageName;
+      this.packageNameImpl = packageNameImpl;
+    }
+
+    public void run(File file, List<String> messages) throws IOException {
+      processInterface(file, this.dirIface, this.packageName,
+              this.packageNameImpl, messages);
+    }
   }
 
   /**
-   * Creates a new XML Adapter for the specified named interface and package
-   * details. This method is used to create XML adapters for the specified
-   * interface.
-   *
-   * @param packageName the name of the package where the interface resides.
-   * @param packageNameImpl the name of the package where the implementation
-   * resides.
-   * @param name the name of the interface to create the adapter for.
-   * @return data containing the class information.
-   */
-  private String formatXmlAdapter(String packageName, String packageNameImpl,
-          String name) {
-    String data = "";
-    data += "package " + packageName + ";";
-
-    data += "\nimport javax.xml.bind.annotation.adapters.XmlAdapter;";
-    data += "\nimport " + packageNameImpl + "." + name
-            + this.extension + ";";
-
-    data += "\nclass XmlAdapter" + name.replace(".", "_") + "Impl extends XmlAdapter<" + name + "Impl, " + name + "> {";
-
-    data += "\n\t@Override";
-    data += "\n\tpublic " + name + " unmarshal(" + name + "Impl v) {";
-    data += "\n\t\treturn v;";
-    data += "\n\t}";
-
-    data += "\n\t@Override";
-    data += "\n\tpublic " + name + "Impl marshal(" + name + " v) {";
-    data += "\n\t\treturn (" + name + "Impl) v;";
-    data += "\n\t}";
-    data += "\n}\n";
-    return data;
+   * Indexes the classes of implementation sources.
+   */
+  private class IndexJob implements FileJobRunner.Job {
+
+    /**
+     * Collects the interfaces implemented by the classes indexed; null if
+     * not collecting.
+     */
+    private final Set<String> implemented;
+
+    IndexJob() {
+      this(null);
+    }
+
+    IndexJob(Set<String> implemented) {
+      this.implemented = implemented;
+    }
+
+    public void run(File file, List<String> messages) throws IOException {
+      Set<String> interfaces = index.add(JavaOutline.parse(io.read(file)), file);
+      if (this.implemented != null) {
+        this.implemented.addAll(interfaces);
+      }
+    }
+  }
+
+  /**
+   * Annotates the implementation classes of a directory.
+   */
+  private class ImplementationJob implements FileJobRunner.Job {
+
+    private final String xmlTypePrefix;
+
+    ImplementationJob(String xmlTypePrefix) {
+      this.xmlTypePrefix = xmlTypePrefix;
+    }
+
+    public void run(File file, List<String> messages) throws IOException {
+      processImplementation(file, this.xmlTypePrefix, messages);
+    }
+  }
+
+  /**
+   * Walks a source tree for the interfaces and implementations in it,
+   * indexing each implementation as it is found, and keeping the sources to
+   * annotate once every implementation is indexed. A package is a package of
+   * interfaces when it has an impl package; the impl package then holds the
+   * implementations.
+   */
+  private class PackageVisitor extends SimpleFileVisitor<Path> {
+
+    /**
+     * Runs the jobs.
+     */
+    private final FileJobRunner runner;
+    /**
+     * Indexes the implementations found.
+     */
+    private final IndexJob indexJob = new IndexJob();
+    /**
+     * The job for the sources of each package directory.
+     */
+    private final Map<Path, FileJobRunner.Job> jobs = new HashMap<Path, FileJobRunner.Job>();
+    /**
+     * The sources found, in the order they were found.
+     */
+    private final List<File> sources = new ArrayList<File>();
+    /**
+     * The job for each source.
+     */
+    private final List<FileJobRunner.Job> sourceJobs = new ArrayList<FileJobRunner.Job>();
+
+    PackageVisitor(FileJobRunner runner) {
+      this.runner = runner;
+    }
+
+    /**
+     * Hand each source found to the runner to annotate, once every
+     * implementation is indexed.
+     *
+     * @throws IOException if a source failed.
+     */
+    void submit() throws IOException {
+      for (int i = 0; i < this.sources.size(); i++) {
+        if (inShard(this.sources.get(i), this.sourceJobs.get(i))) {
+          this.runner.submit(this.sources.get(i), this.sourceJobs.get(i));
+        }
+      }
+    }
+
+    @Override
+    public FileVisitResult preVisitDirectory(Path dir,
+            BasicFileAttributes attrs) throws IOException {
+      FileJobRunner.Job job = packageJob(dir.toFile());
+      if (job != null) {
+        this.jobs.put(dir, job);
+      }
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+            throws IOException {
+      FileJobRunner.Job job = this.jobs.get(file.getParent());
+      if (job != null && attrs.isRegularFile()
+              && file.getFileName().toString().endsWith(".java")) {
+        this.sources.add(file.toFile());
+        this.sourceJobs.add(job);
+        if (job instanceof ImplementationJob) {
+          this.runner.submit(file.toFile(), this.indexJob);
+        }
+      }
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult postVisitDirectory(Path dir, IOException exc)
+            throws IOException {
+      this.jobs.remove(dir);
+      if (exc != null) {
+        throw exc;
+      }
+      return FileVisitResult.CONTINUE;
+    }
   }
 
   /**
@@ -0,0 +1,159 @@
+package org.meh.java2wsdl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps an annotator running, so that builds that annotate many small
+ * modules pay for starting (and warming up) a JVM once rather than once a
+ * module.
+ *
+ * Jobs are read a line at a time; each line holds the arguments of one run,
+ * as they would be given on the command line (separated by white space,
+ * double quoted if they contain any). The output of the run is sent back,
+ * followed by a line of {@value #STATUS} and the exit status of the run. A
+ * line of {@value #QUIT} ends the session; {@value #SHUTDOWN} also stops a
+ * daemon listening on a port.
+ *
+ * Jobs are run one at a time, since the output of a run is taken from
+ * System.out and System.err while it runs.
+ */
+class AnnotatorDaemon {
+
+  /**
+   * Starts the line ending the output of a job, followed by its exit status.
+   */
+  static final String STATUS = "java2wsdl-status: ";
+  /**
+   * Ends a session.
+   */
+  static final String QUIT = "quit";
+  /**
+   * Ends a session, and stops the daemon.
+   */
+  static final String SHUTDOWN = "shutdown";
+  /**
+   * Set once a session asks the daemon to stop.
+   */
+  private volatile boolean stopped;
+
+  /**
+   * Take jobs from a local port until told to shut down; connections are
+   * served one at a time.
+   *
+   * @param port the port to listen on, on the loopback address only.
+   * @throws IOException if the port could not be listened on.
+   */
+  void listen(int port) throws IOException {
+    ServerSocket server = new ServerSocket(port, 50, InetAddress.getByName(null));
+    try {
+      System.out.println("Listening for jobs on " + server.getLocalSocketAddress());
+      while (!this.stopped) {
+        Socket socket = server.accept();
+        try {
+          this.serve(socket.getInputStream(), socket.getOutputStream());
+        } catch (IOException ex) {
+          // a client going away is not the end of the daemon:
+          System.err.println("Session ended: " + ex.getMessage());
+        } finally {
+          socket.close();
+        }
+      }
+    } finally {
+      server.close();
+    }
+  }
+
+  /**
+   * Take jobs from a stream until it ends, or is told to quit or shut down.
+   *
+   * @param in the jobs.
+   * @param out where the output of the jobs is sent.
+   * @throws IOException if the jobs could not be read.
+   */
+  void serve(InputStream in, OutputStream out) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+    PrintStream replies = new PrintStream(out, true);
+    String line;
+    while ((line = reader.readLine()) != null) {
+      line = line.trim();
+      if (QUIT.equals(line)) {
+        break;
+      }
+      if (SHUTDOWN.equals(line)) {
+        this.stopped = true;
+        break;
+      }
+      if (line.length() > 0) {
+        replies.println(STATUS + this.runJob(split(line), replies));
+      }
+    }
+    replies.flush();
+  }
+
+  /**
+   * Run a job, sending its output to the given stream.
+   *
+   * @param args the arguments of the job.
+   * @param replies where the output of the job is sent.
+   * @return the exit status of the job.
+   */
+  private synchronized int runJob(String[] args, PrintStream replies) {
+    PrintStream out = System.out;
+    PrintStream err = System.err;
+    System.setOut(replies);
+    System.setErr(replies);
+    try {
+      return AnnotatorApp.run(args, true);
+    } catch (RuntimeException ex) {
+      ex.printStackTrace();
+      return 1;
+    } finally {
+      System.setOut(out);
+      System.setErr(err);
+    }
+  }
+
+  /**
+   * Split a line of arguments at white space, keeping double quoted
+   * arguments whole.
+   *
+   * @param line the line.
+   * @return the arguments.
+   */
+  static String[] split(String line) {
+    List<String> args = new ArrayList<String>();
+    StringBuilder arg = new StringBuilder();
+    boolean quoted = false;
+    boolean inArg = false;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == '"') {
+        quoted = !quoted;
+        inArg = true;
+      } else if (!quoted && Character.isWhitespace(c)) {
+        if (inArg) {
+          args.add(arg.toString());
+          arg.setLength(0);
+          inArg = false;
+        }
+      } else {
+        arg.append(c);
+        inArg = true;
+      }
+    }
+    if (inArg) {
+      args.add(arg.toString());
+    }
+    return args.toArray(new String[args.size()]);
+  }
+}
@@ -0,0 +1,143 @@
+package org.meh.java2wsdl;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Buffers (and coders) reused by each thread from one file to the next, so
+ * that reading, writing and hashing a file does not allocate buffers the
+ * size of the file every time. Buffers larger than {@link #RETAINED} are
+ * given out once and not kept, so a few very large files do not pin their
+ * buffers for the rest of the run.
+ */
+final class Buffers {
+
+  /**
+   * Size (in bytes or chars) of the largest buffer kept between files.
+   */
+  static final int RETAINED = 4 << 20;
+  /**
+   * Size of the buffer text is encoded through.
+   */
+  static final int CHUNK = 16 * 1024;
+  private static final ThreadLocal<Buffers> LOCAL = new ThreadLocal<Buffers>() {
+    @Override
+    protected Buffers initialValue() {
+      return new Buffers();
+    }
+  };
+  private ByteBuffer bytes = ByteBuffer.allocate(CHUNK);
+  private CharBuffer chars = CharBuffer.allocate(CHUNK);
+  private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK);
+  private final CharBuffer carry = CharBuffer.allocate(2);
+  private CharsetDecoder decoder;
+  private CharsetEncoder encoder;
+
+  private Buffers() {
+  }
+
+  /**
+   * @return the buffers of the calling thread.
+   */
+  static Buffers get() {
+    return LOCAL.get();
+  }
+
+  /**
+   * Get an empty byte buffer.
+   *
+   * @param capacity the least capacity needed.
+   * @return the buffer, cleared.
+   */
+  ByteBuffer bytes(int capacity) {
+    if (this.bytes.capacity() >= capacity) {
+      this.bytes.clear();
+      return this.bytes;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(grow(this.bytes.capacity(), capacity));
+    if (buffer.capacity() <= RETAINED) {
+      this.bytes = buffer;
+    }
+    return buffer;
+  }
+
+  /**
+   * Get an empty char buffer.
+   *
+   * @param capacity the least capacity needed.
+   * @return the buffer, cleared.
+   */
+  CharBuffer chars(int capacity) {
+    if (this.chars.capacity() >= capacity) {
+      this.chars.clear();
+      return this.chars;
+    }
+    CharBuffer buffer = CharBuffer.allocate(grow(this.chars.capacity(), capacity));
+    if (buffer.capacity() <= RETAINED) {
+      this.chars = buffer;
+    }
+    return buffer;
+  }
+
+  /**
+   * @return the buffer text is encoded through, cleared.
+   */
+  ByteBuffer chunk() {
+    this.chunk.clear();
+    return this.chunk;
+  }
+
+  /**
+   * @return a buffer of two chars, cleared, for carrying a surrogate pair
+   * over from one piece of text to the next.
+   */
+  CharBuffer carry() {
+    this.carry.clear();
+    return this.carry;
+  }
+
+  /**
+   * Get a decoder replacing what it cannot decode.
+   *
+   * @param charset the charset to decode.
+   * @return the decoder, reset.
+   */
+  CharsetDecoder decoder(Charset charset) {
+    if (this.decoder == null || !this.decoder.charset().equals(charset)) {
+      this.decoder = charset.newDecoder()
+              .onMalformedInput(CodingErrorAction.REPLACE)
+              .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+    return this.decoder.reset();
+  }
+
+  /**
+   * Get an encoder replacing what it cannot encode.
+   *
+   * @param charset the charset to encode.
+   * @return the encoder, reset.
+   */
+  CharsetEncoder encoder(Charset charset) {
+    if (this.encoder == null || !this.encoder.charset().equals(charset)) {
+      this.encoder = charset.newEncoder()
+              .onMalformedInput(CodingErrorAction.REPLACE)
+              .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+    return this.encoder.reset();
+  }
+
+  /**
+   * Double a capacity until it is at least as large as needed.
+   */
+  private static int grow(int capacity, int needed) {
+    long size = Math.max(capacity, 1);
+    while (size < needed) {
+      size <<= 1;
+    }
+    return (int) Math.min(size, Integer.MAX_VALUE - 8);
+  }
+}
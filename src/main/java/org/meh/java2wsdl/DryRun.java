@@ -0,0 +1,104 @@
+package org.meh.java2wsdl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects what a run would write, rather than writing it: each file is
+ * compared with what is on disk when it would have been written, and the
+ * differences kept to be printed once the run is done, as a unified diff
+ * (to apply with patch -p0 in the base directory) and a line a file.
+ *
+ * Files may be planned from several threads at once; they are printed in
+ * order of their paths, so the output is the same however many threads are
+ * used.
+ */
+final class DryRun {
+
+  /**
+   * Directory the paths printed are relative to.
+   */
+  private final Path base;
+  /**
+   * The differences each file would have, by file.
+   */
+  private final Map<File, UnifiedDiff> planned = new TreeMap<File, UnifiedDiff>();
+  /**
+   * Files that would be created.
+   */
+  private final Map<File, Boolean> created = new TreeMap<File, Boolean>();
+
+  /**
+   * Create a new dry run.
+   *
+   * @param base directory the paths printed are relative to; may be null.
+   */
+  DryRun(File base) {
+    this.base = base == null ? null : base.toPath().toAbsolutePath().normalize();
+  }
+
+  /**
+   * Plan writing a file.
+   *
+   * @param file the file that would be written.
+   * @param content what would be written.
+   * @param io reads what is there now.
+   * @throws IOException if the file could not be read.
+   */
+  void plan(File file, CharSequence content, SourceIO io) throws IOException {
+    File target = file.toPath().toAbsolutePath().normalize().toFile();
+    this.plan(target, target.isFile() ? io.read(target) : null, content);
+  }
+
+  /**
+   * Plan writing a file, or an entry of a zip, given what it holds now.
+   *
+   * @param file the file that would be written.
+   * @param current what the file holds now; null if there is no such file.
+   * @param content what would be written.
+   */
+  void plan(File file, CharSequence current, CharSequence content) {
+    String name = this.name(file);
+    UnifiedDiff diff = UnifiedDiff.compare(current != null ? name
+            : UnifiedDiff.NO_FILE, name, current != null ? current : "", content);
+    synchronized (this) {
+      this.planned.put(file, diff);
+      this.created.put(file, current == null);
+    }
+  }
+
+  /**
+   * Print the differences of every file (when verbose), and a line for each
+   * file that would change.
+   *
+   * @param log where the plan is printed.
+   */
+  synchronized void print(RunLog log) {
+    for (UnifiedDiff diff : this.planned.values()) {
+      log.file(diff.getLines());
+    }
+    for (Map.Entry<File, UnifiedDiff> file : this.planned.entrySet()) {
+      UnifiedDiff diff = file.getValue();
+      if (diff.getLines().isEmpty()) {
+        continue;
+      }
+      log.summary((this.created.get(file.getKey()) ? "Would create "
+              : "Would update ") + this.name(file.getKey()) + " (+"
+              + diff.getAdded() + " -" + diff.getRemoved() + ")");
+    }
+  }
+
+  /**
+   * Name a file relative to the base directory, if it is in it.
+   */
+  private String name(File file) {
+    Path path = file.toPath();
+    if (this.base != null && path.startsWith(this.base)) {
+      path = this.base.relativize(path);
+    }
+    return path.toString().replace(File.separatorChar, '/');
+  }
+}
@@ -0,0 +1,301 @@
+package org.meh.java2wsdl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs an independent job for each of a set of files, either on the calling
+ * thread or spread over a work-stealing pool. Every job collects its console
+ * messages rather than printing them; the messages are handed to the log in
+ * the order of the files, so the output is the same however many threads are
+ * used.
+ *
+ * Files are either given all at once to {@link #run(File[], Job)}, or one at
+ * a time as they are found to {@link #submit(File, Job)}, followed by
+ * {@link #await()}.
+ *
+ * Once a job fails, jobs not yet started are left out, and the failure is
+ * only thrown once every job already running has finished, so nothing is
+ * still writing when the caller cleans up after the failure.
+ */
+class FileJobRunner {
+
+  /**
+   * A job processing a single file.
+   */
+  interface Job {
+
+    /**
+     * Process the file.
+     *
+     * @param file the file to process.
+     * @param messages the messages to print once the job is done.
+     * @throws IOException if the file could not be processed.
+     */
+    void run(File file, List<String> messages) throws IOException;
+  }
+
+  /**
+   * Number of files below which a task stops splitting itself.
+   */
+  private static final int SPLIT_THRESHOLD = 1;
+  /**
+   * The pool to run jobs on; null to run jobs on the calling thread.
+   */
+  private final ForkJoinPool pool;
+  /**
+   * Jobs submitted to the pool whose messages have not been printed yet, in
+   * the order they were submitted.
+   */
+  private final Queue<SubmittedJob> submitted = new ArrayDeque<SubmittedJob>();
+  /**
+   * Set once a job has failed, so jobs not yet started are left out.
+   */
+  private final AtomicBoolean failed = new AtomicBoolean();
+  /**
+   * Where the messages of the jobs are printed.
+   */
+  private final RunLog log;
+
+  /**
+   * Create a new runner.
+   *
+   * @param threads the number of threads to use; 1 or less runs all jobs on
+   * the calling thread.
+   * @param log where the messages of the jobs are printed.
+   */
+  FileJobRunner(int threads, RunLog log) {
+    this.pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    this.log = log;
+  }
+
+  /**
+   * Run the job for each of the files and print the messages of each job.
+   *
+   * @param files the files to process.
+   * @param job the job to run for each file.
+   * @throws IOException if any of the files could not be processed.
+   */
+  void run(File[] files, Job job) throws IOException {
+    if (this.pool == null) {
+      for (File file : files) {
+        List<String> messages = new ArrayList<String>();
+        job.run(file, messages);
+        this.log.file(messages);
+      }
+      return;
+    }
+    List<List<String>> messages = new ArrayList<List<String>>(files.length);
+    for (int i = 0; i < files.length; i++) {
+      messages.add(new ArrayList<String>());
+    }
+    try {
+      this.pool.invoke(new JobTask(files, job, messages, 0, files.length,
+              this.failed));
+    } catch (JobException ex) {
+      throw ex.getCause();
+    }
+    for (List<String> fileMessages : messages) {
+      this.log.file(fileMessages);
+    }
+  }
+
+  /**
+   * Run the job for a file as soon as possible; with no pool this is right
+   * away. The messages of submitted jobs are printed in the order the jobs
+   * were submitted, as soon as every job before them has finished.
+   *
+   * @param file the file to process.
+   * @param job the job to run for the file.
+   * @throws IOException if the file, or a file submitted before it, could not
+   * be processed.
+   */
+  void submit(File file, Job job) throws IOException {
+    if (this.pool == null) {
+      List<String> messages = new ArrayList<String>();
+      job.run(file, messages);
+      this.log.file(messages);
+      return;
+    }
+    List<String> messages = new ArrayList<String>();
+    this.submitted.add(new SubmittedJob(this.pool.submit(new JobTask(
+            new File[]{file}, job, Collections.singletonList(messages), 0, 1,
+            this.failed)),
+            messages));
+    while (!this.submitted.isEmpty() && this.submitted.peek().task.isDone()) {
+      this.submitted.remove().print();
+    }
+  }
+
+  /**
+   * Wait for every submitted job to finish and print their messages.
+   *
+   * @throws IOException if any of the submitted files could not be processed.
+   */
+  void await() throws IOException {
+    try {
+      while (!this.submitted.isEmpty()) {
+        this.submitted.remove().print();
+      }
+    } finally {
+      this.cancel();
+    }
+  }
+
+  /**
+   * Release the threads of the pool, if any, once every job is done; jobs
+   * submitted but not awaited (as another job failed) are left out if not
+   * yet started.
+   */
+  void shutdown() {
+    if (this.pool == null) {
+      return;
+    }
+    this.cancel();
+    this.pool.shutdown();
+    boolean interrupted = false;
+    while (true) {
+      try {
+        if (this.pool.awaitTermination(1, TimeUnit.MINUTES)) {
+          break;
+        }
+      } catch (InterruptedException ex) {
+        // jobs cannot be stopped part way, so keep waiting:
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Leave out the submitted jobs not yet started, and wait for those
+   * running to finish.
+   */
+  private void cancel() {
+    if (this.submitted.isEmpty()) {
+      return;
+    }
+    this.failed.set(true);
+    for (SubmittedJob job : this.submitted) {
+      job.task.cancel(false);
+    }
+    for (SubmittedJob job : this.submitted) {
+      job.task.quietlyJoin();
+    }
+    this.submitted.clear();
+  }
+
+  /**
+   * A job submitted to the pool, along with the messages it collects.
+   */
+  private class SubmittedJob {
+
+    private final ForkJoinTask<?> task;
+    private final List<String> messages;
+
+    SubmittedJob(ForkJoinTask<?> task, List<String> messages) {
+      this.task = task;
+      this.messages = messages;
+    }
+
+    /**
+     * Wait for the job to finish, then print its messages.
+     */
+    void print() throws IOException {
+      try {
+        this.task.join();
+      } catch (JobException ex) {
+        throw ex.getCause();
+      }
+      log.file(this.messages);
+    }
+  }
+
+  /**
+   * Runs the job over a range of the files, splitting the range in two until
+   * it is small enough to process directly.
+   */
+  private static class JobTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+    private final File[] files;
+    private final Job job;
+    private final List<List<String>> messages;
+    private final int from;
+    private final int to;
+    /**
+     * Set once any job has failed.
+     */
+    private final AtomicBoolean failed;
+
+    JobTask(File[] files, Job job, List<List<String>> messages, int from,
+            int to, AtomicBoolean failed) {
+      this.files = files;
+      this.job = job;
+      this.messages = messages;
+      this.from = from;
+      this.to = to;
+      this.failed = failed;
+    }
+
+    @Override
+    protected void compute() {
+      if (this.to - this.from <= SPLIT_THRESHOLD) {
+        for (int i = this.from; i < this.to && !this.failed.get(); i++) {
+          try {
+            this.job.run(this.files[i], this.messages.get(i));
+          } catch (IOException ex) {
+            this.failed.set(true);
+            throw new JobException(ex);
+          } catch (RuntimeException ex) {
+            this.failed.set(true);
+            throw ex;
+          }
+        }
+        return;
+      }
+      int middle = (this.from + this.to) >>> 1;
+      JobTask second = new JobTask(this.files, this.job, this.messages, middle,
+              this.to, this.failed);
+      second.fork();
+      try {
+        new JobTask(this.files, this.job, this.messages, this.from, middle,
+                this.failed).compute();
+      } finally {
+        // unlike invokeAll, wait for the second half even if the first
+        // failed, so no job outlives the failure:
+        second.quietlyJoin();
+      }
+      second.join();
+    }
+  }
+
+  /**
+   * Carries the failure of a job out of the pool.
+   */
+  private static class JobException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    JobException(IOException cause) {
+      super(cause);
+    }
+
+    @Override
+    public synchronized IOException getCause() {
+      return (IOException) super.getCause();
+    }
+  }
+}
@@ -0,0 +1,217 @@
+package org.meh.java2wsdl;
+
+import java.util.Arrays;
+
+/**
+ * A streaming tokenizer for Java sources. It only knows as much Java as is
+ * needed to outline a source: identifiers (keywords included), literals and
+ * single character symbols. Comments and whitespace are skipped, and the
+ * extent of every comment and literal is noted so that text matches inside
+ * them can be told apart from code.
+ */
+final class JavaLexer {
+
+  /**
+   * Token kind: an identifier or keyword.
+   */
+  static final int IDENTIFIER = 1;
+  /**
+   * Token kind: a string, character or number literal.
+   */
+  static final int LITERAL = 2;
+  /**
+   * Token kind: a single character symbol ('{', '.', '@', ...).
+   */
+  static final int SYMBOL = 3;
+  /**
+   * The text being tokenized.
+   */
+  private final CharSequence text;
+  /**
+   * Position of the next character to read.
+   */
+  private int position;
+  /**
+   * Kind of the current token; 0 once the end is reached.
+   */
+  private int kind;
+  /**
+   * Start of the current token.
+   */
+  private int start;
+  /**
+   * End (exclusive) of the current token.
+   */
+  private int end;
+  /**
+   * Start and end of every comment and literal, in order.
+   */
+  private int[] ranges = new int[16];
+  /**
+   * Number of entries used in ranges.
+   */
+  private int rangeCount;
+
+  /**
+   * Create a new lexer.
+   *
+   * @param text the text to tokenize.
+   */
+  JavaLexer(CharSequence text) {
+    this.text = text;
+  }
+
+  /**
+   * Advance to the next token.
+   *
+   * @return false if there are no more tokens.
+   */
+  boolean next() {
+    CharSequence t = this.text;
+    int length = t.length();
+    while (this.position < length) {
+      char c = t.charAt(this.position);
+      if (Character.isWhitespace(c)) {
+        this.position++;
+      } else if (c == '/' && this.position + 1 < length
+              && t.charAt(this.position + 1) == '/') {
+        int from = this.position;
+        while (this.position < length && t.charAt(this.position) != '\n') {
+          this.position++;
+        }
+        this.noteRange(from, this.position);
+      } else if (c == '/' && this.position + 1 < length
+              && t.charAt(this.position + 1) == '*') {
+        int from = this.position;
+        this.position += 2;
+        while (this.position < length && !(t.charAt(this.position) == '*'
+                && this.position + 1 < length && t.charAt(this.position + 1) == '/')) {
+          this.position++;
+        }
+        this.position = Math.min(length, this.position + 2);
+        this.noteRange(from, this.position);
+      } else {
+        break;
+      }
+    }
+    if (this.position >= length) {
+      this.kind = 0;
+      this.start = this.end = length;
+      return false;
+    }
+    this.start = this.position;
+    char c = t.charAt(this.position);
+    if (Character.isJavaIdentifierStart(c)) {
+      this.kind = IDENTIFIER;
+      this.position++;
+      while (this.position < length
+              && Character.isJavaIdentifierPart(t.charAt(this.position))) {
+        this.position++;
+      }
+    } else if (c == '"' || c == '\'') {
+      this.kind = LITERAL;
+      if (c == '"' && this.position + 2 < length
+              && t.charAt(this.position + 1) == '"' && t.charAt(this.position + 2) == '"') {
+        // text block:
+        this.position += 3;
+        while (this.position < length && !(t.charAt(this.position) == '"'
+                && this.position + 2 < length && t.charAt(this.position + 1) == '"'
+                && t.charAt(this.position + 2) == '"')) {
+          this.position += t.charAt(this.position) == '\\' ? 2 : 1;
+        }
+        this.position = Math.min(length, this.position + 3);
+      } else {
+        this.position++;
+        while (this.position < length && t.charAt(this.position) != c
+                && t.charAt(this.position) != '\n') {
+          this.position += t.charAt(this.position) == '\\' ? 2 : 1;
+        }
+        this.position = Math.min(length, this.position + 1);
+      }
+      this.noteRange(this.start, this.position);
+    } else if (Character.isDigit(c)) {
+      this.kind = LITERAL;
+      this.position++;
+      while (this.position < length
+              && (Character.isJavaIdentifierPart(t.charAt(this.position))
+              || t.charAt(this.position) == '.')) {
+        this.position++;
+      }
+    } else {
+      this.kind = SYMBOL;
+      this.position++;
+    }
+    this.end = this.position;
+    return true;
+  }
+
+  /**
+   * @return kind of the current token; 0 at the end of the text.
+   */
+  int kind() {
+    return this.kind;
+  }
+
+  /**
+   * @return start of the current token.
+   */
+  int start() {
+    return this.start;
+  }
+
+  /**
+   * @return end (exclusive) of the current token.
+   */
+  int end() {
+    return this.end;
+  }
+
+  /**
+   * @return the text of the current token.
+   */
+  String text() {
+    return this.text(this.start, this.end);
+  }
+
+  /**
+   * @param from start of the text.
+   * @param to end (exclusive) of the text.
+   * @return the text between the given positions.
+   */
+  String text(int from, int to) {
+    return this.text.subSequence(from, to).toString();
+  }
+
+  /**
+   * @param symbol the symbol.
+   * @return true if the current token is the symbol.
+   */
+  boolean is(char symbol) {
+    return this.kind == SYMBOL && this.text.charAt(this.start) == symbol;
+  }
+
+  /**
+   * @param word the identifier or keyword.
+   * @return true if the current token is the identifier or keyword.
+   */
+  boolean is(String word) {
+    return this.kind == IDENTIFIER && this.end - this.start == word.length()
+            && PatternMatcher.startsWith(this.text, this.start, word);
+  }
+
+  /**
+   * @return start and end of every comment and literal passed so far, in
+   * order.
+   */
+  int[] ranges() {
+    return Arrays.copyOf(this.ranges, this.rangeCount);
+  }
+
+  private void noteRange(int from, int to) {
+    if (this.rangeCount + 2 > this.ranges.length) {
+      this.ranges = Arrays.copyOf(this.ranges, this.ranges.length * 2);
+    }
+    this.ranges[this.rangeCount++] = from;
+    this.ranges[this.rangeCount++] = to;
+  }
+}
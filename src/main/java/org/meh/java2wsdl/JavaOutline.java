@@ -0,0 +1,578 @@
+package org.meh.java2wsdl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The declarations of a Java source, as far as the annotators need them: the
+ * package, the type declarations (nested ones included, but not those local
+ * to a method) and the method signatures of each type. Bodies of methods,
+ * field initializers and Java enums are skipped over, not outlined.
+ *
+ * The outline is built in a single pass of a {@link JavaLexer}, so text in
+ * comments and literals is never taken for a declaration; the extent of the
+ * comments and literals is kept so that other text matches can be checked
+ * with {@link #isCode(int)}. Offsets are those of the text the outline was
+ * built from.
+ */
+final class JavaOutline {
+
+  /**
+   * Modifiers a declaration may start with.
+   */
+  private static final List<String> MODIFIERS = Arrays.asList("public",
+          "protected", "private", "static", "final", "abstract", "native",
+          "synchronized", "transient", "volatile", "strictfp", "default",
+          "sealed");
+  /**
+   * Name of the package; empty for the default package.
+   */
+  private String packageName = "";
+  /**
+   * Imported names (with a trailing ".*" for on demand imports), in order.
+   */
+  private final List<String> imports = new ArrayList<String>();
+  /**
+   * Top level types, in order of declaration.
+   */
+  private final List<Type> types = new ArrayList<Type>();
+  /**
+   * Every type, nested ones included, in order of declaration.
+   */
+  private final List<Type> allTypes = new ArrayList<Type>();
+  /**
+   * Start and end of every comment and literal, in order.
+   */
+  private int[] ranges;
+  /**
+   * The lexer the outline is being built from.
+   */
+  private final JavaLexer lexer;
+
+  private JavaOutline(CharSequence text) {
+    this.lexer = new JavaLexer(text);
+  }
+
+  /**
+   * Outline a Java source.
+   *
+   * @param text the source; it is not kept.
+   * @return the outline of the source.
+   */
+  static JavaOutline parse(CharSequence text) {
+    JavaOutline outline = new JavaOutline(text);
+    outline.lexer.next();
+    outline.members(null);
+    outline.ranges = outline.lexer.ranges();
+    return outline;
+  }
+
+  /**
+   * @return the name of the package; empty for the default package.
+   */
+  String getPackageName() {
+    return this.packageName;
+  }
+
+  /**
+   * @return the imported names (with a trailing ".*" for on demand imports;
+   * static imports are left out), in order.
+   */
+  List<String> getImports() {
+    return Collections.unmodifiableList(this.imports);
+  }
+
+  /**
+   * @return the top level types, in order of declaration.
+   */
+  List<Type> getTypes() {
+    return Collections.unmodifiableList(this.types);
+  }
+
+  /**
+   * @return every type, nested ones included, in order of declaration.
+   */
+  List<Type> getAllTypes() {
+    return Collections.unmodifiableList(this.allTypes);
+  }
+
+  /**
+   * Find a top level type.
+   *
+   * @param kind the kind of type; one of "class", "interface", "enum" or
+   * "@interface".
+   * @param name the name of the type.
+   * @return the type, or null if there is no such type.
+   */
+  Type getType(String kind, String name) {
+    for (Type type : this.types) {
+      if (type.kind.equals(kind) && type.name.equals(name)) {
+        return type;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Determine if a position is in code, rather than in a comment or literal.
+   *
+   * @param position the position.
+   * @return false if the position is inside a comment or a literal.
+   */
+  boolean isCode(int position) {
+    int low = 0;
+    int high = this.ranges.length / 2 - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (this.ranges[2 * middle + 1] <= position) {
+        low = middle + 1;
+      } else if (this.ranges[2 * middle] > position) {
+        high = middle - 1;
+      } else {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Outline the members of a type body (or of the compilation unit, if the
+   * type is null) up to and including its closing brace.
+   */
+  private void members(Type parent) {
+    JavaLexer l = this.lexer;
+    while (l.kind() != 0) {
+      if (l.is('}')) {
+        if (parent != null) {
+          parent.end = l.end();
+          l.next();
+          return;
+        }
+        l.next();
+        continue;
+      }
+      if (l.is(';')) {
+        l.next();
+        continue;
+      }
+      int firstModifier = -1;
+      List<String> modifiers = new ArrayList<String>();
+      List<String> annotations = new ArrayList<String>();
+      boolean annotationType = false;
+      while (l.kind() != 0) {
+        if (l.is('@')) {
+          l.next();
+          if (l.is("interface")) {
+            annotationType = true;
+            break;
+          }
+          annotations.add(this.qualifiedName());
+          if (l.is('(')) {
+            this.skip('(', ')');
+          }
+        } else if (l.kind() == JavaLexer.IDENTIFIER && MODIFIERS.contains(l.text())) {
+          if (firstModifier < 0) {
+            firstModifier = l.start();
+          }
+          modifiers.add(l.text());
+          l.next();
+        } else {
+          break;
+        }
+      }
+      if (parent == null && l.is("package")) {
+        l.next();
+        this.packageName = this.qualifiedName();
+      } else if (parent == null && l.is("import")) {
+        l.next();
+        if (l.is("static")) {
+          this.skipTo(';');
+          continue;
+        }
+        String name = this.qualifiedName();
+        if (l.is('*')) {
+          name += "*";
+        }
+        this.imports.add(name);
+        this.skipTo(';');
+      } else if (l.is("class") || l.is("interface") || l.is("enum")) {
+        this.type(parent, annotationType ? "@interface" : l.text(), firstModifier,
+                modifiers, annotations);
+      } else if (l.is('{')) {
+        // an initializer:
+        this.skip('{', '}');
+      } else if (parent != null) {
+        this.member(parent, modifiers, annotations);
+      } else {
+        l.next();
+      }
+    }
+  }
+
+  /**
+   * Outline a type declaration, starting at its class/interface/enum keyword.
+   */
+  private void type(Type parent, String kind, int firstModifier,
+          List<String> modifiers, List<String> annotations) {
+    JavaLexer l = this.lexer;
+    int keyword = l.start();
+    l.next();
+    if (l.kind() != JavaLexer.IDENTIFIER) {
+      return;
+    }
+    Type type = new Type(parent, kind, l.text(), firstModifier < 0 ? keyword
+            : firstModifier, modifiers, annotations);
+    l.next();
+    boolean implementing = false;
+    while (l.kind() != 0 && !l.is('{') && !l.is(';')) {
+      if (l.is('<')) {
+        this.skip('<', '>');
+      } else if (l.is("extends") && type.superclass == null) {
+        l.next();
+        type.superclass = this.qualifiedName();
+      } else if (l.is("implements") || (implementing && l.is(','))) {
+        implementing = true;
+        l.next();
+        type.interfaces.add(this.qualifiedName());
+      } else {
+        l.next();
+      }
+    }
+    if (parent == null) {
+      this.types.add(type);
+    } else {
+      parent.types.add(type);
+    }
+    this.allTypes.add(type);
+    if (!l.is('{')) {
+      type.end = l.end();
+      return;
+    }
+    if ("enum".equals(kind)) {
+      type.end = this.skip('{', '}');
+    } else {
+      l.next();
+      this.members(type);
+    }
+  }
+
+  /**
+   * Outline a field or method, starting after its modifiers.
+   */
+  private void member(Type parent, List<String> modifiers,
+          List<String> annotations) {
+    JavaLexer l = this.lexer;
+    // start of the type, end of the token before the name and of the last one:
+    int typeStart = -1;
+    int typeEnd = -1;
+    int end = -1;
+    // the last token, if it is an identifier:
+    String name = null;
+    int nameStart = -1;
+    while (l.kind() != 0) {
+      if (l.is('(')) {
+        if (name != null) {
+          parent.methods.add(new Method(name, nameStart, modifiers, annotations,
+                  typeStart, typeStart < nameStart ? l.text(typeStart, typeEnd) : null));
+        }
+        this.skip('(', ')');
+        while (l.kind() != 0 && !l.is(';') && !l.is('{') && !l.is('}')) {
+          l.next();
+        }
+        if (l.is('{')) {
+          this.skip('{', '}');
+        } else if (l.is(';')) {
+          l.next();
+        }
+        return;
+      } else if (l.is(';')) {
+        l.next();
+        return;
+      } else if (l.is('=')) {
+        this.skipTo(';');
+        return;
+      } else if (l.is('{')) {
+        this.skip('{', '}');
+        return;
+      } else if (l.is('}')) {
+        return;
+      } else if (l.is('<')) {
+        if (typeStart >= 0) {
+          // type arguments; before the type they are type parameters instead:
+          name = null;
+        }
+        end = this.skip('<', '>');
+      } else {
+        if (typeStart < 0) {
+          typeStart = l.start();
+        }
+        if (l.kind() == JavaLexer.IDENTIFIER) {
+          name = l.text();
+          nameStart = l.start();
+          typeEnd = end;
+        } else {
+          name = null;
+        }
+        end = l.end();
+        l.next();
+      }
+    }
+  }
+
+  /**
+   * Read a (possibly qualified) name, leaving the lexer after it.
+   */
+  private String qualifiedName() {
+    JavaLexer l = this.lexer;
+    StringBuilder name = new StringBuilder();
+    while (l.kind() == JavaLexer.IDENTIFIER) {
+      name.append(l.text());
+      l.next();
+      if (!l.is('.')) {
+        break;
+      }
+      name.append('.');
+      l.next();
+    }
+    return name.toString();
+  }
+
+  /**
+   * Skip a balanced group, starting at its opening symbol and leaving the
+   * lexer after its closing symbol.
+   *
+   * @return the end of the closing symbol.
+   */
+  private int skip(char open, char close) {
+    JavaLexer l = this.lexer;
+    int depth = 0;
+    int end;
+    do {
+      if (l.is(open)) {
+        depth++;
+      } else if (l.is(close)) {
+        depth--;
+      }
+      end = l.end();
+      l.next();
+    } while (depth > 0 && l.kind() != 0);
+    return end;
+  }
+
+  /**
+   * Skip up to and including the given symbol, passing over any nested
+   * groups (such as the body of an anonymous class).
+   */
+  private void skipTo(char symbol) {
+    JavaLexer l = this.lexer;
+    while (l.kind() != 0 && !l.is(symbol)) {
+      if (l.is('(')) {
+        this.skip('(', ')');
+      } else if (l.is('{')) {
+        this.skip('{', '}');
+      } else if (l.is('}')) {
+        // the end of the enclosing body; leave it be:
+        return;
+      } else {
+        l.next();
+      }
+    }
+    l.next();
+  }
+
+  /**
+   * Determine if an annotation is among those of a declaration.
+   */
+  private static boolean hasAnnotation(List<String> annotations,
+          String annotation) {
+    for (String a : annotations) {
+      if (a.equals(annotation) || a.endsWith("." + annotation)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A type declaration.
+   */
+  static final class Type {
+
+    private final Type parent;
+    private final String kind;
+    private final String name;
+    private final int start;
+    private final List<String> modifiers;
+    private final List<String> annotations;
+    private String superclass;
+    private final List<String> interfaces = new ArrayList<String>();
+    private int end = -1;
+    private final List<Type> types = new ArrayList<Type>();
+    private final List<Method> methods = new ArrayList<Method>();
+
+    Type(Type parent, String kind, String name, int start,
+            List<String> modifiers, List<String> annotations) {
+      this.parent = parent;
+      this.kind = kind;
+      this.name = name;
+      this.start = start;
+      this.modifiers = modifiers;
+      this.annotations = annotations;
+    }
+
+    /**
+     * @return the enclosing type; null for a top level type.
+     */
+    Type getParent() {
+      return this.parent;
+    }
+
+    /**
+     * @return one of "class", "interface", "enum" or "@interface".
+     */
+    String getKind() {
+      return this.kind;
+    }
+
+    /**
+     * @return the simple name of the type.
+     */
+    String getName() {
+      return this.name;
+    }
+
+    /**
+     * @return position of the declaration, after any annotations: that of
+     * the first modifier, or of the class/interface/enum keyword if there are
+     * none.
+     */
+    int getStart() {
+      return this.start;
+    }
+
+    /**
+     * @return position just after the closing brace of the declaration; -1
+     * if the source ends before it.
+     */
+    int getEnd() {
+      return this.end;
+    }
+
+    /**
+     * @param modifier the modifier.
+     * @return true if the type is declared with the modifier.
+     */
+    boolean hasModifier(String modifier) {
+      return this.modifiers.contains(modifier);
+    }
+
+    /**
+     * @param annotation the simple name of the annotation.
+     * @return true if the type is annotated with the annotation (whether by
+     * simple or qualified name).
+     */
+    boolean hasAnnotation(String annotation) {
+      return JavaOutline.hasAnnotation(this.annotations, annotation);
+    }
+
+    /**
+     * @return the class the type extends (or the first interface an interface
+     * extends), as written; null if there is none.
+     */
+    String getSuperclass() {
+      return this.superclass;
+    }
+
+    /**
+     * @return the interfaces a class (or enum) implements, as written.
+     */
+    List<String> getInterfaces() {
+      return Collections.unmodifiableList(this.interfaces);
+    }
+
+    /**
+     * @return the types declared in this type, in order of declaration.
+     */
+    List<Type> getTypes() {
+      return Collections.unmodifiableList(this.types);
+    }
+
+    /**
+     * @return the methods declared in this type, in order of declaration.
+     */
+    List<Method> getMethods() {
+      return Collections.unmodifiableList(this.methods);
+    }
+  }
+
+  /**
+   * A method (or constructor) signature.
+   */
+  static final class Method {
+
+    private final String name;
+    private final int nameStart;
+    private final List<String> modifiers;
+    private final List<String> annotations;
+    private final int returnTypeStart;
+    private final String returnType;
+
+    Method(String name, int nameStart, List<String> modifiers,
+            List<String> annotations, int returnTypeStart, String returnType) {
+      this.name = name;
+      this.nameStart = nameStart;
+      this.modifiers = modifiers;
+      this.annotations = annotations;
+      this.returnTypeStart = returnType == null ? -1 : returnTypeStart;
+      this.returnType = returnType;
+    }
+
+    /**
+     * @return the name of the method.
+     */
+    String getName() {
+      return this.name;
+    }
+
+    /**
+     * @return position of the name of the method.
+     */
+    int getNameStart() {
+      return this.nameStart;
+    }
+
+    /**
+     * @param modifier the modifier.
+     * @return true if the method is declared with the modifier.
+     */
+    boolean hasModifier(String modifier) {
+      return this.modifiers.contains(modifier);
+    }
+
+    /**
+     * @param annotation the simple name of the annotation.
+     * @return true if the method is annotated with the annotation (whether by
+     * simple or qualified name).
+     */
+    boolean hasAnnotation(String annotation) {
+      return JavaOutline.hasAnnotation(this.annotations, annotation);
+    }
+
+    /**
+     * @return position of the return type; -1 for a constructor.
+     */
+    int getReturnTypeStart() {
+      return this.returnTypeStart;
+    }
+
+    /**
+     * @return the return type as written (with any comments or whitespace
+     * within it); null for a constructor.
+     */
+    String getReturnType() {
+      return this.returnType;
+    }
+  }
+}
@@ -0,0 +1,305 @@
+package org.meh.java2wsdl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stages everything a run writes in a journal directory, rather than
+ * writing it in place, so that a run either changes the sources as a whole
+ * or not at all.
+ *
+ * Each file written is staged as a file of its own in the journal
+ * directory, and a line naming its target appended to the journal. Once
+ * the run is done, the staged files are forced to disk, a commit line is
+ * appended (and forced), and the staged files then replace their targets,
+ * a rename each; the journal directory is removed last. A run that fails
+ * instead removes what it staged, leaving the sources as they were.
+ *
+ * A run that is killed leaves its journal behind; the next run finds it
+ * and, if it holds the commit line, finishes replacing the targets still
+ * staged, or otherwise removes it, before doing anything else.
+ *
+ * Files may be staged from several threads at once.
+ */
+final class Journal {
+
+  /**
+   * Name of the journal directory, kept in the base directory.
+   */
+  static final String DEFAULT_DIR_NAME = ".java2wsdl.journal";
+  /**
+   * Name of the journal, in the journal directory.
+   */
+  private static final String JOURNAL_NAME = "journal";
+  /**
+   * Suffix of staged files.
+   */
+  private static final String STAGED_SUFFIX = ".staged";
+  /**
+   * Starts the line of a staged file, followed by its number and target.
+   */
+  private static final String STAGE = "stage ";
+  /**
+   * The line that commits what was staged.
+   */
+  private static final String COMMIT = "commit";
+  /**
+   * Encoding of the journal.
+   */
+  private static final Charset JOURNAL_CHARSET = Charset.forName("UTF-8");
+  /**
+   * The journal directory.
+   */
+  private final File dir;
+  /**
+   * The journal, appended to as files are staged.
+   */
+  private final FileChannel journal;
+  /**
+   * Numbers the staged files.
+   */
+  private final AtomicLong counter = new AtomicLong();
+  /**
+   * The staged files, by absolute target.
+   */
+  private final Map<File, File> staged = new TreeMap<File, File>();
+  /**
+   * Set once committed or rolled back.
+   */
+  private boolean done;
+
+  private Journal(File dir) throws IOException {
+    this.dir = dir;
+    this.journal = FileChannel.open(new File(dir, JOURNAL_NAME).toPath(),
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+  }
+
+  /**
+   * Begin a journal in a base directory.
+   *
+   * @param base the base directory.
+   * @return the journal.
+   * @throws IOException if the journal could not be created, or a journal
+   * is already there (see {@link #recover(File)}).
+   */
+  static Journal begin(File base) throws IOException {
+    File dir = new File(base, DEFAULT_DIR_NAME);
+    Files.createDirectory(dir.toPath());
+    return new Journal(dir);
+  }
+
+  /**
+   * Finish or undo the run whose journal was left in a base directory, if
+   * any: a committed journal is finished, any other is removed.
+   *
+   * @param base the base directory.
+   * @return what was done; null if there was no journal.
+   * @throws IOException if the journal could not be read, or a target could
+   * not be replaced.
+   */
+  static String recover(File base) throws IOException {
+    File dir = new File(base, DEFAULT_DIR_NAME);
+    if (!dir.isDirectory()) {
+      return null;
+    }
+    Map<File, File> staged = new TreeMap<File, File>();
+    boolean committed = false;
+    File journal = new File(dir, JOURNAL_NAME);
+    if (journal.isFile()) {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(
+              Files.newInputStream(journal.toPath()), JOURNAL_CHARSET));
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (COMMIT.equals(line)) {
+            committed = true;
+          } else if (line.startsWith(STAGE)) {
+            int space = line.indexOf(' ', STAGE.length());
+            if (space > 0) {
+              staged.put(new File(line.substring(space + 1)), new File(dir,
+                      line.substring(STAGE.length(), space) + STAGED_SUFFIX));
+            }
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    String done;
+    if (committed) {
+      int replaced = replace(staged);
+      done = "Finished committing an interrupted run: replaced the last "
+              + replaced + " of " + staged.size() + " files.";
+    } else {
+      done = "Rolled back an interrupted run; the " + staged.size()
+              + " files it staged were left out.";
+    }
+    delete(dir);
+    return done;
+  }
+
+  /**
+   * Stage a file.
+   *
+   * @param file the target.
+   * @param content the content of the target.
+   * @param charset the encoding to write the content in.
+   * @return the number of bytes staged.
+   * @throws IOException if the file could not be staged.
+   */
+  long stage(File file, CharSequence content, Charset charset)
+          throws IOException {
+    Path staged = this.next();
+    long written;
+    FileChannel out = FileChannel.open(staged, StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.WRITE);
+    try {
+      written = SourceIO.encode(content, charset, out);
+    } finally {
+      out.close();
+    }
+    this.add(file, staged.toFile());
+    return written;
+  }
+
+  /**
+   * Stage a file.
+   *
+   * @param file the target.
+   * @param data the content of the target.
+   * @throws IOException if the file could not be staged.
+   */
+  void stage(File file, byte[] data) throws IOException {
+    Path staged = this.next();
+    Files.write(staged, data, StandardOpenOption.CREATE_NEW);
+    this.add(file, staged.toFile());
+  }
+
+  /**
+   * Get where a file is staged.
+   *
+   * @param file the target.
+   * @return the staged file; null if the target was not staged, or the
+   * journal was committed or rolled back since.
+   */
+  synchronized File getStaged(File file) {
+    return this.done ? null : this.staged.get(file.getAbsoluteFile());
+  }
+
+  /**
+   * Commit what was staged: force it to disk, mark the journal committed,
+   * and replace the targets.
+   *
+   * @return the number of files committed.
+   * @throws IOException if what was staged could not be forced to disk, or
+   * a target could not be replaced; the journal is left for the next run to
+   * finish, once committed.
+   */
+  synchronized int commit() throws IOException {
+    for (File file : this.staged.values()) {
+      FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+      try {
+        channel.force(true);
+      } finally {
+        channel.close();
+      }
+    }
+    this.append(COMMIT);
+    this.journal.force(true);
+    this.journal.close();
+    this.done = true;
+    replace(this.staged);
+    delete(this.dir);
+    return this.staged.size();
+  }
+
+  /**
+   * Remove what was staged, unless committed; the targets are left as they
+   * were.
+   *
+   * @throws IOException if the journal could not be removed.
+   */
+  synchronized void rollback() throws IOException {
+    if (this.done) {
+      return;
+    }
+    this.done = true;
+    this.journal.close();
+    delete(this.dir);
+  }
+
+  /**
+   * Name the next staged file.
+   */
+  private Path next() {
+    return new File(this.dir, this.counter.incrementAndGet()
+            + STAGED_SUFFIX).toPath();
+  }
+
+  /**
+   * Record a staged file; a target staged before is staged again.
+   */
+  private synchronized void add(File file, File staged) throws IOException {
+    if (this.done) {
+      throw new IOException("Journal " + this.dir + " is closed.");
+    }
+    String name = staged.getName();
+    File target = file.getAbsoluteFile();
+    this.append(STAGE + name.substring(0, name.length() - STAGED_SUFFIX.length())
+            + " " + target.getPath());
+    File previous = this.staged.put(target, staged);
+    if (previous != null) {
+      Files.delete(previous.toPath());
+    }
+  }
+
+  /**
+   * Append a line to the journal.
+   */
+  private void append(String line) throws IOException {
+    ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(JOURNAL_CHARSET));
+    while (bytes.hasRemaining()) {
+      this.journal.write(bytes);
+    }
+  }
+
+  /**
+   * Replace each target with its staged file, where still staged.
+   *
+   * @return the number of targets replaced.
+   */
+  private static int replace(Map<File, File> staged) throws IOException {
+    int replaced = 0;
+    for (Map.Entry<File, File> file : staged.entrySet()) {
+      if (file.getValue().isFile()) {
+        SourceIO.replace(file.getValue().toPath(), file.getKey().toPath());
+        replaced++;
+      }
+    }
+    return replaced;
+  }
+
+  /**
+   * Remove the journal directory and what it holds.
+   */
+  private static void delete(File dir) throws IOException {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        Files.deleteIfExists(file.toPath());
+      }
+    }
+    Files.deleteIfExists(dir.toPath());
+  }
+}
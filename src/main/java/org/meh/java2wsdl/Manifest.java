@@ -0,0 +1,400 @@
+package org.meh.java2wsdl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records the content hash of every source processed by a run, along with
+ * the adapters each interface refers to, so that a later run can skip the
+ * sources that have not changed since.
+ *
+ * A source is unchanged when its size and modification time match the
+ * recorded ones, or, failing that, when the hash of its content does. An
+ * interface is only skipped when all of its adapters are unchanged as well.
+ *
+ * The index also holds a hash of the settings the sources were annotated
+ * with (the options of the run, its rules and the version of the annotator);
+ * an index saved with other settings is ignored, as if it were missing, so
+ * that changing them annotates every source again.
+ *
+ * The manifest is kept in a small binary index file; it is safe to use from
+ * several threads at once.
+ */
+class Manifest {
+
+  /**
+   * Default name of the index file, kept in the base directory.
+   */
+  static final String DEFAULT_FILE_NAME = ".java2wsdl.idx";
+  /**
+   * Identifies the index file format.
+   */
+  private static final int MAGIC = 0x4a32570a;
+  /**
+   * Version of the index file format.
+   */
+  private static final int VERSION = 2;
+  /**
+   * Charset content is encoded with before hashing.
+   */
+  private static final Charset HASH_CHARSET = Charset.forName("UTF-8");
+  /**
+   * The index file.
+   */
+  private final File index;
+  /**
+   * Reads the files whose content has to be hashed.
+   */
+  private final SourceIO io;
+  /**
+   * Hash of the settings the sources were annotated with.
+   */
+  private final byte[] settings;
+  /**
+   * Entries by absolute path.
+   */
+  private final Map<String, Entry> entries;
+  /**
+   * Paths checked or recorded during this run; only these are saved.
+   */
+  private final Set<String> seen;
+
+  /**
+   * Create a new, empty manifest.
+   *
+   * @param index the index file the manifest is saved to.
+   * @param io reads the files whose content has to be hashed.
+   * @param settings describes the settings the sources are annotated with.
+   */
+  Manifest(File index, SourceIO io, String settings) {
+    this.index = index;
+    this.io = io;
+    this.settings = hash(settings);
+    this.entries = new ConcurrentHashMap<String, Entry>();
+    this.seen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  }
+
+  /**
+   * Create a manifest sharing the entries of another.
+   */
+  private Manifest(Manifest manifest, File index, SourceIO io) {
+    this.index = index;
+    this.io = io;
+    this.settings = manifest.settings;
+    this.entries = manifest.entries;
+    this.seen = manifest.seen;
+  }
+
+  /**
+   * Load the manifest from its index file; a missing or unreadable index,
+   * or one saved with other settings, gives an empty manifest, causing every
+   * source to be processed.
+   *
+   * @param index the index file.
+   * @param io reads the files whose content has to be hashed.
+   * @param settings describes the settings the sources are annotated with.
+   * @return the manifest.
+   */
+  static Manifest load(File index, SourceIO io, String settings) {
+    Manifest manifest = new Manifest(index, io, settings);
+    if (!index.isFile()) {
+      return manifest;
+    }
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+              new FileInputStream(index)));
+      try {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+          return manifest;
+        }
+        byte[] settingsHash = new byte[in.readUnsignedByte()];
+        in.readFully(settingsHash);
+        if (!Arrays.equals(settingsHash, manifest.settings)) {
+          return manifest;
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+          String path = in.readUTF();
+          long length = in.readLong();
+          long lastModified = in.readLong();
+          byte[] hash = new byte[in.readUnsignedByte()];
+          in.readFully(hash);
+          int adapterCount = in.readInt();
+          List<String> adapters = new ArrayList<String>(adapterCount);
+          for (int j = 0; j < adapterCount; j++) {
+            adapters.add(in.readUTF());
+          }
+          manifest.entries.put(path, new Entry(length, lastModified, hash,
+                  adapters));
+        }
+      } finally {
+        in.close();
+      }
+    } catch (IOException ex) {
+      manifest.entries.clear();
+    }
+    return manifest;
+  }
+
+  /**
+   * Get the same manifest, reading files through another reader; what
+   * either records, the other holds.
+   *
+   * @param io reads the files whose content has to be hashed.
+   * @return the manifest.
+   */
+  Manifest withIO(SourceIO io) {
+    return new Manifest(this, this.index, io);
+  }
+
+  /**
+   * Get the same manifest, saved to another index file; what either
+   * records, the other holds.
+   *
+   * @param index the index file the manifest is saved to.
+   * @return the manifest.
+   */
+  Manifest withIndex(File index) {
+    return new Manifest(this, index, this.io);
+  }
+
+  /**
+   * Take in what another manifest holds (as saved by a shard), as if
+   * recorded during this run.
+   *
+   * @param manifest the other manifest.
+   */
+  void merge(Manifest manifest) {
+    this.entries.putAll(manifest.entries);
+    this.seen.addAll(manifest.entries.keySet());
+  }
+
+  /**
+   * Forget a file, so that it is taken to have changed.
+   *
+   * @param file the file.
+   */
+  void forget(File file) {
+    this.entries.remove(file.getAbsolutePath());
+  }
+
+  /**
+   * Save the entries checked or recorded during this run to the index file.
+   *
+   * @throws IOException if the index file could not be written.
+   */
+  void save() throws IOException {
+    List<String> paths = new ArrayList<String>();
+    for (String path : this.seen) {
+      if (this.entries.containsKey(path)) {
+        paths.add(path);
+      }
+    }
+    Collections.sort(paths);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeByte(this.settings.length);
+      out.write(this.settings);
+      out.writeInt(paths.size());
+      for (String path : paths) {
+        Entry entry = this.entries.get(path);
+        out.writeUTF(path);
+        out.writeLong(entry.length);
+        out.writeLong(entry.lastModified);
+        out.writeByte(entry.hash.length);
+        out.write(entry.hash);
+        out.writeInt(entry.adapters.size());
+        for (String adapter : entry.adapters) {
+          out.writeUTF(adapter);
+        }
+      }
+    } finally {
+      out.close();
+    }
+    this.io.save(this.index, bytes.toByteArray());
+  }
+
+  /**
+   * Determine if a file, and every adapter recorded for it, is the same as
+   * when it was last recorded.
+   *
+   * @param file the file to check.
+   * @return true if neither the file nor its adapters changed.
+   * @throws IOException if the file could not be read.
+   */
+  boolean isUnchanged(File file) throws IOException {
+    String path = file.getAbsolutePath();
+    this.seen.add(path);
+    Entry entry = this.entries.get(path);
+    if (entry == null || !this.matches(file, entry)) {
+      return false;
+    }
+    for (String adapter : entry.adapters) {
+      this.seen.add(adapter);
+      Entry adapterEntry = this.entries.get(adapter);
+      if (adapterEntry == null || !this.matches(new File(adapter), adapterEntry)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Determine if a file holds the given content, without reading it: if the
+   * file has not changed since it was recorded, and what was recorded has
+   * the same hash as the content.
+   *
+   * @param file the file to check.
+   * @param content the content.
+   * @return true if the file is known to hold the content; false if it may
+   * not.
+   */
+  boolean holds(File file, CharSequence content) {
+    String path = file.getAbsolutePath();
+    this.seen.add(path);
+    Entry entry = this.entries.get(path);
+    return entry != null && file.length() == entry.length
+            && file.lastModified() == entry.lastModified
+            && Arrays.equals(entry.hash, hash(content));
+  }
+
+  /**
+   * Record the content of a file just written or processed.
+   *
+   * @param file the file.
+   * @param content the content of the file.
+   * @param adapters the adapters the file refers to.
+   */
+  void record(File file, CharSequence content, Iterable<File> adapters) {
+    this.record(file, hash(content), adapters);
+  }
+
+  /**
+   * Record a file just written or processed, by the hash of its content.
+   *
+   * @param file the file.
+   * @param hash the hash of the content of the file, from
+   * {@link #hash(CharSequence)}.
+   * @param adapters the adapters the file refers to.
+   */
+  void record(File file, byte[] hash, Iterable<File> adapters) {
+    List<String> adapterPaths = new ArrayList<String>();
+    for (File adapter : adapters) {
+      adapterPaths.add(adapter.getAbsolutePath());
+    }
+    String path = file.getAbsolutePath();
+    // staged files keep their size and time once they replace the file:
+    File written = this.io.locate(file);
+    this.entries.put(path, new Entry(written.length(), written.lastModified(),
+            hash, adapterPaths));
+    this.seen.add(path);
+  }
+
+  /**
+   * Record the content of a file just written or processed.
+   *
+   * @param file the file.
+   * @param content the content of the file.
+   */
+  void record(File file, CharSequence content) {
+    this.record(file, content, Collections.<File>emptyList());
+  }
+
+  /**
+   * Record a file as it is on disk.
+   *
+   * @param file the file.
+   * @throws IOException if the file could not be read.
+   */
+  void record(File file) throws IOException {
+    this.record(file, this.io.read(file));
+  }
+
+  /**
+   * Determine if a file matches its entry; the content is only read and
+   * hashed when the size or modification time differ.
+   */
+  private boolean matches(File file, Entry entry) throws IOException {
+    if (!file.isFile()) {
+      return false;
+    }
+    if (file.length() == entry.length
+            && file.lastModified() == entry.lastModified) {
+      return true;
+    }
+    return Arrays.equals(entry.hash, hash(this.io.read(file)));
+  }
+
+  /**
+   * Hash the given content.
+   *
+   * @param content the content.
+   * @return the hash of the content.
+   */
+  static byte[] hash(CharSequence content) {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+    // the content is encoded a chunk at a time, straight in to the digest:
+    try {
+      SourceIO.encode(content, HASH_CHARSET, new WritableByteChannel() {
+        public int write(ByteBuffer src) {
+          int size = src.remaining();
+          digest.update(src);
+          return size;
+        }
+
+        public boolean isOpen() {
+          return true;
+        }
+
+        public void close() {
+        }
+      });
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex);
+    }
+    return digest.digest();
+  }
+
+  /**
+   * The recorded state of a file.
+   */
+  private static class Entry {
+
+    private final long length;
+    private final long lastModified;
+    private final byte[] hash;
+    private final List<String> adapters;
+
+    Entry(long length, long lastModified, byte[] hash, List<String> adapters) {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.hash = hash;
+      this.adapters = adapters;
+    }
+  }
+}
@@ -0,0 +1,242 @@
+package org.meh.java2wsdl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Finds every occurrence of a fixed set of patterns in a single, linear pass
+ * over a text (Aho-Corasick). The patterns are compiled once in to a
+ * deterministic automaton, so a matcher is best kept in a constant and shared;
+ * it is immutable and safe to use from several threads at once.
+ */
+final class PatternMatcher {
+
+  /**
+   * The patterns, by index.
+   */
+  private final String[] patterns;
+  /**
+   * Maps each character to its column in the transition table; characters
+   * that appear in none of the patterns map to 0.
+   */
+  private final char[] alphabet;
+  /**
+   * Number of columns in the transition table (distinct characters + 1).
+   */
+  private final int width;
+  /**
+   * Transition table: next state = transitions[state * width + column].
+   */
+  private final int[] transitions;
+  /**
+   * Patterns ending in each state.
+   */
+  private final int[][] outputs;
+
+  /**
+   * Compile a new matcher.
+   *
+   * @param patterns the non-empty patterns to find.
+   */
+  PatternMatcher(String... patterns) {
+    this.patterns = patterns.clone();
+    this.alphabet = new char[Character.MAX_VALUE + 1];
+    int columns = 1;
+    for (String pattern : patterns) {
+      if (pattern.length() == 0) {
+        throw new IllegalArgumentException("Patterns must not be empty.");
+      }
+      for (int i = 0; i < pattern.length(); i++) {
+        char c = pattern.charAt(i);
+        if (this.alphabet[c] == 0) {
+          this.alphabet[c] = (char) columns++;
+        }
+      }
+    }
+    this.width = columns;
+    // build the trie:
+    List<int[]> trie = new ArrayList<int[]>();
+    List<List<Integer>> found = new ArrayList<List<Integer>>();
+    trie.add(new int[columns]);
+    found.add(new ArrayList<Integer>());
+    for (int p = 0; p < patterns.length; p++) {
+      int state = 0;
+      for (int i = 0; i < patterns[p].length(); i++) {
+        int column = this.alphabet[patterns[p].charAt(i)];
+        if (trie.get(state)[column] == 0) {
+          trie.get(state)[column] = trie.size();
+          trie.add(new int[columns]);
+          found.add(new ArrayList<Integer>());
+        }
+        state = trie.get(state)[column];
+      }
+      found.get(state).add(p);
+    }
+    // breadth first, turn the trie in to a complete automaton:
+    int[] fail = new int[trie.size()];
+    LinkedList<Integer> queue = new LinkedList<Integer>();
+    for (int column = 1; column < columns; column++) {
+      if (trie.get(0)[column] != 0) {
+        queue.add(trie.get(0)[column]);
+      }
+    }
+    while (!queue.isEmpty()) {
+      int state = queue.removeFirst();
+      found.get(state).addAll(found.get(fail[state]));
+      for (int column = 1; column < columns; column++) {
+        int next = trie.get(state)[column];
+        if (next != 0) {
+          fail[next] = trie.get(fail[state])[column];
+          queue.add(next);
+        } else {
+          trie.get(state)[column] = trie.get(fail[state])[column];
+        }
+      }
+    }
+    this.transitions = new int[trie.size() * columns];
+    this.outputs = new int[trie.size()][];
+    for (int state = 0; state < trie.size(); state++) {
+      System.arraycopy(trie.get(state), 0, this.transitions, state * columns,
+              columns);
+      List<Integer> ends = found.get(state);
+      this.outputs[state] = new int[ends.size()];
+      for (int i = 0; i < ends.size(); i++) {
+        this.outputs[state][i] = ends.get(i);
+      }
+    }
+  }
+
+  /**
+   * @param pattern index of the pattern.
+   * @return the pattern.
+   */
+  String pattern(int pattern) {
+    return this.patterns[pattern];
+  }
+
+  /**
+   * Determine if the text contains the given string at a position; used to
+   * check the part of an anchor that varies from file to file.
+   *
+   * @param text the text.
+   * @param offset position in the text.
+   * @param prefix the string to look for.
+   * @return true if the text contains prefix at offset.
+   */
+  static boolean startsWith(CharSequence text, int offset, String prefix) {
+    if (offset < 0 || offset + prefix.length() > text.length()) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); i++) {
+      if (text.charAt(offset + i) != prefix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Find every occurrence of every pattern in the text.
+   *
+   * @param text the text to search.
+   * @return the occurrences found.
+   */
+  Matches find(CharSequence text) {
+    Matches matches = new Matches(this.patterns.length);
+    int state = 0;
+    for (int i = 0; i < text.length(); i++) {
+      state = this.transitions[state * this.width + this.alphabet[text.charAt(i)]];
+      for (int pattern : this.outputs[state]) {
+        matches.add(pattern, i + 1 - this.patterns[pattern].length());
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * The occurrences of each of the patterns of a matcher in a text.
+   */
+  final class Matches {
+
+    /**
+     * Start positions, in ascending order, per pattern.
+     */
+    private final int[][] starts;
+    /**
+     * Number of occurrences per pattern.
+     */
+    private final int[] counts;
+
+    private Matches(int patterns) {
+      this.starts = new int[patterns][];
+      this.counts = new int[patterns];
+    }
+
+    private void add(int pattern, int start) {
+      int[] positions = this.starts[pattern];
+      if (positions == null) {
+        positions = this.starts[pattern] = new int[4];
+      } else if (this.counts[pattern] == positions.length) {
+        positions = this.starts[pattern] = Arrays.copyOf(positions,
+                positions.length * 2);
+      }
+      positions[this.counts[pattern]++] = start;
+    }
+
+    /**
+     * @return the matcher that found the occurrences.
+     */
+    PatternMatcher matcher() {
+      return PatternMatcher.this;
+    }
+
+    /**
+     * @param pattern index of the pattern.
+     * @return true if the pattern occurs at all.
+     */
+    boolean contains(int pattern) {
+      return this.counts[pattern] > 0;
+    }
+
+    /**
+     * @param pattern index of the pattern.
+     * @return number of occurrences of the pattern.
+     */
+    int count(int pattern) {
+      return this.counts[pattern];
+    }
+
+    /**
+     * @param pattern index of the pattern.
+     * @param i index of the occurrence.
+     * @return start of the i'th occurrence of the pattern.
+     */
+    int start(int pattern, int i) {
+      return this.starts[pattern][i];
+    }
+
+    /**
+     * The occurrences of a pattern as String.replace would find them: from
+     * the start, skipping any that overlap the previous one.
+     *
+     * @param pattern index of the pattern.
+     * @return start positions, in ascending order.
+     */
+    int[] nonOverlapping(int pattern) {
+      int length = PatternMatcher.this.patterns[pattern].length();
+      int[] result = new int[this.counts[pattern]];
+      int count = 0;
+      int end = -1;
+      for (int i = 0; i < this.counts[pattern]; i++) {
+        int start = this.starts[pattern][i];
+        if (start >= end) {
+          result[count++] = start;
+          end = start + length;
+        }
+      }
+      return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+  }
+}
@@ -0,0 +1,254 @@
+package org.meh.java2wsdl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * A rule declared in a rules file: wherever a pattern occurs (in code,
+ * unless declared otherwise) the pattern is replaced, or text inserted at an
+ * anchor near it, in the sources the conditions of the rule hold for.
+ *
+ * A rule is declared a directive a line, and is complete once it has a
+ * pattern and either a replacement or an insertion; see {@link RuleSet} for
+ * the format.
+ */
+final class PatternRule implements RewriteRule {
+
+  /**
+   * Where an insertion goes, relative to an occurrence of the pattern.
+   */
+  enum Anchor {
+
+    /**
+     * Before the occurrence.
+     */
+    BEFORE,
+    /**
+     * After the occurrence.
+     */
+    AFTER,
+    /**
+     * At the start of the line of the occurrence.
+     */
+    LINE_START,
+    /**
+     * At the start of the line after that of the occurrence.
+     */
+    NEXT_LINE
+  }
+  private final String name;
+  /**
+   * The text looked for.
+   */
+  private String pattern;
+  /**
+   * The replacement of the pattern; null if inserting.
+   */
+  private String replacement;
+  /**
+   * The text inserted at the anchor; null if replacing.
+   */
+  private String insertion;
+  private Anchor anchor = Anchor.BEFORE;
+  /**
+   * The kind of source rewritten: true for implementations, false for
+   * interfaces, null for both.
+   */
+  private Boolean implementation;
+  /**
+   * Only rewrite occurrences in code, not in comments and literals?
+   */
+  private boolean codeOnly = true;
+  /**
+   * Wildcard the file name of a source must match; null for any.
+   */
+  private String files;
+  /**
+   * Texts a source must contain.
+   */
+  private final List<String> required = new ArrayList<String>();
+  /**
+   * Texts a source must not contain.
+   */
+  private final List<String> excluded = new ArrayList<String>();
+  /**
+   * Only rewrite the first occurrence that can be?
+   */
+  private boolean once;
+
+  /**
+   * Create a new rule, to be declared.
+   *
+   * @param name the name of the rule.
+   */
+  PatternRule(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Declare part of the rule.
+   *
+   * @param directive what is declared.
+   * @param value the value declared, with escapes already decoded.
+   * @throws IllegalArgumentException if the directive or value is unknown,
+   * or the directive was already given.
+   */
+  void declare(String directive, String value) {
+    if ("pattern".equals(directive)) {
+      if (this.pattern != null) {
+        throw new IllegalArgumentException("rule " + this.name
+                + " already has a pattern");
+      }
+      if (value.length() == 0) {
+        throw new IllegalArgumentException("empty pattern");
+      }
+      this.pattern = value;
+    } else if ("replace".equals(directive) || "insert".equals(directive)) {
+      if (this.replacement != null || this.insertion != null) {
+        throw new IllegalArgumentException("rule " + this.name
+                + " already replaces or inserts");
+      }
+      if ("replace".equals(directive)) {
+        this.replacement = value;
+      } else {
+        this.insertion = value;
+      }
+    } else if ("anchor".equals(directive)) {
+      this.anchor = Anchor.valueOf(constant(directive, value,
+              "before", "after", "line-start", "next-line"));
+    } else if ("kind".equals(directive)) {
+      String kind = constant(directive, value, "interface", "implementation", "any");
+      this.implementation = "ANY".equals(kind) ? null
+              : Boolean.valueOf("IMPLEMENTATION".equals(kind));
+    } else if ("in".equals(directive)) {
+      this.codeOnly = "CODE".equals(constant(directive, value, "code", "anything"));
+    } else if ("files".equals(directive)) {
+      this.files = value;
+    } else if ("if-contains".equals(directive)) {
+      this.required.add(nonEmpty(directive, value));
+    } else if ("unless-contains".equals(directive)) {
+      this.excluded.add(nonEmpty(directive, value));
+    } else if ("once".equals(directive)) {
+      this.once = true;
+    } else {
+      throw new IllegalArgumentException("unknown directive " + directive);
+    }
+  }
+
+  /**
+   * Check that the rule is complete.
+   *
+   * @throws IllegalArgumentException if it is not.
+   */
+  void check() {
+    if (this.pattern == null) {
+      throw new IllegalArgumentException("rule " + this.name + " has no pattern");
+    }
+    if (this.replacement == null && this.insertion == null) {
+      throw new IllegalArgumentException("rule " + this.name
+              + " neither replaces nor inserts");
+    }
+    if (this.replacement != null && this.anchor != Anchor.BEFORE) {
+      throw new IllegalArgumentException("rule " + this.name
+              + " replaces, so has no anchor");
+    }
+  }
+
+  public String getName() {
+    return this.name;
+  }
+
+  /**
+   * The pattern, then the texts sources must contain, then those they must
+   * not.
+   */
+  public List<String> getPatterns() {
+    List<String> patterns = new ArrayList<String>();
+    patterns.add(this.pattern);
+    patterns.addAll(this.required);
+    patterns.addAll(this.excluded);
+    return Collections.unmodifiableList(patterns);
+  }
+
+  public void rewrite(Site site) {
+    if (this.implementation != null
+            && this.implementation.booleanValue() != site.isImplementation()
+            || this.files != null
+            && !FilenameUtils.wildcardMatch(site.getFileName(), this.files)) {
+      return;
+    }
+    for (int i = 0; i < this.required.size(); i++) {
+      if (site.find(1 + i).length == 0) {
+        return;
+      }
+    }
+    for (int i = 0; i < this.excluded.size(); i++) {
+      if (site.find(1 + this.required.size() + i).length > 0) {
+        return;
+      }
+    }
+    for (int start : site.find(0)) {
+      if (this.codeOnly && !site.isCode(start)) {
+        continue;
+      }
+      boolean edited = this.replacement != null
+              ? site.replace(start, this.pattern.length(), this.replacement)
+              : site.insert(this.anchor(site.getContent(), start), this.insertion);
+      if (edited && this.once) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Find where an insertion goes.
+   *
+   * @param content the text of the source.
+   * @param start start of the occurrence of the pattern.
+   * @return position to insert at.
+   */
+  private int anchor(CharSequence content, int start) {
+    switch (this.anchor) {
+      case AFTER:
+        return start + this.pattern.length();
+      case LINE_START:
+        int line = start;
+        while (line > 0 && content.charAt(line - 1) != '\n') {
+          line--;
+        }
+        return line;
+      case NEXT_LINE:
+        for (int i = start + this.pattern.length(); i < content.length(); i++) {
+          if (content.charAt(i) == '\n') {
+            return i + 1;
+          }
+        }
+        return content.length();
+      default:
+        return start;
+    }
+  }
+
+  /**
+   * Parse one of a set of values, as the name of a constant.
+   */
+  private static String constant(String directive, String value,
+          String... values) {
+    for (String known : values) {
+      if (known.equals(value)) {
+        return value.toUpperCase(Locale.ENGLISH).replace('-', '_');
+      }
+    }
+    throw new IllegalArgumentException("unknown " + directive + " " + value);
+  }
+
+  private static String nonEmpty(String directive, String value) {
+    if (value.length() == 0) {
+      throw new IllegalArgumentException("empty " + directive);
+    }
+    return value;
+  }
+}
@@ -0,0 +1,163 @@
+package org.meh.java2wsdl;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * An edited text that is never copied: the text is kept as a sequence of
+ * pieces, each a range of either the original text or of the text of an
+ * edit. Applying edits to a file costs memory in proportion to the number of
+ * edits rather than to the size of the file; the text is written (and
+ * hashed) a piece at a time, and only copied whole when asked for as a
+ * string.
+ */
+final class PieceTable implements CharSequence {
+
+  /**
+   * The text edited.
+   */
+  private final CharSequence original;
+  /**
+   * The text each piece comes from.
+   */
+  private final CharSequence[] sources;
+  /**
+   * Where each piece starts in its text.
+   */
+  private final int[] from;
+  /**
+   * Where each piece starts in this text; one more than there are pieces,
+   * the last being the length.
+   */
+  private final int[] starts;
+  /**
+   * Number of pieces.
+   */
+  private int count;
+
+  /**
+   * Create an empty table.
+   *
+   * @param original the text edited.
+   * @param capacity the most pieces the table will hold.
+   */
+  PieceTable(CharSequence original, int capacity) {
+    this.original = original;
+    this.sources = new CharSequence[capacity];
+    this.from = new int[capacity];
+    this.starts = new int[capacity + 1];
+  }
+
+  /**
+   * Add a piece to the end of the text; empty pieces are left out.
+   *
+   * @param source the text the piece comes from.
+   * @param start where the piece starts in its text.
+   * @param end where the piece ends in its text.
+   */
+  void add(CharSequence source, int start, int end) {
+    if (end > start) {
+      this.sources[this.count] = source;
+      this.from[this.count] = start;
+      this.starts[this.count + 1] = this.starts[this.count] + end - start;
+      this.count++;
+    }
+  }
+
+  /**
+   * @return the number of pieces.
+   */
+  int getPieceCount() {
+    return this.count;
+  }
+
+  /**
+   * Get a piece, without copying it.
+   *
+   * @param piece the index of the piece.
+   * @return a read only buffer over the piece.
+   */
+  CharBuffer getPiece(int piece) {
+    return CharBuffer.wrap(this.sources[piece], this.from[piece],
+            this.from[piece] + this.starts[piece + 1] - this.starts[piece]);
+  }
+
+  /**
+   * Compare this text with the text it was edited from; pieces that were
+   * left where they were are not compared character by character.
+   *
+   * @return true if the edits changed nothing.
+   */
+  boolean isUnchanged() {
+    if (this.length() != this.original.length()) {
+      return false;
+    }
+    for (int piece = 0; piece < this.count; piece++) {
+      CharSequence source = this.sources[piece];
+      int start = this.from[piece];
+      int at = this.starts[piece];
+      if (source == this.original && start == at) {
+        continue;
+      }
+      for (int i = at; i < this.starts[piece + 1]; i++) {
+        if (source.charAt(start + i - at) != this.original.charAt(i)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  public int length() {
+    return this.starts[this.count];
+  }
+
+  public char charAt(int index) {
+    if (index < 0 || index >= this.length()) {
+      throw new IndexOutOfBoundsException(String.valueOf(index));
+    }
+    int piece = this.pieceAt(index);
+    return this.sources[piece].charAt(this.from[piece] + index - this.starts[piece]);
+  }
+
+  public CharSequence subSequence(int start, int end) {
+    if (start < 0 || end > this.length() || start > end) {
+      throw new IndexOutOfBoundsException(start + ", " + end);
+    }
+    StringBuilder text = new StringBuilder(end - start);
+    this.appendTo(text, start, end);
+    return text;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder(this.length());
+    this.appendTo(text, 0, this.length());
+    return text.toString();
+  }
+
+  /**
+   * Append part of the text.
+   */
+  private void appendTo(StringBuilder text, int start, int end) {
+    if (start == end) {
+      return;
+    }
+    for (int piece = this.pieceAt(start); piece < this.count
+            && this.starts[piece] < end; piece++) {
+      int at = this.starts[piece];
+      int from = Math.max(start, at);
+      int to = Math.min(end, this.starts[piece + 1]);
+      text.append(this.sources[piece], this.from[piece] + from - at,
+              this.from[piece] + to - at);
+    }
+  }
+
+  /**
+   * Find the piece holding a position.
+   */
+  private int pieceAt(int index) {
+    int piece = Arrays.binarySearch(this.starts, 0, this.count, index);
+    return piece >= 0 ? piece : -piece - 2;
+  }
+}
@@ -0,0 +1,97 @@
+package org.meh.java2wsdl;
+
+import java.util.List;
+
+/**
+ * A rewrite made to sources on top of the annotations the annotator adds;
+ * rules are given to a {@link RuleSet}, either declared in a rules file or
+ * named there by class (in which case the class needs a public constructor
+ * without arguments).
+ *
+ * The patterns of every rule of a set are found in the same single pass over
+ * each source, along with the anchors of the annotator itself; a rule is
+ * then given the occurrences of its own patterns, and its edits are applied
+ * along with all others. Edits are given in terms of the source as read, and
+ * an edit overlapping an edit already made is refused.
+ *
+ * Rules are shared by every thread of a run, and so must not keep the state
+ * of the source they rewrite.
+ */
+public interface RewriteRule {
+
+  /**
+   * @return the name of the rule, as reported.
+   */
+  String getName();
+
+  /**
+   * @return the non-empty texts the rule looks for, in the order
+   * {@link Site#find(int)} numbers them.
+   */
+  List<String> getPatterns();
+
+  /**
+   * Rewrite a source.
+   *
+   * @param site the source, and the occurrences of the patterns of the rule
+   * in it.
+   */
+  void rewrite(Site site);
+
+  /**
+   * A source being rewritten.
+   */
+  interface Site {
+
+    /**
+     * @return the file name of the source, like FooDocument.java.
+     */
+    String getFileName();
+
+    /**
+     * @return true for an implementation class, false for an interface.
+     */
+    boolean isImplementation();
+
+    /**
+     * @return the text of the source, as read.
+     */
+    CharSequence getContent();
+
+    /**
+     * Find the occurrences of a pattern, as String.replace would find them:
+     * from the start, skipping any that overlap the previous one.
+     *
+     * @param pattern the index of the pattern among those of the rule.
+     * @return start positions, in ascending order.
+     */
+    int[] find(int pattern);
+
+    /**
+     * @param position position in the source.
+     * @return true unless the position is in a comment or literal.
+     */
+    boolean isCode(int position);
+
+    /**
+     * Insert text before the given position.
+     *
+     * @param position position in the source.
+     * @param text the text to insert.
+     * @return false if the position is within text already replaced, and
+     * nothing was inserted.
+     */
+    boolean insert(int position, String text);
+
+    /**
+     * Replace part of the source.
+     *
+     * @param position position in the source.
+     * @param length number of characters to replace.
+     * @param text the replacement.
+     * @return false if the part overlaps an edit already made, and was left
+     * alone.
+     */
+    boolean replace(int position, int length, String text);
+  }
+}
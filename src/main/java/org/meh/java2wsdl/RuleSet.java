@@ -0,0 +1,512 @@
+package org.meh.java2wsdl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The rewrite rules run on every source, and the settings the annotations
+ * are made with, as given by a rules file. The patterns of every rule are
+ * compiled, along with the anchors the annotator looks for itself, in to a
+ * single matcher when the set is created, so that each source is searched
+ * once whatever the number of rules; a set is immutable and may be shared by
+ * any number of threads and transformers.
+ *
+ * A rules file (read as UTF-8) holds a directive a line; blank lines and
+ * lines starting with # are left out:
+ *
+ * <pre>
+ * set namespace http://example.org
+ * set document-suffix Document
+ * set xml-type-name x{Name}
+ *
+ * rule deprecate-foo
+ *   kind interface
+ *   files *Document.java
+ *   pattern Foo getFoo();
+ *   anchor line-start
+ *   insert &#64;Deprecated\n
+ *   unless-contains &#64;Deprecated
+ *
+ * use com.example.MyRule
+ * disable any-simple-type-cast
+ * </pre>
+ *
+ * The namespace is that of the XmlType names of enums; the document suffix
+ * is left out of the names of the adapters of listed sub-interfaces; the
+ * XmlType name of interfaces and implementations is made from the template
+ * given, {name} standing for the name of the interface with its first
+ * letter in lower case, and {Name} for the name as it is.
+ *
+ * A rule takes the directives up to the next rule: a pattern, then either
+ * replace (the pattern, with the given text) or insert (the given text, at
+ * the anchor: before, after, line-start or next-line; before the pattern by
+ * default). A rule only rewrites occurrences in code, unless declared in
+ * anything; and only the sources of its kind (interface, implementation or
+ * any, the default) whose file names match its files wildcard, if any, that
+ * contain every if-contains text and no unless-contains text. A rule that is
+ * declared once only makes its first edit. In values, \n, \t, \s (a space)
+ * and \\ are escapes.
+ *
+ * Use names a class implementing {@link RewriteRule}. The rules of a file
+ * are added to the default rules (those that make implementations use the
+ * concrete XmlAnySimpleType), and run in order after the annotations are
+ * made; a rule named like an earlier one replaces it, and disable removes
+ * one.
+ */
+public final class RuleSet {
+
+  /**
+   * Index in the matcher of the placeholder for the index of an enum in its
+   * XmlType name.
+   */
+  static final int ENUM_MARKER = 0;
+  /**
+   * The anchors looked for by the annotator itself, by index.
+   */
+  private static final String[] ANCHORS = new String[]{"Enum_IDX"};
+  /**
+   * The default rules, and the default settings.
+   */
+  private static final String DEFAULT_RULES = ""
+          + "set namespace http://openeyes.org\n"
+          + "set document-suffix Document\n"
+          + "set xml-type-name {name}\n"
+          + "rule any-simple-type-getter\n"
+          + "  kind implementation\n"
+          + "  pattern org.apache.xmlbeans.XmlAnySimpleType get\n"
+          + "  replace org.apache.xmlbeans.impl.values.XmlAnySimpleTypeImpl get\n"
+          + "rule any-simple-type-target\n"
+          + "  kind implementation\n"
+          + "  pattern org.apache.xmlbeans.XmlAnySimpleType target = null;\n"
+          + "  replace org.apache.xmlbeans.impl.values.XmlAnySimpleTypeImpl target = null;\n"
+          + "rule any-simple-type-cast\n"
+          + "  kind implementation\n"
+          + "  pattern target = (org.apache.xmlbeans.XmlAnySimpleType)get_store()\n"
+          + "  replace target = (org.apache.xmlbeans.impl.values.XmlAnySimpleTypeImpl)get_store()\n";
+  /**
+   * Names of the settings.
+   */
+  private static final List<String> SETTINGS = Arrays.asList("namespace",
+          "document-suffix", "xml-type-name");
+  private static final RuleSet DEFAULTS;
+
+  static {
+    try {
+      DEFAULTS = parse(new StringReader(DEFAULT_RULES), "defaults",
+              new RuleSet(new ArrayList<RewriteRule>(),
+              new HashMap<String, String>(), ""));
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+  /**
+   * The rules, in the order they are run.
+   */
+  private final List<RewriteRule> rules;
+  /**
+   * Index in the matcher of the first pattern of each rule.
+   */
+  private final int[] offsets;
+  /**
+   * Number of patterns of each rule.
+   */
+  private final int[] counts;
+  /**
+   * Finds the anchors and the patterns of every rule.
+   */
+  private final PatternMatcher matcher;
+  /**
+   * Settings, by name.
+   */
+  private final Map<String, String> settings;
+  /**
+   * The text the rules were read from, the default rules first.
+   */
+  private final String text;
+
+  private RuleSet(List<RewriteRule> rules, Map<String, String> settings,
+          String text) {
+    this.rules = Collections.unmodifiableList(rules);
+    this.settings = Collections.unmodifiableMap(settings);
+    this.text = text;
+    this.offsets = new int[rules.size()];
+    this.counts = new int[rules.size()];
+    List<String> patterns = new ArrayList<String>();
+    Collections.addAll(patterns, ANCHORS);
+    for (int i = 0; i < rules.size(); i++) {
+      this.offsets[i] = patterns.size();
+      List<String> own = rules.get(i).getPatterns();
+      this.counts[i] = own.size();
+      for (String pattern : own) {
+        if (pattern == null || pattern.length() == 0) {
+          throw new IllegalArgumentException("Rule " + rules.get(i).getName()
+                  + " has an empty pattern.");
+        }
+        patterns.add(pattern);
+      }
+    }
+    this.matcher = new PatternMatcher(patterns.toArray(new String[patterns.size()]));
+  }
+
+  /**
+   * @return the default rules and settings.
+   */
+  public static RuleSet defaults() {
+    return DEFAULTS;
+  }
+
+  /**
+   * Read a rules file, adding its rules to the default rules.
+   *
+   * @param file the rules file.
+   * @return the rules.
+   * @throws IOException if the file could not be read.
+   * @throws IllegalArgumentException if the file is malformed, or a rule
+   * class could not be created.
+   */
+  public static RuleSet load(File file) throws IOException {
+    Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+    try {
+      return parse(reader, file.getPath());
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Read rules, adding them to the default rules.
+   *
+   * @param reader the rules, in the format of a rules file.
+   * @param source where the rules come from, as reported in errors.
+   * @return the rules.
+   * @throws IOException if the rules could not be read.
+   * @throws IllegalArgumentException if the rules are malformed, or a rule
+   * class could not be created.
+   */
+  public static RuleSet parse(Reader reader, String source) throws IOException {
+    return parse(reader, source, DEFAULTS);
+  }
+
+  /**
+   * Read rules, adding them to those of another set.
+   */
+  private static RuleSet parse(Reader reader, String source, RuleSet base)
+          throws IOException {
+    Map<String, RewriteRule> rules = new LinkedHashMap<String, RewriteRule>();
+    for (RewriteRule rule : base.rules) {
+      rules.put(rule.getName(), rule);
+    }
+    Map<String, String> settings = new HashMap<String, String>(base.settings);
+    StringBuilder text = new StringBuilder(base.text);
+    BufferedReader in = new BufferedReader(reader);
+    PatternRule rule = null;
+    int number = 0;
+    for (String line = in.readLine(); line != null; line = in.readLine()) {
+      number++;
+      text.append(line).append('\n');
+      line = line.trim();
+      if (line.length() == 0 || line.startsWith("#")) {
+        continue;
+      }
+      int space = line.indexOf(' ');
+      String directive = space < 0 ? line : line.substring(0, space);
+      String value = space < 0 ? "" : unescape(line.substring(space + 1).trim());
+      try {
+        if ("rule".equals(directive) || "use".equals(directive)
+                || "disable".equals(directive) || "set".equals(directive)) {
+          if (rule != null) {
+            rule.check();
+            rules.put(rule.getName(), rule);
+            rule = null;
+          }
+          if (value.length() == 0) {
+            throw new IllegalArgumentException(directive + " needs a value");
+          }
+        }
+        if ("rule".equals(directive)) {
+          rule = new PatternRule(value);
+        } else if ("use".equals(directive)) {
+          RewriteRule created = create(value);
+          rules.put(created.getName(), created);
+        } else if ("disable".equals(directive)) {
+          if (rules.remove(value) == null) {
+            throw new IllegalArgumentException("no rule " + value);
+          }
+        } else if ("set".equals(directive)) {
+          space = value.indexOf(' ');
+          String name = space < 0 ? value : value.substring(0, space);
+          if (!SETTINGS.contains(name)) {
+            throw new IllegalArgumentException("unknown setting " + name);
+          }
+          settings.put(name, space < 0 ? "" : value.substring(space + 1).trim());
+        } else if (rule == null) {
+          throw new IllegalArgumentException(directive + " outside a rule");
+        } else {
+          rule.declare(directive, value);
+        }
+      } catch (IllegalArgumentException ex) {
+        throw new IllegalArgumentException(source + ":" + number + ": "
+                + ex.getMessage(), ex);
+      }
+    }
+    if (rule != null) {
+      try {
+        rule.check();
+      } catch (IllegalArgumentException ex) {
+        throw new IllegalArgumentException(source + ":" + number + ": "
+                + ex.getMessage(), ex);
+      }
+      rules.put(rule.getName(), rule);
+    }
+    return new RuleSet(new ArrayList<RewriteRule>(rules.values()), settings,
+            text.toString());
+  }
+
+  /**
+   * Create a rule from the name of its class.
+   */
+  private static RewriteRule create(String className) {
+    try {
+      return Class.forName(className).asSubclass(RewriteRule.class)
+              .getDeclaredConstructor().newInstance();
+    } catch (ClassNotFoundException ex) {
+      throw new IllegalArgumentException("no rule class " + className, ex);
+    } catch (ClassCastException ex) {
+      throw new IllegalArgumentException(className + " is not a rule", ex);
+    } catch (NoSuchMethodException ex) {
+      throw new IllegalArgumentException(className
+              + " has no constructor without arguments", ex);
+    } catch (InvocationTargetException ex) {
+      throw new IllegalArgumentException("cannot create " + className + ": "
+              + ex.getCause(), ex.getCause());
+    } catch (InstantiationException ex) {
+      throw new IllegalArgumentException("cannot create " + className, ex);
+    } catch (IllegalAccessException ex) {
+      throw new IllegalArgumentException("cannot create " + className, ex);
+    }
+  }
+
+  /**
+   * Decode the escapes of a value.
+   */
+  private static String unescape(String value) {
+    if (value.indexOf('\\') < 0) {
+      return value;
+    }
+    StringBuilder text = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c != '\\' || i + 1 == value.length()) {
+        text.append(c);
+        continue;
+      }
+      c = value.charAt(++i);
+      switch (c) {
+        case 'n':
+          text.append('\n');
+          break;
+        case 't':
+          text.append('\t');
+          break;
+        case 's':
+          text.append(' ');
+          break;
+        case '\\':
+          text.append('\\');
+          break;
+        default:
+          throw new IllegalArgumentException("unknown escape \\" + c);
+      }
+    }
+    return text.toString();
+  }
+
+  /**
+   * @return the text the rules were read from, the default rules first;
+   * rules of the same text are the same rules, so long as the classes they
+   * use are the same.
+   */
+  String getText() {
+    return this.text;
+  }
+
+  /**
+   * @return the rules, in the order they are run.
+   */
+  public List<RewriteRule> getRules() {
+    return this.rules;
+  }
+
+  /**
+   * @return the namespace of the XmlType names of enums.
+   */
+  String getNamespace() {
+    return this.settings.get("namespace");
+  }
+
+  /**
+   * @return the suffix of interfaces left out of the names of the adapters
+   * of listed sub-interfaces.
+   */
+  String getDocumentSuffix() {
+    return this.settings.get("document-suffix");
+  }
+
+  /**
+   * Name the XmlType of an interface, or of its implementation.
+   *
+   * @param name the simple name of the interface.
+   * @return the name of the XmlType.
+   */
+  String xmlTypeName(String name) {
+    return this.settings.get("xml-type-name")
+            .replace("{name}", Character.toLowerCase(name.charAt(0)) + name.substring(1))
+            .replace("{Name}", name);
+  }
+
+  /**
+   * Find the anchors and the patterns of every rule in a source.
+   *
+   * @param content the text of the source.
+   * @return the occurrences found.
+   */
+  PatternMatcher.Matches find(CharSequence content) {
+    return this.matcher.find(content);
+  }
+
+  /**
+   * Run every rule on a source.
+   *
+   * @param content the text of the source, as read.
+   * @param outline the declarations of the source.
+   * @param matches the occurrences found by {@link #find(CharSequence)}.
+   * @param edits the edits to make to the source; the edits of the rules are
+   * added to these.
+   * @param fileName the file name of the source.
+   * @param implementation true for an implementation class.
+   * @param messages messages to report once the source is done; may be null.
+   * @return the number of edits the rules made.
+   */
+  int rewrite(CharSequence content, JavaOutline outline,
+          PatternMatcher.Matches matches, Splices edits, String fileName,
+          boolean implementation, List<String> messages) {
+    RuleSite site = new RuleSite(content, outline, matches, edits, fileName,
+            implementation, messages);
+    for (int i = 0; i < this.rules.size(); i++) {
+      site.rule = this.rules.get(i);
+      site.offset = this.offsets[i];
+      site.count = this.counts[i];
+      site.rule.rewrite(site);
+    }
+    return site.edited;
+  }
+
+  /**
+   * A source, as the rules see it.
+   */
+  private static final class RuleSite implements RewriteRule.Site {
+
+    private final CharSequence content;
+    private final JavaOutline outline;
+    private final PatternMatcher.Matches matches;
+    private final Splices edits;
+    private final String fileName;
+    private final boolean implementation;
+    private final List<String> messages;
+    /**
+     * The rule running, the index of its first pattern and the number of its
+     * patterns.
+     */
+    private RewriteRule rule;
+    private int offset;
+    private int count;
+    /**
+     * Number of edits made.
+     */
+    private int edited;
+
+    RuleSite(CharSequence content, JavaOutline outline,
+            PatternMatcher.Matches matches, Splices edits, String fileName,
+            boolean implementation, List<String> messages) {
+      this.content = content;
+      this.outline = outline;
+      this.matches = matches;
+      this.edits = edits;
+      this.fileName = fileName;
+      this.implementation = implementation;
+      this.messages = messages;
+    }
+
+    public String getFileName() {
+      return this.fileName;
+    }
+
+    public boolean isImplementation() {
+      return this.implementation;
+    }
+
+    public CharSequence getContent() {
+      return this.content;
+    }
+
+    public int[] find(int pattern) {
+      if (pattern < 0 || pattern >= this.count) {
+        throw new IndexOutOfBoundsException("Rule " + this.rule.getName()
+                + " has no pattern " + pattern);
+      }
+      return this.matches.nonOverlapping(this.offset + pattern);
+    }
+
+    public boolean isCode(int position) {
+      return this.outline.isCode(position);
+    }
+
+    public boolean insert(int position, String text) {
+      return this.replace(position, 0, text);
+    }
+
+    public boolean replace(int position, int length, String text) {
+      if (position < 0 || length < 0 || position + length > this.content.length()) {
+        throw new IndexOutOfBoundsException("Rule " + this.rule.getName()
+                + " edits outside the source: " + position + ", " + length);
+      }
+      if (this.edits.overlaps(position, length)) {
+        if (this.messages != null) {
+          this.messages.add("Rule " + this.rule.getName() + " left out an edit"
+                  + " at line " + this.line(position) + " of " + this.fileName
+                  + " overlapping another.");
+        }
+        return false;
+      }
+      this.edits.replace(position, length, text);
+      this.edited++;
+      return true;
+    }
+
+    /**
+     * @return the line of a position, counting from 1.
+     */
+    private int line(int position) {
+      int line = 1;
+      for (int i = 0; i < position; i++) {
+        if (this.content.charAt(i) == '\n') {
+          line++;
+        }
+      }
+      return line;
+    }
+  }
+}
@@ -0,0 +1,213 @@
+package org.meh.java2wsdl;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The console output of a run. The messages of each file are only printed
+ * when verbose, and then by a thread of their own: the run hands the
+ * messages of a file over in one batch, and goes on while the batches
+ * queued up are printed together, so a slow console does not hold up the
+ * run. The queue is bounded; once full, the run waits for it to drain rather
+ * than dropping messages.
+ *
+ * By default only a summary of the run is printed; quiet prints nothing but
+ * errors, which are not printed through the log.
+ */
+final class RunLog {
+
+  /**
+   * How much is printed.
+   */
+  enum Level {
+
+    /**
+     * Nothing.
+     */
+    QUIET,
+    /**
+     * A summary of each run.
+     */
+    SUMMARY,
+    /**
+     * The messages of each file as well.
+     */
+    VERBOSE;
+
+    /**
+     * Get a level by name, in any case.
+     *
+     * @param name quiet, summary or verbose.
+     * @return the level.
+     * @throws IllegalArgumentException if there is no such level.
+     */
+    static Level forName(String name) {
+      return valueOf(name.toUpperCase(Locale.ENGLISH));
+    }
+  }
+  /**
+   * Number of batches queued up before the run waits for them to be printed.
+   */
+  static final int CAPACITY = 1024;
+  /**
+   * Ends the queue.
+   */
+  private static final List<String> END = new ArrayList<String>(0);
+  /**
+   * Where messages are printed.
+   */
+  private final PrintStream out;
+  /**
+   * How much is printed.
+   */
+  private final Level level;
+  /**
+   * Batches of messages waiting to be printed; null unless verbose.
+   */
+  private final BlockingQueue<List<String>> queue;
+  /**
+   * Prints the queued batches; null unless verbose.
+   */
+  private final Thread printer;
+
+  /**
+   * Create a new log.
+   *
+   * @param out where messages are printed.
+   * @param level how much is printed.
+   */
+  RunLog(PrintStream out, Level level) {
+    this.out = out;
+    this.level = level;
+    if (level == Level.VERBOSE) {
+      this.queue = new ArrayBlockingQueue<List<String>>(CAPACITY);
+      this.printer = new Thread(new Printer(), "java2wsdl-log");
+      this.printer.setDaemon(true);
+      this.printer.start();
+    } else {
+      this.queue = null;
+      this.printer = null;
+    }
+  }
+
+  /**
+   * @return true if the messages of each file are printed.
+   */
+  boolean isVerbose() {
+    return this.level == Level.VERBOSE;
+  }
+
+  /**
+   * Print the messages of a file, if verbose; batches are printed in the
+   * order they are given.
+   *
+   * @param messages the messages, which are not changed afterwards.
+   */
+  void file(List<String> messages) {
+    if (this.queue != null && !messages.isEmpty()) {
+      this.enqueue(messages);
+    }
+  }
+
+  /**
+   * Print a summary line, unless quiet; it follows any messages given
+   * before it.
+   *
+   * @param line the line.
+   */
+  void summary(String line) {
+    if (this.level == Level.QUIET) {
+      return;
+    }
+    if (this.queue != null) {
+      List<String> batch = new ArrayList<String>(1);
+      batch.add(line);
+      this.enqueue(batch);
+    } else {
+      this.out.println(line);
+    }
+  }
+
+  /**
+   * Wait for every message given to be printed, and stop printing; the log
+   * is not used afterwards.
+   */
+  void close() {
+    if (this.printer == null) {
+      this.out.flush();
+      return;
+    }
+    this.enqueue(END);
+    boolean interrupted = false;
+    while (this.printer.isAlive()) {
+      try {
+        this.printer.join();
+      } catch (InterruptedException ex) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Queue a batch, waiting for room if need be.
+   */
+  private void enqueue(List<String> batch) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        this.queue.put(batch);
+        break;
+      } catch (InterruptedException ex) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Prints the batches queued up, as many as are waiting at a time.
+   */
+  private class Printer implements Runnable {
+
+    public void run() {
+      List<List<String>> batches = new ArrayList<List<String>>();
+      StringBuilder text = new StringBuilder(8192);
+      String separator = System.getProperty("line.separator");
+      while (true) {
+        try {
+          batches.add(queue.take());
+        } catch (InterruptedException ex) {
+          // only close() ends the printer:
+          continue;
+        }
+        queue.drainTo(batches);
+        boolean end = false;
+        for (List<String> batch : batches) {
+          if (batch == END) {
+            end = true;
+            break;
+          }
+          for (String message : batch) {
+            text.append(message).append(separator);
+          }
+        }
+        out.print(text);
+        out.flush();
+        text.setLength(0);
+        batches.clear();
+        if (end) {
+          return;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,201 @@
+package org.meh.java2wsdl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Time spent in each stage of a run, and counts of what the run did, kept so
+ * that the throughput of the annotator can be followed from build to build.
+ *
+ * Stage times are summed over the threads of the run, so with several
+ * threads they may add up to more than the run took; the time spent writing
+ * adapters is counted both as writing and as generating adapters.
+ *
+ * Stats may be added to from several threads at once.
+ */
+final class RunStats {
+
+  /**
+   * The stages of a run.
+   */
+  enum Stage {
+
+    /**
+     * Reading files.
+     */
+    READ("read"),
+    /**
+     * Outlining sources and finding what to change in them.
+     */
+    MATCH("match"),
+    /**
+     * Applying the changes to sources in memory.
+     */
+    REWRITE("rewrite"),
+    /**
+     * Writing files.
+     */
+    WRITE("write"),
+    /**
+     * Rendering and writing adapters, once the sources are done.
+     */
+    ADAPTERS("adapters");
+
+    private final String key;
+
+    Stage(String key) {
+      this.key = key;
+    }
+  }
+
+  /**
+   * What a run counts.
+   */
+  enum Counter {
+
+    /**
+     * Sources written because they were changed.
+     */
+    FILES_TOUCHED("filesTouched"),
+    /**
+     * Sources read but with nothing to change.
+     */
+    FILES_UNCHANGED("filesUnchanged"),
+    /**
+     * Sources left alone without annotating them: not interfaces, or
+     * unchanged since the last incremental run.
+     */
+    FILES_SKIPPED("filesSkipped"),
+    /**
+     * Bytes read from files.
+     */
+    BYTES_READ("bytesRead"),
+    /**
+     * Bytes written to files.
+     */
+    BYTES_WRITTEN("bytesWritten"),
+    /**
+     * Enums given (or renumbered in) an XmlType name.
+     */
+    ENUMS_RENUMBERED("enumsRenumbered"),
+    /**
+     * Sub-interfaces annotated with an adapter.
+     */
+    SUB_INTERFACES_ADAPTED("subInterfacesAdapted"),
+    /**
+     * Edits made by rewrite rules.
+     */
+    RULE_EDITS("ruleEdits"),
+    /**
+     * Adapter files written.
+     */
+    ADAPTERS_WRITTEN("adaptersWritten"),
+    /**
+     * Adapter files left alone because they already held what would have
+     * been written.
+     */
+    ADAPTERS_UNCHANGED("adaptersUnchanged"),
+    /**
+     * Adapters not created because an adapter of the same name binding
+     * other types was created first.
+     */
+    ADAPTER_COLLISIONS("adapterCollisions");
+
+    private final String key;
+
+    Counter(String key) {
+      this.key = key;
+    }
+  }
+  /**
+   * Nanoseconds spent in each stage, by ordinal.
+   */
+  private final AtomicLongArray stages = new AtomicLongArray(Stage.values().length);
+  /**
+   * Counts, by ordinal.
+   */
+  private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+  /**
+   * When the run started.
+   */
+  private final long started = System.nanoTime();
+
+  /**
+   * Start timing a stage.
+   *
+   * @return the time to pass to {@link #stop(Stage, long)}.
+   */
+  long start() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Stop timing a stage.
+   *
+   * @param stage the stage.
+   * @param start the time the stage started, as returned by
+   * {@link #start()}.
+   */
+  void stop(Stage stage, long start) {
+    this.stages.addAndGet(stage.ordinal(), System.nanoTime() - start);
+  }
+
+  /**
+   * Add to a count.
+   *
+   * @param counter the count.
+   * @param amount the amount to add.
+   */
+  void add(Counter counter, long amount) {
+    if (amount != 0) {
+      this.counters.addAndGet(counter.ordinal(), amount);
+    }
+  }
+
+  /**
+   * @param stage the stage.
+   * @return the nanoseconds spent in the stage so far.
+   */
+  long get(Stage stage) {
+    return this.stages.get(stage.ordinal());
+  }
+
+  /**
+   * @param counter the count.
+   * @return the count so far.
+   */
+  long get(Counter counter) {
+    return this.counters.get(counter.ordinal());
+  }
+
+  /**
+   * @return the nanoseconds since the run started.
+   */
+  long getElapsed() {
+    return System.nanoTime() - this.started;
+  }
+
+  /**
+   * Report the stats as a JSON object.
+   *
+   * @param threads the number of threads of the run.
+   * @return the report, ending with a line break.
+   */
+  String toJson(int threads) {
+    StringBuilder json = new StringBuilder(512);
+    json.append("{\n  \"elapsedNanos\": ").append(this.getElapsed())
+            .append(",\n  \"threads\": ").append(threads)
+            .append(",\n  \"stageNanos\": {");
+    Stage[] stageValues = Stage.values();
+    for (int i = 0; i < stageValues.length; i++) {
+      json.append(i == 0 ? "\n" : ",\n").append("    \"")
+              .append(stageValues[i].key).append("\": ").append(this.get(stageValues[i]));
+    }
+    json.append("\n  },\n  \"counters\": {");
+    Counter[] counterValues = Counter.values();
+    for (int i = 0; i < counterValues.length; i++) {
+      json.append(i == 0 ? "\n" : ",\n").append("    \"")
+              .append(counterValues[i].key).append("\": ").append(this.get(counterValues[i]));
+    }
+    return json.append("\n  }\n}\n").toString();
+  }
+}
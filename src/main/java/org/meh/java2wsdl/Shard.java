@@ -0,0 +1,295 @@
+package org.meh.java2wsdl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * One of several runs annotating a disjoint slice of the same sources, so
+ * that the sources can be annotated by several processes, or machines, at
+ * once.
+ *
+ * Each interface belongs to a shard by a hash of its qualified name, and
+ * each implementation to the shard of the interface it implements, so an
+ * interface and its implementation are always annotated by the same shard;
+ * the hash only depends on the name, so every shard (and every run) agrees
+ * on it. Every shard still indexes every implementation, to pair
+ * interfaces the way a single run does.
+ *
+ * Sources are annotated in place. The adapters a shard creates, and its
+ * manifest, are left in a directory of its own instead, under
+ * {@value #DIR_NAME} in the base directory, for a merge to write once every
+ * shard is done; adapters of the same name created by different shards are
+ * only written once, and those binding different types are reported, the
+ * first shard's kept.
+ */
+final class Shard {
+
+  /**
+   * Name of the directory the shards are left in, kept in the base
+   * directory.
+   */
+  static final String DIR_NAME = ".java2wsdl.shards";
+  /**
+   * Name of the adapters of a shard, in its directory; written once the
+   * shard is done.
+   */
+  private static final String ADAPTERS_NAME = "adapters";
+  /**
+   * Starts the first line of the adapters, followed by the shard and
+   * whether the shard left a manifest.
+   */
+  private static final String HEADER = "shard ";
+  /**
+   * Ends the first line of the adapters of a shard that left a manifest.
+   */
+  private static final String WITH_MANIFEST = " manifest";
+  /**
+   * Encoding of the adapters.
+   */
+  private static final Charset ADAPTERS_CHARSET = Charset.forName("UTF-8");
+  /**
+   * The number of the shard, from 1.
+   */
+  private final int number;
+  /**
+   * The number of shards.
+   */
+  private final int count;
+
+  /**
+   * Create a new shard.
+   *
+   * @param number the number of the shard, from 1.
+   * @param count the number of shards.
+   */
+  Shard(int number, int count) {
+    if (count < 1 || number < 1 || number > count) {
+      throw new IllegalArgumentException("There is no shard " + number
+              + " of " + count + ".");
+    }
+    this.number = number;
+    this.count = count;
+  }
+
+  /**
+   * Get a shard from its name, like 2/4 for the second of four shards.
+   *
+   * @param name the name of the shard.
+   * @return the shard.
+   */
+  static Shard forName(String name) {
+    int slash = name.indexOf('/');
+    try {
+      if (slash > 0) {
+        return new Shard(Integer.parseInt(name.substring(0, slash).trim()),
+                Integer.parseInt(name.substring(slash + 1).trim()));
+      }
+    } catch (NumberFormatException ex) {
+      // reported below
+    }
+    throw new IllegalArgumentException("A shard is given as i/N, like 2/4"
+            + " for the second of four shards, not " + name + ".");
+  }
+
+  /**
+   * Determine if a source belongs to this shard.
+   *
+   * @param name the qualified name of the interface of the source, or of
+   * the source itself if it has none.
+   * @return true if the source is annotated by this shard.
+   */
+  boolean owns(String name) {
+    CRC32 crc = new CRC32();
+    crc.update(name.getBytes(ADAPTERS_CHARSET));
+    return crc.getValue() % this.count == this.number - 1;
+  }
+
+  /**
+   * Get the directory the shard is left in.
+   *
+   * @param base the base directory.
+   * @return the directory.
+   */
+  File getDir(File base) {
+    return new File(new File(base, DIR_NAME), this.number + "-of-" + this.count);
+  }
+
+  /**
+   * Make ready to run the shard: create its directory, and remove the
+   * adapters a previous run of it left, so that the shard is not merged
+   * until it is done.
+   *
+   * @param base the base directory.
+   * @throws IOException if the directory could not be created, or the
+   * adapters removed.
+   */
+  void begin(File base) throws IOException {
+    File dir = this.getDir(base);
+    Files.createDirectories(dir.toPath());
+    Files.deleteIfExists(new File(dir, ADAPTERS_NAME).toPath());
+  }
+
+  /**
+   * Leave the adapters the shard created, once it is done.
+   *
+   * @param base the base directory.
+   * @param adapters the adapters, by the file of each, were it written on
+   * its own.
+   * @param manifest true if the shard saved its manifest in its directory.
+   * @param io writes the adapters (staging them, in a transaction).
+   * @throws IOException if the adapters could not be written.
+   */
+  void save(File base, Map<File, AdapterEmitter.Adapter> adapters,
+          boolean manifest, SourceIO io) throws IOException {
+    StringBuilder content = new StringBuilder();
+    content.append(HEADER).append(this.number).append('/').append(this.count);
+    if (manifest) {
+      content.append(WITH_MANIFEST);
+    }
+    content.append('\n');
+    String prefix = base.getAbsolutePath() + File.separator;
+    for (Map.Entry<File, AdapterEmitter.Adapter> adapter : adapters.entrySet()) {
+      String path = adapter.getKey().getAbsolutePath();
+      if (path.startsWith(prefix)) {
+        path = path.substring(prefix.length());
+      }
+      content.append(path).append('\t').append(adapter.getValue().encode())
+              .append('\n');
+    }
+    io.save(new File(this.getDir(base), ADAPTERS_NAME),
+            content.toString().getBytes(ADAPTERS_CHARSET));
+  }
+
+  /**
+   * Read what every shard left, checking that every shard of the run is
+   * done.
+   *
+   * @param base the base directory.
+   * @return what each shard left, in the order of the shards.
+   * @throws IOException if a shard is not done, shards of different runs
+   * were left, or what they left could not be read.
+   */
+  static List<Output> load(File base) throws IOException {
+    File[] dirs = new File(base, DIR_NAME).listFiles();
+    if (dirs == null || dirs.length == 0) {
+      throw new IOException("No shards were left in " + DIR_NAME + ".");
+    }
+    Map<Integer, Output> outputs = new TreeMap<Integer, Output>();
+    int count = -1;
+    for (File dir : dirs) {
+      File file = new File(dir, ADAPTERS_NAME);
+      if (!file.isFile()) {
+        throw new IOException("Shard " + dir.getName() + " is not done;"
+                + " nothing was merged.");
+      }
+      List<String> lines = Files.readAllLines(file.toPath(), ADAPTERS_CHARSET);
+      String header = lines.isEmpty() ? "" : lines.get(0);
+      if (!header.startsWith(HEADER)) {
+        throw new IOException(file + " was not left by a shard.");
+      }
+      boolean manifest = header.endsWith(WITH_MANIFEST);
+      Shard shard = forName(header.substring(HEADER.length(),
+              header.length() - (manifest ? WITH_MANIFEST.length() : 0)));
+      if (count > -1 && shard.count != count) {
+        throw new IOException("Shards of " + count + " and of " + shard.count
+                + " were left; nothing was merged.");
+      }
+      count = shard.count;
+      Map<File, AdapterEmitter.Adapter> adapters = new LinkedHashMap<File, AdapterEmitter.Adapter>();
+      for (String line : lines.subList(1, lines.size())) {
+        int tab = line.indexOf('\t');
+        if (tab < 0) {
+          throw new IOException(file + " was not left by a shard.");
+        }
+        File adapter = new File(line.substring(0, tab));
+        adapters.put(adapter.isAbsolute() ? adapter : new File(base,
+                adapter.getPath()), AdapterEmitter.Adapter.decode(
+                line.substring(tab + 1)));
+      }
+      outputs.put(Integer.valueOf(shard.number), new Output(shard, adapters,
+              manifest ? new File(dir, Manifest.DEFAULT_FILE_NAME) : null));
+    }
+    for (int number = 1; number <= count; number++) {
+      if (!outputs.containsKey(Integer.valueOf(number))) {
+        throw new IOException("Shard " + number + " of " + count
+                + " was not run; nothing was merged.");
+      }
+    }
+    return new ArrayList<Output>(outputs.values());
+  }
+
+  /**
+   * Remove what the shards left, once merged.
+   *
+   * @param base the base directory.
+   * @throws IOException if a shard could not be removed.
+   */
+  static void delete(File base) throws IOException {
+    File[] dirs = new File(base, DIR_NAME).listFiles();
+    if (dirs != null) {
+      for (File dir : dirs) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+          for (File file : files) {
+            Files.deleteIfExists(file.toPath());
+          }
+        }
+        Files.deleteIfExists(dir.toPath());
+      }
+    }
+    Files.deleteIfExists(new File(base, DIR_NAME).toPath());
+  }
+
+  @Override
+  public String toString() {
+    return "shard " + this.number + " of " + this.count;
+  }
+
+  /**
+   * What a shard left.
+   */
+  static final class Output {
+
+    private final Shard shard;
+    private final Map<File, AdapterEmitter.Adapter> adapters;
+    private final File manifest;
+
+    Output(Shard shard, Map<File, AdapterEmitter.Adapter> adapters,
+            File manifest) {
+      this.shard = shard;
+      this.adapters = adapters;
+      this.manifest = manifest;
+    }
+
+    /**
+     * @return the shard.
+     */
+    Shard getShard() {
+      return this.shard;
+    }
+
+    /**
+     * @return the adapters the shard created, by the file of each, were it
+     * written on its own.
+     */
+    Map<File, AdapterEmitter.Adapter> getAdapters() {
+      return this.adapters;
+    }
+
+    /**
+     * @return the index file of the manifest of the shard; null if it left
+     * none.
+     */
+    File getManifest() {
+      return this.manifest;
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package org.meh.java2wsdl;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A source file loaded once into memory. Rewrite stages work on the text
+ * returned by {@link #getContent()}; the file is written back exactly once by
+ * {@link #commit()}, and only if the content actually changed. The content
+ * read is never copied: edits are kept as a piece table over it.
+ */
+class SourceFile {
+
+  /**
+   * The file the content was read from and is written back to.
+   */
+  private final File file;
+  /**
+   * Reads and writes the file.
+   */
+  private final SourceIO io;
+  /**
+   * The content as it was read from disk.
+   */
+  private final CharSequence original;
+  /**
+   * The (possibly rewritten) content.
+   */
+  private CharSequence content;
+
+  /**
+   * Create a new source file from data already read.
+   *
+   * @param file the file the data belongs to.
+   * @param io reads and writes the file.
+   * @param original the data read from the file.
+   */
+  SourceFile(File file, SourceIO io, CharSequence original) {
+    this.file = file;
+    this.io = io;
+    this.original = original;
+    this.content = original;
+  }
+
+  /**
+   * Read the entire file in to memory.
+   *
+   * @param file the file to read.
+   * @param io reads and writes the file.
+   * @return the loaded source.
+   * @throws IOException if the file could not be read or does not exist.
+   */
+  static SourceFile read(File file, SourceIO io) throws IOException {
+    return new SourceFile(file, io, io.read(file));
+  }
+
+  /**
+   * @return the file this source was read from.
+   */
+  File getFile() {
+    return this.file;
+  }
+
+  /**
+   * @return the current content of the source.
+   */
+  CharSequence getContent() {
+    return this.content;
+  }
+
+  /**
+   * Replace the current content of the source.
+   *
+   * @param content the non-null new content, which must not change
+   * afterwards.
+   */
+  void setContent(CharSequence content) {
+    this.content = content;
+  }
+
+  /**
+   * @return true if the content differs from what was read from disk.
+   */
+  boolean isModified() {
+    if (this.content == this.original) {
+      return false;
+    }
+    if (this.content instanceof PieceTable) {
+      return !((PieceTable) this.content).isUnchanged();
+    }
+    if (this.original.length() != this.content.length()) {
+      return true;
+    }
+    for (int i = 0; i < this.content.length(); i++) {
+      if (this.original.charAt(i) != this.content.charAt(i)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Write the content back to the file if, and only if, it was modified.
+   *
+   * @return true if the file was written.
+   * @throws IOException if the file could not be written.
+   */
+  boolean commit() throws IOException {
+    if (!this.isModified()) {
+      return false;
+    }
+    this.io.write(this.file, this.content);
+    return true;
+  }
+}
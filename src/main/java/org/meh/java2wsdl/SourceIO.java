@@ -0,0 +1,444 @@
+package org.meh.java2wsdl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads and writes sources in a given encoding. Files are read whole with
+ * bulk channel reads (or, with bounded memory, large files through a window
+ * instead), and written to a temporary file alongside the target that then
+ * replaces it, so an interrupted run never leaves a half-written file. In a
+ * transaction, files are staged in a journal instead, and read back from it.
+ */
+final class SourceIO {
+
+  /**
+   * Files of this size (in bytes) or larger are read through a window, with
+   * bounded memory.
+   */
+  static final long WINDOW_THRESHOLD = 1 << 20;
+  /**
+   * Suffix of the temporary files written before they replace their target.
+   */
+  static final String TEMP_SUFFIX = ".tmp";
+  /**
+   * Distinguishes the temporary files of concurrent writes.
+   */
+  private static final AtomicLong TEMP_COUNTER = new AtomicLong();
+  /**
+   * Encoding of the sources.
+   */
+  private final Charset charset;
+  /**
+   * Counts the time spent reading and writing, and the bytes read and
+   * written; may be null.
+   */
+  private final RunStats stats;
+  /**
+   * Collects what would be written instead of writing it; null to write.
+   */
+  private final DryRun dryRun;
+  /**
+   * Stages what is written instead of writing it; null to write.
+   */
+  private final Journal journal;
+  /**
+   * Read large files through a window?
+   */
+  private final boolean boundedMemory;
+
+  /**
+   * Create a new source reader/writer.
+   *
+   * @param charset encoding of the sources.
+   */
+  SourceIO(Charset charset) {
+    this(charset, null);
+  }
+
+  /**
+   * Create a new source reader/writer that keeps stats.
+   *
+   * @param charset encoding of the sources.
+   * @param stats counts the time spent reading and writing, and the bytes
+   * read and written; may be null.
+   */
+  SourceIO(Charset charset, RunStats stats) {
+    this(charset, stats, null);
+  }
+
+  /**
+   * Create a new source reader that keeps stats, and may only plan what it
+   * would write.
+   *
+   * @param charset encoding of the sources.
+   * @param stats counts the time spent reading and writing, and the bytes
+   * read and written; may be null.
+   * @param dryRun collects what would be written instead of writing it; null
+   * to write.
+   */
+  SourceIO(Charset charset, RunStats stats, DryRun dryRun) {
+    this(charset, stats, dryRun, null);
+  }
+
+  /**
+   * Create a new source reader that keeps stats, and may only plan what it
+   * would write, or stage it in a journal.
+   *
+   * @param charset encoding of the sources.
+   * @param stats counts the time spent reading and writing, and the bytes
+   * read and written; may be null.
+   * @param dryRun collects what would be written instead of writing it; null
+   * to write.
+   * @param journal stages what is written, to be committed once the run is
+   * done; null to write in place.
+   */
+  SourceIO(Charset charset, RunStats stats, DryRun dryRun, Journal journal) {
+    this(charset, stats, dryRun, journal, false);
+  }
+
+  /**
+   * Create a new source reader that keeps stats, and may only plan what it
+   * would write, or stage it in a journal, and may keep large files out of
+   * the heap.
+   *
+   * @param charset encoding of the sources.
+   * @param stats counts the time spent reading and writing, and the bytes
+   * read and written; may be null.
+   * @param dryRun collects what would be written instead of writing it; null
+   * to write.
+   * @param journal stages what is written, to be committed once the run is
+   * done; null to write in place.
+   * @param boundedMemory true to read files of {@value #WINDOW_THRESHOLD}
+   * bytes or more through a window, rather than decoding them in to the heap.
+   * @throws IllegalArgumentException if the encoding cannot be read through a
+   * window.
+   */
+  SourceIO(Charset charset, RunStats stats, DryRun dryRun, Journal journal,
+          boolean boundedMemory) {
+    if (boundedMemory && !WindowedText.canRead(charset)) {
+      throw new IllegalArgumentException("Sources in " + charset.name()
+              + " cannot be read in bounded memory; only single byte encodings,"
+              + " UTF-8, and UTF-16 and UTF-32 of a given byte order can.");
+    }
+    this.charset = charset;
+    this.stats = stats;
+    this.dryRun = dryRun;
+    this.journal = journal;
+    this.boundedMemory = boundedMemory;
+  }
+
+  /**
+   * @return the encoding of the sources.
+   */
+  Charset getCharset() {
+    return this.charset;
+  }
+
+  /**
+   * @return true if large files are read through a window.
+   */
+  boolean isBoundedMemory() {
+    return this.boundedMemory;
+  }
+
+  /**
+   * Find where the content of a file is: staged in the journal, if it was
+   * written in this transaction, or the file itself.
+   *
+   * @param file the file.
+   * @return the file holding its content.
+   */
+  File locate(File file) {
+    File staged = this.journal == null ? null : this.journal.getStaged(file);
+    return staged == null ? file : staged;
+  }
+
+  /**
+   * Read a whole file; the bytes read and the chars decoded go through the
+   * buffers of the calling thread, so only the string returned is allocated.
+   * With bounded memory, large files are read through a window instead, and
+   * only the window and an index of the file are allocated; the file must
+   * not be read again once it is written.
+   *
+   * @param file the file to read.
+   * @return the content of the file.
+   * @throws IOException if the file could not be read, does not exist, or is
+   * too large to read.
+   */
+  CharSequence read(File file) throws IOException {
+    long start = this.stats == null ? 0 : this.stats.start();
+    Path path = this.locate(file).toPath();
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      long size = channel.size();
+      CharSequence content;
+      if (this.boundedMemory && size >= WINDOW_THRESHOLD) {
+        channel.close();
+        content = WindowedText.open(path, this.charset);
+      } else {
+        if (size > Integer.MAX_VALUE - 8) {
+          throw new IOException(file + " is too large to read in to the heap;"
+                  + " read it with bounded memory.");
+        }
+        Buffers buffers = Buffers.get();
+        ByteBuffer bytes = buffers.bytes((int) size);
+        bytes.limit((int) size);
+        while (bytes.hasRemaining() && channel.read(bytes) > -1) {
+          // keep reading until the buffer is full
+        }
+        bytes.flip();
+        content = decode(bytes, this.charset, buffers);
+      }
+      if (this.stats != null) {
+        this.stats.add(RunStats.Counter.BYTES_READ, size);
+      }
+      return content;
+    } finally {
+      channel.close();
+      if (this.stats != null) {
+        this.stats.stop(RunStats.Stage.READ, start);
+      }
+    }
+  }
+
+  /**
+   * Write a file atomically; on a dry run, only plan writing it, and in a
+   * transaction, stage it.
+   *
+   * @param file the file to write to.
+   * @param content the content to write to the file.
+   * @throws IOException if the file could not be written.
+   */
+  void write(File file, CharSequence content) throws IOException {
+    if (this.dryRun != null) {
+      this.dryRun.plan(file, content, this);
+      return;
+    }
+    long start = this.stats == null ? 0 : this.stats.start();
+    long written;
+    if (this.journal != null) {
+      written = this.journal.stage(file, content, this.charset);
+    } else {
+      Path target = file.toPath().toAbsolutePath();
+      Path temp = temporary(target);
+      try {
+        FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE);
+        try {
+          written = encode(content, this.charset, out);
+        } finally {
+          out.close();
+        }
+        replace(temp, target);
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    }
+    if (this.stats != null) {
+      this.stats.add(RunStats.Counter.BYTES_WRITTEN, written);
+      this.stats.stop(RunStats.Stage.WRITE, start);
+    }
+  }
+
+  /**
+   * Write a file other than a source (like an index) atomically, or, in a
+   * transaction, stage it along with the sources.
+   *
+   * @param file the file to write to.
+   * @param data the data to write to the file.
+   * @throws IOException if the file could not be written.
+   */
+  void save(File file, byte[] data) throws IOException {
+    if (this.journal != null) {
+      this.journal.stage(file, data);
+    } else {
+      write(file, data);
+    }
+  }
+
+  /**
+   * Decode bytes through the char buffer of the calling thread.
+   *
+   * @param bytes the bytes to decode, from their position to their limit.
+   * @param charset the encoding of the bytes.
+   * @param buffers the buffers of the calling thread.
+   * @return the text.
+   * @throws IOException if the bytes could not be decoded.
+   */
+  private static String decode(ByteBuffer bytes, Charset charset,
+          Buffers buffers) throws IOException {
+    CharsetDecoder decoder = buffers.decoder(charset);
+    CharBuffer chars = buffers.chars((int) Math.min(Integer.MAX_VALUE - 8,
+            (long) (bytes.remaining() * (double) decoder.maxCharsPerByte()) + 1));
+    CoderResult result = decoder.decode(bytes, chars, true);
+    if (result.isUnderflow()) {
+      result = decoder.flush(chars);
+    }
+    if (!result.isUnderflow()) {
+      // cannot overflow, since the buffer holds the most chars there can be:
+      result.throwException();
+    }
+    return new String(chars.array(), 0, chars.position());
+  }
+
+  /**
+   * Encode text and write it to a channel a chunk at a time, through the
+   * chunk buffer of the calling thread. The pieces of a piece table are
+   * encoded one after the other, without joining them first.
+   *
+   * @param content the text.
+   * @param charset the encoding to write the text in.
+   * @param out where the encoded text is written.
+   * @return the number of bytes written.
+   * @throws IOException if the text could not be written.
+   */
+  static long encode(CharSequence content, Charset charset,
+          WritableByteChannel out) throws IOException {
+    Buffers buffers = Buffers.get();
+    CharsetEncoder encoder = buffers.encoder(charset);
+    ByteBuffer chunk = buffers.chunk();
+    CharBuffer carry = buffers.carry();
+    long written = 0;
+    int pieces = content instanceof PieceTable
+            ? ((PieceTable) content).getPieceCount() : 1;
+    for (int i = 0; i < pieces; i++) {
+      CharBuffer piece = content instanceof PieceTable
+              ? ((PieceTable) content).getPiece(i) : CharBuffer.wrap(content);
+      // a surrogate pair may be split between two pieces:
+      while (carry.position() > 0 && piece.hasRemaining()) {
+        carry.put(piece.get());
+        carry.flip();
+        written += encode(encoder, carry, chunk, false, out);
+        carry.compact();
+      }
+      if (carry.position() == 0) {
+        written += encode(encoder, piece, chunk, false, out);
+        if (piece.hasRemaining()) {
+          carry.put(piece);
+        }
+      }
+    }
+    carry.flip();
+    written += encode(encoder, carry, chunk, true, out);
+    CoderResult result;
+    while ((result = encoder.flush(chunk)).isOverflow()) {
+      written += drain(chunk, out);
+    }
+    if (!result.isUnderflow()) {
+      result.throwException();
+    }
+    return written + drain(chunk, out);
+  }
+
+  /**
+   * Encode as much of some text as can be, writing the chunk out each time it
+   * fills up.
+   */
+  private static long encode(CharsetEncoder encoder, CharBuffer text,
+          ByteBuffer chunk, boolean endOfInput, WritableByteChannel out)
+          throws IOException {
+    long written = 0;
+    while (true) {
+      CoderResult result = encoder.encode(text, chunk, endOfInput);
+      if (result.isUnderflow()) {
+        return written;
+      }
+      if (!result.isOverflow()) {
+        result.throwException();
+      }
+      written += drain(chunk, out);
+    }
+  }
+
+  /**
+   * Write out, and clear, what a chunk holds.
+   */
+  private static int drain(ByteBuffer chunk, WritableByteChannel out)
+          throws IOException {
+    chunk.flip();
+    int size = chunk.remaining();
+    while (chunk.hasRemaining()) {
+      out.write(chunk);
+    }
+    chunk.clear();
+    return size;
+  }
+
+  /**
+   * Write a file atomically: the data is written to a temporary file in the
+   * same directory, which then replaces the file. The temporary file is not
+   * forced to disk, so this guards against the run being interrupted, not
+   * against the machine going down.
+   *
+   * @param file the file to write to.
+   * @param data the data to write to the file.
+   * @throws IOException if the file could not be written.
+   */
+  static void write(File file, byte[] data) throws IOException {
+    Path target = file.toPath().toAbsolutePath();
+    Path temp = temporary(target);
+    try {
+      OutputStream out = Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW,
+              StandardOpenOption.WRITE);
+      try {
+        out.write(data);
+      } finally {
+        out.close();
+      }
+      replace(temp, target);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Name a temporary file to write the new content of a file to.
+   *
+   * @param target the file.
+   * @return a file in the same directory, that does not exist yet.
+   */
+  static Path temporary(Path target) {
+    return target.resolveSibling("." + target.getFileName() + "."
+            + Long.toHexString(System.nanoTime()) + "-"
+            + TEMP_COUNTER.incrementAndGet() + TEMP_SUFFIX);
+  }
+
+  /**
+   * Replace a file with a temporary file, keeping its permissions.
+   *
+   * @param temp the temporary file, in the same directory as the file.
+   * @param target the file.
+   * @throws IOException if the file could not be replaced.
+   */
+  static void replace(Path temp, Path target) throws IOException {
+    PosixFileAttributeView posix = Files.getFileAttributeView(target,
+            PosixFileAttributeView.class);
+    if (posix != null && Files.exists(target)) {
+      // keep the permissions of the file being replaced:
+      Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+    }
+    try {
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+              StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException ex) {
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package org.meh.java2wsdl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A template of generated source, with ${name} placeholders. The template is
+ * split in to its literal text and placeholders once, when it is created, and
+ * then rendered straight in to a caller supplied buffer, so the same buffer
+ * can take any number of renderings without intermediate strings.
+ *
+ * Templates are immutable and may be shared between threads.
+ */
+final class SourceTemplate {
+
+  /**
+   * Literal text; literals[i] comes before the i-th placeholder, and the last
+   * literal after the last placeholder.
+   */
+  private final String[] literals;
+  /**
+   * For each placeholder, the index of the value it is replaced with.
+   */
+  private final int[] placeholders;
+  /**
+   * Number of values the template is rendered with.
+   */
+  private final int valueCount;
+  /**
+   * Total length of the literal text.
+   */
+  private final int literalLength;
+
+  /**
+   * Compile a template.
+   *
+   * @param template the template text.
+   * @param names names of the placeholders, in the order their values are
+   * given to {@link #render(StringBuilder, String...)}.
+   * @throws IllegalArgumentException if the template refers to a placeholder
+   * that is not named, or a placeholder is not closed.
+   */
+  SourceTemplate(String template, String... names) {
+    List<String> nameList = Arrays.asList(names);
+    List<String> text = new ArrayList<String>();
+    List<Integer> values = new ArrayList<Integer>();
+    int length = 0;
+    int from = 0;
+    int start;
+    while ((start = template.indexOf("${", from)) > -1) {
+      int end = template.indexOf('}', start);
+      if (end < 0) {
+        throw new IllegalArgumentException("Unclosed placeholder at " + start
+                + " in template: " + template);
+      }
+      int value = nameList.indexOf(template.substring(start + 2, end));
+      if (value < 0) {
+        throw new IllegalArgumentException("Unknown placeholder "
+                + template.substring(start, end + 1) + " in template: " + template);
+      }
+      text.add(template.substring(from, start));
+      values.add(value);
+      length += start - from;
+      from = end + 1;
+    }
+    text.add(template.substring(from));
+    length += template.length() - from;
+    this.literals = text.toArray(new String[text.size()]);
+    this.placeholders = new int[values.size()];
+    for (int i = 0; i < this.placeholders.length; i++) {
+      this.placeholders[i] = values.get(i);
+    }
+    this.valueCount = names.length;
+    this.literalLength = length;
+  }
+
+  /**
+   * Render the template.
+   *
+   * @param out the buffer to append the rendering to.
+   * @param values the value of each placeholder, in the order the placeholders
+   * were named when the template was compiled.
+   * @return the buffer.
+   */
+  StringBuilder render(StringBuilder out, String... values) {
+    if (values.length != this.valueCount) {
+      throw new IllegalArgumentException("Expected " + this.valueCount
+              + " values, got " + values.length);
+    }
+    out.ensureCapacity(out.length() + this.literalLength + 16 * this.placeholders.length);
+    for (int i = 0; i < this.placeholders.length; i++) {
+      out.append(this.literals[i]).append(values[this.placeholders[i]]);
+    }
+    return out.append(this.literals[this.placeholders.length]);
+  }
+}
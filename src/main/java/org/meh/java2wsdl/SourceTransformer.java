@@ -0,0 +1,1115 @@
+package org.meh.java2wsdl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Annotates XMLBeans generated sources in memory, for embedding the annotator
+ * in another process (a build daemon, say) that has the sources to hand and
+ * wants the rewritten sources and the XmlAdapter classes they need back,
+ * rather than having them read from and written to disk.
+ *
+ * A transformer holds only its configuration, and so may be shared between
+ * threads and used for any number of sources; each transformation is
+ * independent of every other. Nothing is read or written, and errors are
+ * reported by exceptions rather than by exiting.
+ */
+public final class SourceTransformer {
+
+  /**
+   * XMLBeans interface of simple values, which does not marshal.
+   */
+  private static final String XML_ANY_SIMPLE_TYPE = "org.apache.xmlbeans.XmlAnySimpleType";
+  /**
+   * Interface suffixes, mapped to the names of the sub-interfaces that
+   * contain named sub-interfaces of their own.
+   */
+  private final Map<String, List<String>> subInterfaces;
+  /**
+   * The prefix/suffix of the implementation classes.
+   */
+  private final String extension;
+  /**
+   * Prefix or suffixed class impl name?
+   */
+  private final boolean suffixed;
+  /**
+   * Annotate every nested interface, rather than only those listed in
+   * subInterfaces?
+   */
+  private final boolean detectSubInterfaces;
+  /**
+   * The rewrite rules run on every source, and the settings of the
+   * annotations.
+   */
+  private final RuleSet rules;
+
+  /**
+   * Create a new transformer.
+   *
+   * @param suffix the suffix (or prefix) of implementation class names, like
+   * Impl.
+   * @param suffixed true if the suffix is appended to the interface name,
+   * false if it is prepended.
+   * @param subIfs [InterfaceSuffix]:[class1,...,classN] sub-interface listings
+   * separated by ';'; may be null.
+   */
+  public SourceTransformer(String suffix, boolean suffixed, String subIfs) {
+    this(suffix, suffixed, subIfs, false);
+  }
+
+  /**
+   * Create a new transformer.
+   *
+   * @param suffix the suffix (or prefix) of implementation class names, like
+   * Impl.
+   * @param suffixed true if the suffix is appended to the interface name,
+   * false if it is prepended.
+   * @param subIfs [InterfaceSuffix]:[class1,...,classN] sub-interface listings
+   * separated by ';'; may be null. Not used if detecting sub-interfaces.
+   * @param detectSubInterfaces true to annotate every nested interface, with
+   * an adapter to the class nested the same way in the implementation.
+   */
+  public SourceTransformer(String suffix, boolean suffixed, String subIfs,
+          boolean detectSubInterfaces) {
+    this(suffix, suffixed, subIfs, detectSubInterfaces, RuleSet.defaults());
+  }
+
+  /**
+   * Create a new transformer.
+   *
+   * @param suffix the suffix (or prefix) of implementation class names, like
+   * Impl.
+   * @param suffixed true if the suffix is appended to the interface name,
+   * false if it is prepended.
+   * @param subIfs [InterfaceSuffix]:[class1,...,classN] sub-interface listings
+   * separated by ';'; may be null. Not used if detecting sub-interfaces.
+   * @param detectSubInterfaces true to annotate every nested interface, with
+   * an adapter to the class nested the same way in the implementation.
+   * @param rules the rewrite rules run on every source, and the settings of
+   * the annotations.
+   */
+  public SourceTransformer(String suffix, boolean suffixed, String subIfs,
+          boolean detectSubInterfaces, RuleSet rules) {
+    this.extension = suffix;
+    this.suffixed = suffixed;
+    this.subInterfaces = Collections.unmodifiableMap(parseSubInterfaces(subIfs));
+    this.detectSubInterfaces = detectSubInterfaces;
+    this.rules = rules;
+  }
+
+  /**
+   * Create a copy of a transformer.
+   */
+  private SourceTransformer(SourceTransformer transformer,
+          boolean detectSubInterfaces, RuleSet rules) {
+    this.extension = transformer.extension;
+    this.suffixed = transformer.suffixed;
+    this.subInterfaces = transformer.subInterfaces;
+    this.detectSubInterfaces = detectSubInterfaces;
+    this.rules = rules;
+  }
+
+  /**
+   * Get a transformer like this one that does (or does not) detect the
+   * nested interfaces of interfaces.
+   *
+   * @param detectSubInterfaces true to annotate every nested interface.
+   * @return the transformer.
+   */
+  SourceTransformer detectingSubInterfaces(boolean detectSubInterfaces) {
+    return detectSubInterfaces == this.detectSubInterfaces ? this
+            : new SourceTransformer(this, detectSubInterfaces, this.rules);
+  }
+
+  /**
+   * Get a transformer like this one that runs other rules.
+   *
+   * @param rules the rewrite rules run on every source, and the settings of
+   * the annotations.
+   * @return the transformer.
+   */
+  SourceTransformer withRules(RuleSet rules) {
+    return rules == this.rules ? this
+            : new SourceTransformer(this, this.detectSubInterfaces, rules);
+  }
+
+  /**
+   * Describe what the transformer does to sources: two transformers of the
+   * same description transform sources the same way.
+   *
+   * @return the description.
+   */
+  String describe() {
+    return "suffix " + this.extension + (this.suffixed ? " appended" : " prepended")
+            + "\nsub-interfaces " + (this.detectSubInterfaces ? "detected"
+            : new TreeMap<String, List<String>>(this.subInterfaces).toString())
+            + "\nrules\n" + this.rules.getText();
+  }
+
+  /**
+   * Transform a source.
+   *
+   * @param source the text of the source.
+   * @param context what the source is, and where it lives.
+   * @return the transformed source and the adapters it needs.
+   */
+  public Result transform(CharSequence source, Context context) {
+    File dir = new File(context.getPackageName().replace('.', File.separatorChar));
+    SourceFile sourceFile = new SourceFile(new File(dir, context.getFileName()),
+            null, source.toString());
+    List<String> messages = new ArrayList<String>();
+    Map<String, String> units = new LinkedHashMap<String, String>();
+    if (context.isImplementation()) {
+      this.annotateImplementation(sourceFile, context.getXmlTypePrefix(),
+              messages, null);
+      return new Result(sourceFile, units, messages);
+    }
+    Map<File, AdapterEmitter.Adapter> adapters = new LinkedHashMap<File, AdapterEmitter.Adapter>();
+    try {
+      this.annotateInterface(sourceFile, dir, context.getPackageName(),
+              context.getPackageNameImpl(), null, IN_MEMORY, adapters, messages,
+              null);
+    } catch (IOException ex) {
+      // in memory, adapters are never looked for on disk:
+      throw new IllegalStateException(ex);
+    }
+    StringBuilder buffer = new StringBuilder(1024);
+    for (AdapterEmitter.Adapter adapter : adapters.values()) {
+      if (adapter != null) {
+        buffer.setLength(0);
+        adapter.renderUnit(buffer);
+        units.put(adapter.getQualifiedName(), buffer.toString());
+      }
+    }
+    return new Result(sourceFile, units, messages);
+  }
+
+  /**
+   * Transform an encoded source.
+   *
+   * @param source the encoded text of the source; read from its position to
+   * its limit.
+   * @param charset the encoding of the source.
+   * @param context what the source is, and where it lives.
+   * @return the transformed source and the adapters it needs.
+   */
+  public Result transform(ByteBuffer source, Charset charset, Context context) {
+    return this.transform(charset.decode(source), context);
+  }
+
+  /**
+   * Parse sub-interface listings.
+   *
+   * @param subIfs [InterfaceSuffix]:[class1,...,classN] listings separated by
+   * ';'; may be null.
+   * @return the sub-interface names, by interface suffix.
+   */
+  private static Map<String, List<String>> parseSubInterfaces(String subIfs) {
+    Map<String, List<String>> subInterfaces = new HashMap<String, List<String>>();
+    String[] ifs = new String[]{};
+    if (subIfs != null) {
+      ifs = new String[]{subIfs};
+      if (subIfs.contains(";")) {
+        ifs = subIfs.split(";");
+      }
+    }
+
+    for (String intf : ifs) {
+      String[] split = intf.split(":");
+      String name = split[0];
+      String[] names = split[1].split(",");
+      List<String> nameList = new ArrayList<String>();
+      for (String subclass : names) {
+        nameList.add(subclass);
+      }
+      subInterfaces.put(name, nameList);
+    }
+    return subInterfaces;
+  }
+
+  /**
+   * Annotate an implementation class and run the rules on it (by default
+   * making it use the concrete implementation of XmlAnySimpleType); only the
+   * content of the source is changed, nothing is written.
+   *
+   * @param source the class.
+   * @param xmlTypePrefix prefix to add to the class name; not used if null.
+   * @param messages messages to report once the class is done; may be null.
+   * @param stats counts the time spent matching and rewriting, and the edits
+   * made by rules; may be null.
+   */
+  void annotateImplementation(SourceFile source, String xmlTypePrefix,
+          List<String> messages, RunStats stats) {
+    long start = stats == null ? 0 : stats.start();
+    String fileName = source.getFile().getName();
+    // find everything of interest in one pass, then edit in one pass:
+    JavaOutline outline = JavaOutline.parse(source.getContent());
+    PatternMatcher.Matches matches = this.rules.find(source.getContent());
+    Splices edits = new Splices();
+    JavaOutline.Type type = outline.getType("class",
+            FilenameUtils.removeExtension(fileName));
+    if (type != null) {
+      this.annotateClass(type, edits, this.interfaceName(type), xmlTypePrefix);
+    }
+    int rewritten = this.rules.rewrite(source.getContent(), outline, matches,
+            edits, fileName, true, messages);
+    if (stats != null) {
+      stats.add(RunStats.Counter.RULE_EDITS, rewritten);
+    }
+    this.applyEdits(source, edits, stats, start);
+  }
+
+  /**
+   * Apply the edits found to a source, counting the time spent finding them
+   * (since the given start) and applying them.
+   *
+   * @param source the source.
+   * @param edits the edits to make to the source.
+   * @param stats counts the time spent; may be null.
+   * @param start when the source started being matched.
+   */
+  private void applyEdits(SourceFile source, Splices edits, RunStats stats,
+          long start) {
+    if (stats != null) {
+      stats.stop(RunStats.Stage.MATCH, start);
+      start = stats.start();
+    }
+    if (!edits.isEmpty()) {
+      source.setContent(edits.apply(source.getContent()));
+    }
+    if (stats != null) {
+      stats.stop(RunStats.Stage.REWRITE, start);
+    }
+  }
+
+  /**
+   * Get the name of the interface an implementation class implements: the
+   * first it declares, or failing that, its own name without the
+   * implementation prefix/suffix.
+   *
+   * @param type the declaration of the class.
+   * @return the simple name of the interface.
+   */
+  private String interfaceName(JavaOutline.Type type) {
+    if (!type.getInterfaces().isEmpty()) {
+      String iface = type.getInterfaces().get(0);
+      return iface.substring(iface.lastIndexOf('.') + 1);
+    }
+    String name = type.getName();
+    if (!name.startsWith(this.extension) && !name.endsWith(this.extension)) {
+      return name;
+    }
+    return this.suffixed
+            ? name.substring(0, name.length() - this.extension.length())
+            : name.substring(this.extension.length());
+  }
+
+  /**
+   * Add appropriate XML (and other) annotations to the class declaration,
+   * unless already present.
+   *
+   * @param type the declaration of the class.
+   * @param edits the edits to make to the content.
+   * @param name the non-null name of the interface the class implements.
+   * @param xmlTypePrefix prefix to add to the class name (helps prevent name
+   * clashes for names like string, int etc.); not used if null.
+   */
+  private void annotateClass(JavaOutline.Type type, Splices edits, String name,
+          String xmlTypePrefix) {
+    // name the xml type as the rules say (by default, lower case 1st char):
+    String data = "\nimport javax.xml.bind.annotation.XmlType;\n\n"
+            + "@XmlType(name=\"" + this.rules.xmlTypeName(name) + "\")\n";
+    if (xmlTypePrefix != null) {
+      data = "\nimport javax.xml.bind.annotation.XmlType;\n\n"
+              + "@XmlType(name=\"" + xmlTypePrefix
+              + this.rules.xmlTypeName(name) + "\")\n";
+    }
+    if (type.hasModifier("public") && !type.hasAnnotation("XmlType")) {
+      edits.insert(type.getStart(), data);
+    }
+  }
+
+  /**
+   * Find the get/add methods of an interface that return XmlAnySimpleType.
+   *
+   * @param outline the declarations of the interface.
+   * @return the methods, in order of declaration.
+   */
+  private List<JavaOutline.Method> findXmlAnySimpleTypeMethods(
+          JavaOutline outline) {
+    List<JavaOutline.Method> methods = new ArrayList<JavaOutline.Method>();
+    for (JavaOutline.Type type : outline.getAllTypes()) {
+      for (JavaOutline.Method method : type.getMethods()) {
+        if (XML_ANY_SIMPLE_TYPE.equals(method.getReturnType())
+                && (method.getName().startsWith("get")
+                || method.getName().startsWith("add"))) {
+          methods.add(method);
+        }
+      }
+    }
+    return methods;
+  }
+
+  /**
+   * Find the StringEnumAbstractBase enum classes of an interface.
+   *
+   * @param outline the declarations of the interface.
+   * @param any true to find the enum classes extending any XMLBeans class.
+   * @return the enum classes, in order of declaration.
+   */
+  private List<JavaOutline.Type> findEnums(JavaOutline outline, boolean any) {
+    List<JavaOutline.Type> enums = new ArrayList<JavaOutline.Type>();
+    for (JavaOutline.Type type : outline.getAllTypes()) {
+      String superclass = type.getSuperclass();
+      if ("class".equals(type.getKind()) && "Enum".equals(type.getName())
+              && superclass != null && (any
+              ? superclass.startsWith("org.apache.xmlbeans.")
+              : superclass.equals("org.apache.xmlbeans.StringEnumAbstractBase"))) {
+        enums.add(type);
+      }
+    }
+    return enums;
+  }
+
+  /**
+   * Change all instances of interface XmlAnySimpleType to it's implementation.
+   *
+   * Not a clean solution.
+   *
+   * @param outline the declarations of the interface.
+   * @param edits the edits to make to the content.
+   */
+  private void adaptXmlAnySimpleType(JavaOutline outline, Splices edits) {
+
+    String annotation = "@XmlElement(type=org.apache.xmlbeans.impl.values.XmlAnySimpleTypeImpl.class)";
+    for (JavaOutline.Method method : this.findXmlAnySimpleTypeMethods(outline)) {
+      if (!method.hasAnnotation("XmlElement")) {
+        edits.insert(method.getReturnTypeStart(), annotation + "\n");
+      }
+    }
+  }
+
+  /**
+   * Add necessary annotations to an interface, and create the adapters it
+   * needs; only the content of the source is changed, nothing is written.
+   *
+   * @param source the interface.
+   * @param dirIface the directory where the interface is located.
+   * @param packageName the name of the package where the interface resides.
+   * @param packageNameImpl the name of the package where the implementing class
+   * resides, unless the index has it elsewhere.
+   * @param index the implementations of the interfaces of the run; may be
+   * null, in which case implementations are named by convention.
+   * @param claims decides which adapters are created.
+   * @param adapters adapters referred to by the interface, in the order they
+   * are created; the adapter of the interface itself comes first. Adapters
+   * created by an earlier run or another interface are added as null.
+   * @param messages messages to report once the interface is done.
+   * @param stats counts the time spent matching and rewriting, the enums
+   * renumbered, the sub-interfaces adapted and the edits made by rules; may
+   * be null.
+   * @return false if the source is not an interface, and was left alone.
+   * @throws IOException if a merged adapters file could not be read.
+   */
+  boolean annotateInterface(SourceFile source, File dirIface,
+          String packageName, String packageNameImpl, SymbolIndex index,
+          AdapterClaims claims, Map<File, AdapterEmitter.Adapter> adapters,
+          List<String> messages, RunStats stats) throws IOException {
+
+    long start = stats == null ? 0 : stats.start();
+    File fileInterface = source.getFile();
+    String fileName = FilenameUtils.removeExtension(fileInterface.getName());
+    JavaOutline outline = JavaOutline.parse(source.getContent());
+    // check that file is interface
+    JavaOutline.Type iface = outline.getType("interface", fileName);
+    if (iface == null || !iface.hasModifier("public")) {
+      messages.add("[*] ignoring non-interface "
+              + fileInterface.getName() + ", " + fileName);
+      if (stats != null) {
+        stats.stop(RunStats.Stage.MATCH, start);
+      }
+      return false;
+    }
+    String implFilename = fileName + this.extension + ".java";
+    String abstractFilename = "XmlAdapter" + implFilename;
+    if (!this.suffixed) {
+      abstractFilename = "XmlAdapter" + this.extension + fileName;
+      implFilename = this.extension + fileName + ".java";
+    }
+    SymbolIndex.Implementation implementation = null;
+    if (index != null) {
+      implementation = index.getImplementation(qualify(packageName, fileName));
+    }
+    if (implementation == null) {
+      implementation = new SymbolIndex.Implementation(packageNameImpl,
+              this.implementationName(fileName));
+    }
+    // find every anchor and pattern in one pass, then edit in one pass:
+    PatternMatcher.Matches matches = this.rules.find(source.getContent());
+    Splices edits = new Splices();
+    this.annotateInterfaceHeader(outline, iface, edits, fileInterface,
+            fileName, abstractFilename, messages);
+    int enums = this.annotateEnums(outline, matches, edits, fileInterface);
+    /* EVERY interface requires an abstract class to bind the interface to
+     * a class for marshalling purposes - create the data based
+     * on the intreface name and the impl - this is the XmlJavaTypeAdapter
+     * reference in the header of the interface:
+     */
+    File abstractFile = new File(dirIface, abstractFilename);
+    AdapterEmitter.Adapter abstractData = this.createXmlAdapter(packageName,
+            implementation, fileName);
+    AdapterEmitter.Adapter claimed = claims.exists(abstractFile) ? abstractData
+            : claims.claim(abstractFile, abstractData);
+    if (claimed == null) {
+      // create the new abstract file
+      adapters.put(abstractFile, abstractData);
+      messages.add("[*] Creation of new file in "
+              + claims.getTarget(abstractFile).getPath() + " succeeded");
+
+    } else {
+      adapters.put(abstractFile, null);
+      this.checkCollision(abstractFile, abstractData, claimed, messages);
+      messages.add(abstractFilename + " already exists; leaving it.");
+    }
+    /* The interface XmlAnySimpleType for add/get methods barfs:
+     * So we're going to replace all occurrences of the interface
+     * with the concrete implementation:
+     */
+    this.adaptXmlAnySimpleType(outline, edits);
+    int subs;
+    if (this.detectSubInterfaces) {
+      subs = this.adaptNestedInterfaces(source.getContent(), iface, edits,
+              dirIface, fileName, packageName, implementation, index, claims,
+              adapters, messages);
+    } else {
+      subs = this.adaptSubInterfaces(source.getContent(), iface, edits,
+              dirIface, fileName, packageName, implementation, claims, adapters,
+              messages);
+    }
+    int rewritten = this.rules.rewrite(source.getContent(), outline, matches,
+            edits, fileInterface.getName(), false, messages);
+    if (stats != null) {
+      stats.add(RunStats.Counter.ENUMS_RENUMBERED, enums);
+      stats.add(RunStats.Counter.SUB_INTERFACES_ADAPTED, subs);
+      stats.add(RunStats.Counter.RULE_EDITS, rewritten);
+    }
+    this.applyEdits(source, edits, stats, start);
+    return true;
+  }
+
+  /**
+   * Add the XmlJavaTypeAdapter and XmlType annotations (and the imports they
+   * need) to the declaration of the interface, unless already present.
+   *
+   * @param outline the declarations of the interface.
+   * @param iface the declaration of the interface.
+   * @param edits the edits to make to the content.
+   * @param fileInterface the file the interface was read from.
+   * @param fileName the name of the interface.
+   * @param abstractFilename the file name of the adapter of the interface.
+   * @param messages messages to report once the interface is done.
+   */
+  private void annotateInterfaceHeader(JavaOutline outline,
+          JavaOutline.Type iface, Splices edits, File fileInterface,
+          String fileName, String abstractFilename, List<String> messages) {
+    /* Here, the XmlJavaTypeAdapter is an auto-generated class (by this
+     * process) that references a marshalling class to bind the interface
+     * to a concrete implementation; we also give a (hopefully unique) name
+     * via the XmlType annotation: */
+    String data = "\nimport javax.xml.bind.annotation.XmlType;\n"
+            + "import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;\n\n"
+            + "@XmlJavaTypeAdapter("
+            + FilenameUtils.removeExtension(abstractFilename) + ".class)\n"
+            + "@XmlType(name=\"" + this.rules.xmlTypeName(fileName) + "\")";
+    // Xml Any Simple element causes problems - find out if it's in this interface:
+    boolean containsXmlElement = !this.findXmlAnySimpleTypeMethods(outline).isEmpty();
+    // find out if it's got enums - we need to name each enum differently:
+    boolean containsEnum = !this.findEnums(outline, true).isEmpty();
+    if (iface.hasAnnotation("XmlJavaTypeAdapter")) {
+      messages.add(fileName + " already contains relevant annotation.");
+      return;
+    }
+    // need to add some imports:
+    if (containsEnum) {
+      data = "\nimport javax.xml.bind.annotation.XmlType;\n" + data;
+    }
+    if (containsXmlElement) {
+      data = "\nimport javax.xml.bind.annotation.XmlElement;\n" + data;
+    }
+    // Now finally write the new class definition in to the content:
+    edits.insert(iface.getStart(), data + "\n");
+    messages.add("Updated " + fileInterface.getName() + " with appropriate XML annotations and import statements.");
+  }
+
+  /**
+   * Find all enums of StringEnumAbstractBase and add annotations - each enum
+   * in the class needs a unique name; in this case, we create a prefix and
+   * append an index for each enum in the class.
+   *
+   * Enums are numbered last to first, leaving out those already annotated;
+   * any Enum_IDX markers already in the content are numbered along with them
+   * (the interface name is assumed not to contain the marker).
+   *
+   * @param outline the declarations of the interface.
+   * @param matches the anchors found in the content of the interface.
+   * @param edits the edits to make to the content.
+   * @param fileInterface the file the interface was read from.
+   * @return the number of enums named or renumbered.
+   */
+  private int annotateEnums(JavaOutline outline, PatternMatcher.Matches matches,
+          Splices edits, File fileInterface) {
+    String annotation = "@XmlType(name=\""
+            + FilenameUtils.removeExtension(fileInterface.getName());
+    String namespace = "\", namespace=\"" + this.rules.getNamespace() + "\")\n";
+    List<Integer> enums = new ArrayList<Integer>();
+    for (JavaOutline.Type type : this.findEnums(outline, false)) {
+      if (!type.hasAnnotation("XmlType")) {
+        enums.add(type.getStart());
+      }
+    }
+    int[] markers = matches.nonOverlapping(RuleSet.ENUM_MARKER);
+    int numbered = enums.size() + markers.length;
+    int enumCount = numbered;
+    // merge the enums and markers in order, numbering them from the end:
+    for (int e = 0, m = 0; e < enums.size() || m < markers.length;) {
+      if (m == markers.length || (e < enums.size() && enums.get(e) < markers[m])) {
+        edits.insert(enums.get(e++), annotation + "Enum_" + (--enumCount) + namespace);
+      } else {
+        edits.replace(markers[m++], "Enum_IDX".length(), "Enum_" + (--enumCount));
+      }
+    }
+    return numbered;
+  }
+
+  /**
+   * Each interface /might/ have sub-interfaces; annotate each of them with an
+   * XmlJavaTypeAdapter and queue the adapter classes they refer to.
+   *
+   * Sub-interfaces are the public interfaces declared (at any depth) in the
+   * interface, and are visited last to first; those already annotated only
+   * note the adapters they refer to.
+   *
+   * @param content contents of the interface.
+   * @param iface the declaration of the interface.
+   * @param edits the edits to make to the content.
+   * @param dirIface the directory where the interface is located.
+   * @param fileName the name of the interface.
+   * @param packageName the name of the package where the interface resides.
+   * @param implementation the class implementing the interface.
+   * @param claims decides which adapters are created.
+   * @param adapters adapters to create; new adapters are added to this.
+   * @param messages messages to report once the interface is done.
+   * @return the number of sub-interfaces annotated.
+   */
+  private int adaptSubInterfaces(CharSequence content, JavaOutline.Type iface,
+          Splices edits, File dirIface, String fileName, String packageName,
+          SymbolIndex.Implementation implementation, AdapterClaims claims,
+          Map<File, AdapterEmitter.Adapter> adapters, List<String> messages) {
+    if (this.subInterfaces.isEmpty()) {
+      // nothing to check sub-interfaces against:
+      return 0;
+    }
+    int adapted = 0;
+    List<JavaOutline.Type> subs = new ArrayList<JavaOutline.Type>();
+    this.findSubInterfaces(iface, subs);
+    for (int i = subs.size() - 1; i >= 0; i--) {
+      JavaOutline.Type sub = subs.get(i);
+      String subinterface = sub.getName();
+      boolean annotated = sub.hasAnnotation("XmlJavaTypeAdapter");
+      int start = annotationStart(content, sub);
+      // hack TODO need to get this to work for multiple configurations
+      String prefix = null;
+
+      for (Iterator<String> it = this.subInterfaces.keySet().iterator(); it.hasNext();) {
+        String subclass = it.next();
+        /* You need knowledge of which subinterfaces contain their own
+         * subinterfaces - this is performed with the -u/--sub-interfaces
+         * option. If the following condition holds, then we've got
+         * a situation where the interface depth looks something like
+         * A->B->C (in terms of inner classes); this means that new
+         * abstract binding classes must be created catering for the
+         * depth of classes:
+         */
+        String abstractFileName;
+        AdapterEmitter.Adapter data;
+        String message;
+        // the declaration is only annotated while it goes by its own name:
+        boolean named = subinterface.equals(sub.getName());
+        if (fileName.endsWith(subclass) && this.subInterfaces.get(subclass).contains(subinterface)) {
+          prefix = fileName.substring(0, fileName.length()
+                  - this.rules.getDocumentSuffix().length());
+          String subinterfaceImpl = prefix + "Impl." + subinterface + "Impl";
+          abstractFileName = "XmlAdapter" + (fileName + "."
+                  + subinterfaceImpl).replace(".", "_");
+          subinterface = prefix + "." + subinterface;
+          message = abstractFileName + " Updating subinterface " + subinterface;
+          data = this.createXmlAdapter(packageName, implementation, fileName,
+                  "." + subinterface, "." + subinterfaceImpl);
+        } else {
+          // Otherwise, it's just a standard sub-interface of the main interface
+          // - which requires a different kind of abstract binding class:
+          abstractFileName = "XmlAdapter" + (fileName + "."
+                  + subinterface).replace(".", "_") + "Impl";
+          message = "Updating subinterface: " + subinterface
+                  + " with XmlJavaTypeAdapter " + abstractFileName;
+          data = this.createXmlAdapter(packageName, implementation, fileName,
+                  "." + subinterface, "." + subinterface + "Impl");
+        }
+        File adapter = new File(dirIface, abstractFileName + ".java");
+        if (annotated) {
+          messages.add(subinterface + " already contains relevant annotation.");
+          if (!adapters.containsKey(adapter)) {
+            adapters.put(adapter, null);
+          }
+        } else {
+          if (named) {
+            edits.insert(start, "@XmlJavaTypeAdapter(" + abstractFileName + ".class)\n");
+            adapted++;
+          }
+          messages.add(message);
+          this.queueAdapter(claims, adapters, adapter, data, messages);
+        }
+      }
+    }
+    return adapted;
+  }
+
+  /**
+   * Annotate every nested interface of an interface with an
+   * XmlJavaTypeAdapter to the class nested the same way in the
+   * implementation, and queue the adapter classes they refer to.
+   *
+   * Nested interfaces are found at any depth, and are visited last to first;
+   * those already annotated only note the adapters they refer to. The
+   * implementation of each is looked up in the index, and otherwise named by
+   * convention (FooDocument.Foo is implemented by FooDocumentImpl.FooImpl).
+   *
+   * @param content contents of the interface.
+   * @param iface the declaration of the interface.
+   * @param edits the edits to make to the content.
+   * @param dirIface the directory where the interface is located.
+   * @param fileName the name of the interface.
+   * @param packageName the name of the package where the interface resides.
+   * @param implementation the class implementing the interface.
+   * @param index the implementations of the interfaces of the run; may be
+   * null.
+   * @param claims decides which adapters are created.
+   * @param adapters adapters to create; new adapters are added to this.
+   * @param messages messages to report once the interface is done.
+   * @return the number of nested interfaces annotated.
+   */
+  private int adaptNestedInterfaces(CharSequence content,
+          JavaOutline.Type iface, Splices edits, File dirIface, String fileName,
+          String packageName, SymbolIndex.Implementation implementation,
+          SymbolIndex index, AdapterClaims claims,
+          Map<File, AdapterEmitter.Adapter> adapters, List<String> messages) {
+    int adapted = 0;
+    List<JavaOutline.Type> subs = new ArrayList<JavaOutline.Type>();
+    this.findSubInterfaces(iface, subs);
+    for (int i = subs.size() - 1; i >= 0; i--) {
+      JavaOutline.Type sub = subs.get(i);
+      String path = sub.getName();
+      for (JavaOutline.Type parent = sub.getParent(); parent != iface;
+              parent = parent.getParent()) {
+        path = parent.getName() + "." + path;
+      }
+      String implPath = this.nestedImplementation(index,
+              qualify(packageName, fileName + "." + path), implementation, path);
+      AdapterEmitter.Adapter data = this.createXmlAdapter(packageName,
+              implementation, fileName, "." + path, implPath);
+      File adapter = new File(dirIface, data.getClassName() + ".java");
+      if (sub.hasAnnotation("XmlJavaTypeAdapter")) {
+        messages.add(path + " already contains relevant annotation.");
+        if (!adapters.containsKey(adapter)) {
+          adapters.put(adapter, null);
+        }
+      } else {
+        edits.insert(annotationStart(content, sub),
+                "@XmlJavaTypeAdapter(" + data.getClassName() + ".class)\n");
+        messages.add("Updating subinterface: " + path
+                + " with XmlJavaTypeAdapter " + data.getClassName());
+        this.queueAdapter(claims, adapters, adapter, data, messages);
+        adapted++;
+      }
+    }
+    return adapted;
+  }
+
+  /**
+   * Find the class implementing a nested interface, within the class
+   * implementing the interface it is nested in.
+   *
+   * @param index the implementations of the interfaces of the run; may be
+   * null.
+   * @param qualifiedName the qualified name of the nested interface.
+   * @param implementation the class implementing the top level interface.
+   * @param path the name of the nested interface within the top level one.
+   * @return the name of the nested class within the implementation, starting
+   * with a '.'.
+   */
+  private String nestedImplementation(SymbolIndex index, String qualifiedName,
+          SymbolIndex.Implementation implementation, String path) {
+    if (index != null) {
+      SymbolIndex.Implementation nested = index.getImplementation(qualifiedName);
+      if (nested != null && nested.getPackageName().equals(implementation.getPackageName())
+              && nested.getName().startsWith(implementation.getName() + ".")) {
+        return nested.getName().substring(implementation.getName().length());
+      }
+    }
+    StringBuilder name = new StringBuilder();
+    for (String part : path.split("\\.")) {
+      name.append('.').append(this.implementationName(part));
+    }
+    return name.toString();
+  }
+
+  /**
+   * Find the public interfaces declared in a type, and in those, and so on.
+   *
+   * @param type the type.
+   * @param subs the interfaces found, in order of declaration.
+   */
+  private void findSubInterfaces(JavaOutline.Type type,
+          List<JavaOutline.Type> subs) {
+    for (JavaOutline.Type sub : type.getTypes()) {
+      if ("interface".equals(sub.getKind()) && sub.hasModifier("public")) {
+        subs.add(sub);
+      }
+      this.findSubInterfaces(sub, subs);
+    }
+  }
+
+  /**
+   * Queue a sub-interface adapter to be written along with its interface,
+   * unless it was already queued, or another interface has already created
+   * it during this run (in which case it is only noted as referred to).
+   *
+   * @param claims decides which adapters are created.
+   * @param adapters the adapters of the interface being processed.
+   * @param adapter the adapter file.
+   * @param data the content of the adapter.
+   * @param messages messages to report once the interface is done.
+   */
+  private void queueAdapter(AdapterClaims claims,
+          Map<File, AdapterEmitter.Adapter> adapters, File adapter,
+          AdapterEmitter.Adapter data, List<String> messages) {
+    AdapterEmitter.Adapter claimed = adapters.get(adapter);
+    if (claimed == null) {
+      claimed = claims.claim(adapter, data);
+      if (claimed == null) {
+        adapters.put(adapter, data);
+        return;
+      }
+      if (!adapters.containsKey(adapter)) {
+        adapters.put(adapter, null);
+      }
+    }
+    this.checkCollision(adapter, data, claimed, messages);
+  }
+
+  /**
+   * Report an adapter that was not created because another binding of the
+   * same name was claimed first.
+   *
+   * @param adapter the adapter file.
+   * @param data the adapter that was not created.
+   * @param claimed the adapter claimed first.
+   * @param messages messages to report once the interface is done.
+   */
+  private void checkCollision(File adapter, AdapterEmitter.Adapter data,
+          AdapterEmitter.Adapter claimed, List<String> messages) {
+    if (!claimed.equals(data)) {
+      messages.add("[!] " + adapter.getName() + " would bind "
+              + data.getBinding() + ", but already binds "
+              + claimed.getBinding() + "; leaving it.");
+    }
+  }
+
+  /**
+   * Creates a new XML Adapter for the specified named interface and package
+   * details. This method is used to create XML adapters for interfaces that
+   * contain an interface that contains an interface and the child class needs
+   * to be mapped to a class.
+   *
+   * @param packageName the name of the package where the interface resides.
+   * @param implementation the class implementing the interface.
+   * @param name the name of the interface that contains the hierarchy of
+   * classes.
+   * @param subclass the child of the interface.
+   * @param subclassImpl name of the subclass implementation.
+   * @return the adapter.
+   */
+  private AdapterEmitter.Adapter createXmlAdapter(String packageName,
+          SymbolIndex.Implementation implementation, String name,
+          String subclass, String subclassImpl) {
+    if (subclass == null) {
+      subclass = "";
+    }
+    if (subclassImpl == null) {
+      subclassImpl = subclass;
+    }
+    return new AdapterEmitter.Adapter(packageName,
+            qualify(implementation.getPackageName(), implementation.getTopLevelName()),
+            "XmlAdapter" + (name + subclassImpl).replace(".", "_"),
+            implementation.getName() + subclassImpl, name + subclass);
+  }
+
+  /**
+   * Creates a new XML Adapter for the specified named interface and package
+   * details. This method is used to create XML adapters for the specified
+   * interface.
+   *
+   * @param packageName the name of the package where the interface resides.
+   * @param implementation the class implementing the interface.
+   * @param name the name of the interface to create the adapter for.
+   * @return the adapter.
+   */
+  private AdapterEmitter.Adapter createXmlAdapter(String packageName,
+          SymbolIndex.Implementation implementation, String name) {
+    return new AdapterEmitter.Adapter(packageName,
+            qualify(implementation.getPackageName(), implementation.getTopLevelName()),
+            "XmlAdapter" + name.replace(".", "_") + "Impl",
+            implementation.getName(), name);
+  }
+
+  /**
+   * Name the implementation of an interface by convention.
+   *
+   * @param name the simple name of the interface.
+   * @return the name of its implementation.
+   */
+  private String implementationName(String name) {
+    return this.suffixed ? name + this.extension : this.extension + name;
+  }
+
+  /**
+   * Qualify a name with its package.
+   *
+   * @param packageName the package; empty for the default package.
+   * @param name the name.
+   * @return the qualified name.
+   */
+  private static String qualify(String packageName, String name) {
+    return packageName == null || packageName.length() == 0 ? name
+            : packageName + "." + name;
+  }
+
+  /**
+   * Find where the annotations of a nested declaration go: on the line
+   * before it, where its indentation was.
+   *
+   * @param content contents of the source.
+   * @param type the declaration.
+   * @return position to insert the annotations at.
+   */
+  private static int annotationStart(CharSequence content, JavaOutline.Type type) {
+    int start = type.getStart();
+    if (start > 0 && content.charAt(start - 1) == ' ') {
+      start--;
+    }
+    return start;
+  }
+
+  /**
+   * Decides which of the adapters an interface refers to are created along
+   * with it.
+   */
+  interface AdapterClaims {
+
+    /**
+     * Determine if an adapter was created before, and is to be left alone.
+     *
+     * @param adapter the file of the adapter.
+     * @return true if the adapter exists.
+     * @throws IOException if existing adapters could not be read.
+     */
+    boolean exists(File adapter) throws IOException;
+
+    /**
+     * Claim an adapter, so that it is only created once.
+     *
+     * @param adapter the file of the adapter.
+     * @param data the adapter.
+     * @return null if the adapter was not claimed before, otherwise the
+     * adapter claimed first; equal to the given one unless two bindings have
+     * the same name.
+     */
+    AdapterEmitter.Adapter claim(File adapter, AdapterEmitter.Adapter data);
+
+    /**
+     * Get the file an adapter ends up in.
+     *
+     * @param adapter the file of the adapter, were it written on its own.
+     * @return the file the adapter is written to.
+     */
+    File getTarget(File adapter);
+  }
+
+  /**
+   * Claims of a single transformation in memory: every adapter is created.
+   */
+  private static final AdapterClaims IN_MEMORY = new AdapterClaims() {
+
+    public boolean exists(File adapter) {
+      return false;
+    }
+
+    public AdapterEmitter.Adapter claim(File adapter,
+            AdapterEmitter.Adapter data) {
+      return null;
+    }
+
+    public File getTarget(File adapter) {
+      return adapter;
+    }
+  };
+
+  /**
+   * What a source is, and where it lives.
+   */
+  public static final class Context {
+
+    private final String fileName;
+    private final String packageName;
+    private final String packageNameImpl;
+    private final String xmlTypePrefix;
+    private final boolean implementation;
+
+    private Context(String fileName, String packageName,
+            String packageNameImpl, String xmlTypePrefix,
+            boolean implementation) {
+      this.fileName = fileName;
+      this.packageName = packageName;
+      this.packageNameImpl = packageNameImpl;
+      this.xmlTypePrefix = xmlTypePrefix;
+      this.implementation = implementation;
+    }
+
+    /**
+     * A generated interface.
+     *
+     * @param fileName the file name of the interface, like FooDocument.java.
+     * @param packageName the package of the interface.
+     * @param packageNameImpl the package of its implementation.
+     * @return the context.
+     */
+    public static Context forInterface(String fileName, String packageName,
+            String packageNameImpl) {
+      return new Context(fileName, packageName, packageNameImpl, null, false);
+    }
+
+    /**
+     * A generated implementation class.
+     *
+     * @param fileName the file name of the class, like FooDocumentImpl.java.
+     * @param packageName the package of the class.
+     * @param xmlTypePrefix prefix to add to the XML type name of the class; not
+     * used if null.
+     * @return the context.
+     */
+    public static Context forImplementation(String fileName,
+            String packageName, String xmlTypePrefix) {
+      return new Context(fileName, packageName, packageName, xmlTypePrefix, true);
+    }
+
+    /**
+     * @return the file name of the source.
+     */
+    public String getFileName() {
+      return this.fileName;
+    }
+
+    /**
+     * @return the package of the source.
+     */
+    public String getPackageName() {
+      return this.packageName;
+    }
+
+    /**
+     * @return the package of the implementation of the source.
+     */
+    public String getPackageNameImpl() {
+      return this.packageNameImpl;
+    }
+
+    /**
+     * @return prefix to add to the XML type name of an implementation class;
+     * may be null.
+     */
+    public String getXmlTypePrefix() {
+      return this.xmlTypePrefix;
+    }
+
+    /**
+     * @return true for an implementation class, false for an interface.
+     */
+    public boolean isImplementation() {
+      return this.implementation;
+    }
+  }
+
+  /**
+   * A transformed source, and the adapter classes it needs.
+   */
+  public static final class Result {
+
+    private final String source;
+    private final boolean modified;
+    private final Map<String, String> adapters;
+    private final List<String> messages;
+
+    Result(SourceFile source, Map<String, String> adapters,
+            List<String> messages) {
+      this.source = source.getContent().toString();
+      this.modified = source.isModified();
+      this.adapters = Collections.unmodifiableMap(adapters);
+      this.messages = Collections.unmodifiableList(messages);
+    }
+
+    /**
+     * @return the text of the transformed source.
+     */
+    public String getSource() {
+      return this.source;
+    }
+
+    /**
+     * @return true if the transformation changed the source.
+     */
+    public boolean isModified() {
+      return this.modified;
+    }
+
+    /**
+     * The adapters the source refers to; every adapter of an interface is
+     * created, except those of the nested interfaces that were already
+     * annotated. Implementation classes have no adapters.
+     *
+     * @return the source of each adapter class, by qualified class name, in
+     * the order they were created.
+     */
+    public Map<String, String> getAdapters() {
+      return this.adapters;
+    }
+
+    /**
+     * @return what was done to the source, as the command line reports it.
+     */
+    public List<String> getMessages() {
+      return this.messages;
+    }
+  }
+}
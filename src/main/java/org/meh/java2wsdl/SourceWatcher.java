@@ -0,0 +1,265 @@
+package org.meh.java2wsdl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches directories of sources for changes, so that an annotator kept
+ * running only annotates what a code generator (or anyone else) changed.
+ *
+ * Generators write many files in a burst; changes are collected until the
+ * directories have been quiet for a while, and then handed over at once.
+ * Directories created within a watched tree are watched as they appear; a
+ * watched directory that is removed (as generators clean their output) is
+ * watched again once it is back, and every source in it taken as changed.
+ * When changes come faster than they are taken (as they do while a run
+ * writes), some are lost, and every source watched is taken as changed;
+ * telling those that did change from those that did not is left to the
+ * caller.
+ */
+class SourceWatcher implements Closeable {
+
+  /**
+   * How long the directories must be quiet before the changes are handed
+   * over, in milliseconds.
+   */
+  static final long DEFAULT_QUIET_MILLIS = 300;
+  /**
+   * Notifies of changes to the watched directories.
+   */
+  private final WatchService service;
+  /**
+   * How long the directories must be quiet, in milliseconds.
+   */
+  private final long quietMillis;
+  /**
+   * The directories watched, by their keys.
+   */
+  private final Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+  /**
+   * The directories given to watch, and whether the directories within them
+   * are watched as well.
+   */
+  private final Map<Path, Boolean> roots = new LinkedHashMap<Path, Boolean>();
+  /**
+   * Directories given to watch that were removed, to be watched again once
+   * they are back.
+   */
+  private final Set<Path> lost = new LinkedHashSet<Path>();
+
+  /**
+   * Create a new watcher, watching nothing yet.
+   *
+   * @param quietMillis how long the directories must be quiet before the
+   * changes are handed over, in milliseconds.
+   * @throws IOException if the file system cannot be watched.
+   */
+  SourceWatcher(long quietMillis) throws IOException {
+    this.service = FileSystems.getDefault().newWatchService();
+    this.quietMillis = quietMillis;
+  }
+
+  /**
+   * Watch the sources of a directory, but not of the directories within it.
+   *
+   * @param dir the directory.
+   * @throws IOException if the directory cannot be watched.
+   */
+  void watch(File dir) throws IOException {
+    this.roots.put(dir.toPath(), Boolean.FALSE);
+    this.register(dir.toPath(), false);
+  }
+
+  /**
+   * Watch the sources of a directory and of every directory within it.
+   *
+   * @param root the directory.
+   * @throws IOException if a directory cannot be watched.
+   */
+  void watchTree(File root) throws IOException {
+    this.roots.put(root.toPath(), Boolean.TRUE);
+    this.register(root.toPath(), true);
+  }
+
+  /**
+   * Wait for sources to change, then for the directories to be quiet.
+   *
+   * @return the sources created, changed or removed, in the order they were
+   * first noticed; every source watched if changes were lost.
+   * @throws InterruptedException if interrupted while waiting.
+   * @throws IOException if a directory created or back could not be watched.
+   */
+  Set<File> await() throws InterruptedException, IOException {
+    Set<File> changes = new LinkedHashSet<File>();
+    boolean overflow = false;
+    while (true) {
+      WatchKey key;
+      if (changes.isEmpty() && !overflow && this.lost.isEmpty()) {
+        key = this.service.take();
+      } else {
+        key = this.service.poll(this.quietMillis, TimeUnit.MILLISECONDS);
+      }
+      if (key != null) {
+        overflow |= this.collect(key, changes);
+        continue;
+      }
+      this.recover(changes);
+      if (overflow) {
+        for (Map.Entry<Path, Boolean> root : this.roots.entrySet()) {
+          if (!this.lost.contains(root.getKey())) {
+            this.addSources(root.getKey(), root.getValue().booleanValue(), changes);
+          }
+        }
+        return changes;
+      }
+      if (!changes.isEmpty()) {
+        return changes;
+      }
+    }
+  }
+
+  /**
+   * Stop watching.
+   *
+   * @throws IOException if the watch service could not be closed.
+   */
+  public void close() throws IOException {
+    this.service.close();
+  }
+
+  /**
+   * Take the events of a key.
+   *
+   * @param key the key.
+   * @param changes the sources changed so far.
+   * @return true if events were lost.
+   */
+  private boolean collect(WatchKey key, Set<File> changes) throws IOException {
+    Path dir = this.keys.get(key);
+    boolean overflow = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+        overflow = true;
+        continue;
+      }
+      Path path = dir.resolve((Path) event.context());
+      if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+              && this.isTree(dir)
+              && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+        // sources may be written before the directory is watched:
+        this.register(path, true);
+        this.addSources(path, true, changes);
+      } else if (path.getFileName().toString().endsWith(".java")) {
+        changes.add(path.toFile());
+      }
+    }
+    if (!key.reset()) {
+      this.keys.remove(key);
+      // directories within a tree are noticed by their parent when back:
+      if (this.roots.containsKey(dir)) {
+        this.lost.add(dir);
+      }
+    }
+    return overflow;
+  }
+
+  /**
+   * Watch the directories given to watch that are back, taking all of their
+   * sources as changed.
+   *
+   * @param changes the sources changed so far.
+   */
+  private void recover(Set<File> changes) throws IOException {
+    for (Iterator<Path> i = this.lost.iterator(); i.hasNext();) {
+      Path dir = i.next();
+      if (Files.isDirectory(dir)) {
+        boolean tree = this.roots.get(dir).booleanValue();
+        this.register(dir, tree);
+        this.addSources(dir, tree, changes);
+        i.remove();
+      }
+    }
+  }
+
+  /**
+   * Determine if the directories within a directory are watched.
+   */
+  private boolean isTree(Path dir) {
+    for (Map.Entry<Path, Boolean> root : this.roots.entrySet()) {
+      if (root.getValue().booleanValue() && dir.startsWith(root.getKey())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Watch a directory, and, if a tree, every directory within it.
+   */
+  private void register(Path dir, boolean tree) throws IOException {
+    if (!tree) {
+      this.keys.put(dir.register(this.service,
+              StandardWatchEventKinds.ENTRY_CREATE,
+              StandardWatchEventKinds.ENTRY_MODIFY,
+              StandardWatchEventKinds.ENTRY_DELETE), dir);
+      return;
+    }
+    Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path subdir,
+              BasicFileAttributes attrs) throws IOException {
+        register(subdir, false);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  /**
+   * Add the sources of a directory, and, if a tree, of every directory
+   * within it, to the changes.
+   */
+  private void addSources(Path dir, boolean tree, final Set<File> changes)
+          throws IOException {
+    if (!tree) {
+      DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.java");
+      try {
+        for (Path file : files) {
+          changes.add(file.toFile());
+        }
+      } finally {
+        files.close();
+      }
+      return;
+    }
+    Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if (attrs.isRegularFile()
+                && file.getFileName().toString().endsWith(".java")) {
+          changes.add(file.toFile());
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
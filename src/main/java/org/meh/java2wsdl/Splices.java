@@ -0,0 +1,160 @@
+package org.meh.java2wsdl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A set of edits to a text, each given in terms of positions in the original
+ * text, that are applied together in a single pass. Edits at the same
+ * position are applied in the order they were added.
+ */
+final class Splices {
+
+  /**
+   * Orders edits by position; the sort is stable, keeping edits at the same
+   * position in the order they were added.
+   */
+  private static final Comparator<Edit> BY_OFFSET = new Comparator<Edit>() {
+    public int compare(Edit a, Edit b) {
+      return a.offset < b.offset ? -1 : (a.offset == b.offset ? 0 : 1);
+    }
+  };
+  /**
+   * The edits, in the order they were added.
+   */
+  private final List<Edit> edits = new ArrayList<Edit>();
+  /**
+   * Are the edits ordered by position?
+   */
+  private boolean sorted = true;
+  /**
+   * End of the text replaced by the edits replacing any, by position; kept
+   * to find overlaps without going through every edit.
+   */
+  private final TreeMap<Integer, Integer> replaced = new TreeMap<Integer, Integer>();
+  /**
+   * Positions of the insertions.
+   */
+  private final TreeSet<Integer> inserted = new TreeSet<Integer>();
+
+  /**
+   * Insert text before the given position.
+   *
+   * @param offset position in the original text.
+   * @param text the text to insert.
+   */
+  void insert(int offset, String text) {
+    this.replace(offset, 0, text);
+  }
+
+  /**
+   * Replace part of the text.
+   *
+   * @param offset position in the original text.
+   * @param length number of characters to replace.
+   * @param text the replacement.
+   */
+  void replace(int offset, int length, String text) {
+    if (!this.edits.isEmpty()
+            && this.edits.get(this.edits.size() - 1).offset > offset) {
+      this.sorted = false;
+    }
+    this.edits.add(new Edit(offset, length, text));
+    Integer start = Integer.valueOf(offset);
+    if (length == 0) {
+      this.inserted.add(start);
+    } else {
+      Integer end = this.replaced.get(start);
+      if (end == null || end.intValue() < offset + length) {
+        this.replaced.put(start, Integer.valueOf(offset + length));
+      }
+    }
+  }
+
+  /**
+   * Determine if an edit added now could not be applied along with those
+   * already added: if it replaces part of the text another replaces, inserts
+   * within (or at the start of) text already replaced, or replaces text
+   * around an insertion.
+   *
+   * The edits already added are taken not to overlap each other, as they
+   * could not be applied otherwise: the text they replace is then ordered
+   * the same by start and by end, so only the replacement starting last
+   * before the end of the edit can overlap it.
+   *
+   * @param offset position in the original text.
+   * @param length number of characters the edit replaces.
+   * @return true if the edit overlaps another.
+   */
+  boolean overlaps(int offset, int length) {
+    // the replacement starting last at (or, for a replacement, before the
+    // end of) the edit:
+    Map.Entry<Integer, Integer> before = length == 0
+            ? this.replaced.floorEntry(Integer.valueOf(offset))
+            : this.replaced.lowerEntry(Integer.valueOf(offset + length));
+    if (before != null && before.getValue().intValue() > offset) {
+      return true;
+    }
+    if (length == 0) {
+      return false;
+    }
+    Integer insertion = this.inserted.higher(Integer.valueOf(offset));
+    return insertion != null && insertion.intValue() < offset + length;
+  }
+
+  /**
+   * @return true if there are no edits.
+   */
+  boolean isEmpty() {
+    return this.edits.isEmpty();
+  }
+
+  /**
+   * Apply all edits to the text; the text is not copied, the result refers
+   * to it (and to the text of the edits) instead.
+   *
+   * @param text the original text, which must not change afterwards.
+   * @return the edited text.
+   * @throws IllegalStateException if two of the edits replace overlapping
+   * parts of the text.
+   */
+  PieceTable apply(CharSequence text) {
+    if (!this.sorted) {
+      Collections.sort(this.edits, BY_OFFSET);
+      this.sorted = true;
+    }
+    PieceTable result = new PieceTable(text, 2 * this.edits.size() + 1);
+    int position = 0;
+    for (Edit edit : this.edits) {
+      if (edit.offset < position) {
+        throw new IllegalStateException("Overlapping edits at " + edit.offset);
+      }
+      result.add(text, position, edit.offset);
+      result.add(edit.text, 0, edit.text.length());
+      position = edit.offset + edit.length;
+    }
+    result.add(text, position, text.length());
+    return result;
+  }
+
+  /**
+   * A single replacement.
+   */
+  private static final class Edit {
+
+    private final int offset;
+    private final int length;
+    private final String text;
+
+    Edit(int offset, int length, String text) {
+      this.offset = offset;
+      this.length = length;
+      this.text = text;
+    }
+  }
+}
@@ -0,0 +1,223 @@
+package org.meh.java2wsdl;
+
+import java.io.File;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The classes implementing each interface, indexed from the implementation
+ * sources of a run before any interface is annotated; interfaces are then
+ * paired with their implementations by what the classes declare they
+ * implement, rather than by the directories given or by their names.
+ *
+ * Nested classes are indexed along with top level ones, so the
+ * implementation of a nested interface is found the same way.
+ *
+ * Sources may be indexed from several threads at once.
+ */
+class SymbolIndex {
+
+  /**
+   * Implementations, by the qualified name of the interface they implement.
+   */
+  private final ConcurrentMap<String, Implementation> implementations = new ConcurrentHashMap<String, Implementation>();
+  /**
+   * The interface each top level class implements (the first it declares),
+   * by the qualified name of the class.
+   */
+  private final ConcurrentMap<String, String> interfaces = new ConcurrentHashMap<String, String>();
+
+  /**
+   * Index the classes of a source.
+   *
+   * @param outline the declarations of the source.
+   * @param source the file of the source; may be null.
+   * @return the qualified names of the interfaces the classes implement.
+   */
+  Set<String> add(JavaOutline outline, File source) {
+    Set<String> interfaces = new LinkedHashSet<String>();
+    String packageName = outline.getPackageName();
+    for (JavaOutline.Type type : outline.getAllTypes()) {
+      if (type.getInterfaces().isEmpty()) {
+        continue;
+      }
+      StringBuilder name = new StringBuilder(type.getName());
+      for (JavaOutline.Type parent = type.getParent(); parent != null;
+              parent = parent.getParent()) {
+        name.insert(0, '.').insert(0, parent.getName());
+      }
+      Implementation implementation = new Implementation(packageName,
+              name.toString(), source);
+      for (String iface : type.getInterfaces()) {
+        String qualified = this.resolve(outline, iface);
+        this.put(qualified, implementation);
+        if (type.getParent() == null) {
+          this.interfaces.putIfAbsent(implementation.getQualifiedName(), qualified);
+        }
+        interfaces.add(qualified);
+      }
+    }
+    return interfaces;
+  }
+
+  /**
+   * Forget the classes of a source, before indexing it again or once it is
+   * gone; the interfaces they implemented have no implementation until
+   * another is indexed.
+   *
+   * @param packageName the package of the source; empty for the default
+   * package.
+   * @param topLevelName the simple name of the top level class of the
+   * source.
+   * @return the qualified names of the interfaces that lost their
+   * implementation.
+   */
+  Set<String> remove(String packageName, String topLevelName) {
+    Set<String> interfaces = new LinkedHashSet<String>();
+    this.interfaces.remove(packageName.length() == 0 ? topLevelName
+            : packageName + "." + topLevelName);
+    for (Map.Entry<String, Implementation> entry : this.implementations.entrySet()) {
+      Implementation implementation = entry.getValue();
+      if (implementation.getPackageName().equals(packageName)
+              && implementation.getTopLevelName().equals(topLevelName)
+              && this.implementations.remove(entry.getKey(), implementation)) {
+        interfaces.add(entry.getKey());
+      }
+    }
+    return interfaces;
+  }
+
+  /**
+   * Get the class implementing an interface.
+   *
+   * @param iface the qualified name of the interface; nested interfaces are
+   * named through the interfaces they are declared in.
+   * @return the implementation; null if none was indexed.
+   */
+  Implementation getImplementation(String iface) {
+    return this.implementations.get(iface);
+  }
+
+  /**
+   * Get the interface a top level class implements.
+   *
+   * @param implementation the qualified name of the class.
+   * @return the qualified name of the first interface the class declares it
+   * implements; null if it implements none, or was not indexed.
+   */
+  String getInterface(String implementation) {
+    return this.interfaces.get(implementation);
+  }
+
+  /**
+   * Index an implementation; when several classes implement an interface,
+   * the first by name is kept, whatever order they were indexed in.
+   */
+  private void put(String iface, Implementation implementation) {
+    Implementation previous = this.implementations.putIfAbsent(iface, implementation);
+    while (previous != null
+            && implementation.getQualifiedName().compareTo(previous.getQualifiedName()) < 0
+            && !this.implementations.replace(iface, previous, implementation)) {
+      previous = this.implementations.get(iface);
+    }
+  }
+
+  /**
+   * Resolve the name of an interface as written in a source; XMLBeans
+   * writes qualified names, but imported and same package names are
+   * resolved too.
+   */
+  private String resolve(JavaOutline outline, String iface) {
+    int dot = iface.indexOf('.');
+    String first = dot < 0 ? iface : iface.substring(0, dot);
+    for (String imported : outline.getImports()) {
+      if (imported.endsWith("." + first)) {
+        return imported + iface.substring(first.length());
+      }
+    }
+    if (dot > 0 && Character.isLowerCase(first.charAt(0))) {
+      // already qualified:
+      return iface;
+    }
+    String packageName = outline.getPackageName();
+    return packageName == null || packageName.length() == 0 ? iface
+            : packageName + "." + iface;
+  }
+
+  /**
+   * A class implementing an interface.
+   */
+  static final class Implementation {
+
+    private final String packageName;
+    private final String name;
+    /**
+     * The file the class was indexed from; null if not indexed.
+     */
+    private final File source;
+
+    Implementation(String packageName, String name) {
+      this(packageName, name, null);
+    }
+
+    Implementation(String packageName, String name, File source) {
+      this.packageName = packageName == null ? "" : packageName;
+      this.name = name;
+      this.source = source;
+    }
+
+    /**
+     * @return the package of the class; empty for the default package.
+     */
+    String getPackageName() {
+      return this.packageName;
+    }
+
+    /**
+     * @return the name of the class within its package, through the classes
+     * it is declared in, like FooImpl.BarImpl.
+     */
+    String getName() {
+      return this.name;
+    }
+
+    /**
+     * @return the file the class was indexed from; null if it was not
+     * indexed.
+     */
+    File getSource() {
+      return this.source;
+    }
+
+    /**
+     * @return the simple name of the top level class the class is declared
+     * in (or of the class itself).
+     */
+    String getTopLevelName() {
+      int dot = this.name.indexOf('.');
+      return dot < 0 ? this.name : this.name.substring(0, dot);
+    }
+
+    /**
+     * @return the qualified name of the class.
+     */
+    String getQualifiedName() {
+      return this.packageName.length() == 0 ? this.name
+              : this.packageName + "." + this.name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Implementation
+              && ((Implementation) o).getQualifiedName().equals(this.getQualifiedName());
+    }
+
+    @Override
+    public int hashCode() {
+      return this.getQualifiedName().hashCode();
+    }
+  }
+}
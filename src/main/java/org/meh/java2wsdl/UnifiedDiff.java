@@ -0,0 +1,323 @@
+package org.meh.java2wsdl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The differences between two versions of a file, as a unified diff (as
+ * diff -u prints it). Lines are compared with Myers' algorithm, after
+ * leaving out the lines the versions start and end with in common; the
+ * annotator mostly inserts lines, so the differences are few and cheap to
+ * find even in large files.
+ */
+final class UnifiedDiff {
+
+  /**
+   * Number of unchanged lines shown around each change.
+   */
+  static final int CONTEXT = 3;
+  /**
+   * Name given to the missing side of a created file.
+   */
+  static final String NO_FILE = "/dev/null";
+  private static final char SAME = ' ';
+  private static final char REMOVED = '-';
+  private static final char ADDED = '+';
+  /**
+   * The lines of the diff; empty if the versions are the same.
+   */
+  private final List<String> lines;
+  /**
+   * Number of lines added.
+   */
+  private final int added;
+  /**
+   * Number of lines removed.
+   */
+  private final int removed;
+
+  private UnifiedDiff(List<String> lines, int added, int removed) {
+    this.lines = lines;
+    this.added = added;
+    this.removed = removed;
+  }
+
+  /**
+   * Compare two versions of a file.
+   *
+   * @param fromName the name of the old version; {@link #NO_FILE} if the file
+   * is created.
+   * @param toName the name of the new version.
+   * @param from the old version; empty if the file is created.
+   * @param to the new version.
+   * @return the differences.
+   */
+  static UnifiedDiff compare(String fromName, String toName, CharSequence from,
+          CharSequence to) {
+    String[] a = split(from);
+    String[] b = split(to);
+    int prefix = 0;
+    while (prefix < a.length && prefix < b.length && a[prefix].equals(b[prefix])) {
+      prefix++;
+    }
+    int suffix = 0;
+    while (suffix < a.length - prefix && suffix < b.length - prefix
+            && a[a.length - 1 - suffix].equals(b[b.length - 1 - suffix])) {
+      suffix++;
+    }
+    Script script = new Script(a.length + b.length);
+    for (int i = 0; i < prefix; i++) {
+      script.add(SAME, i, i);
+    }
+    compare(a, prefix, a.length - suffix, b, prefix, b.length - suffix, script);
+    for (int i = suffix; i > 0; i--) {
+      script.add(SAME, a.length - i, b.length - i);
+    }
+    List<String> lines = new ArrayList<String>();
+    if (script.added + script.removed > 0) {
+      lines.add("--- " + fromName);
+      lines.add("+++ " + toName);
+      script.hunks(a, b, lines);
+    }
+    return new UnifiedDiff(lines, script.added, script.removed);
+  }
+
+  /**
+   * @return the lines of the diff, without line breaks; empty if the
+   * versions are the same.
+   */
+  List<String> getLines() {
+    return this.lines;
+  }
+
+  /**
+   * @return the number of lines added.
+   */
+  int getAdded() {
+    return this.added;
+  }
+
+  /**
+   * @return the number of lines removed.
+   */
+  int getRemoved() {
+    return this.removed;
+  }
+
+  /**
+   * Split text in to lines, each keeping its line break (the last line may
+   * have none).
+   */
+  private static String[] split(CharSequence text) {
+    List<String> lines = new ArrayList<String>();
+    int start = 0;
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) == '\n') {
+        lines.add(text.subSequence(start, i + 1).toString());
+        start = i + 1;
+      }
+    }
+    if (start < text.length()) {
+      lines.add(text.subSequence(start, text.length()).toString());
+    }
+    return lines.toArray(new String[lines.size()]);
+  }
+
+  /**
+   * Find the shortest edit script from a[aFrom, aTo) to b[bFrom, bTo), by
+   * following the furthest reaching path of each number of edits, then
+   * tracing the path that got there back.
+   */
+  private static void compare(String[] a, int aFrom, int aTo, String[] b,
+          int bFrom, int bTo, Script script) {
+    int n = aTo - aFrom;
+    int m = bTo - bFrom;
+    int max = n + m;
+    if (max == 0) {
+      return;
+    }
+    // the furthest x reached on each diagonal k, at index k + max:
+    int[] v = new int[2 * max + 2];
+    // v (for the diagonals reachable) after each number of edits:
+    List<int[]> trace = new ArrayList<int[]>();
+    int edits = -1;
+    for (int d = 0; d <= max && edits < 0; d++) {
+      for (int k = -d; k <= d; k += 2) {
+        int x;
+        if (k == -d || (k != d && v[max + k - 1] < v[max + k + 1])) {
+          x = v[max + k + 1];
+        } else {
+          x = v[max + k - 1] + 1;
+        }
+        int y = x - k;
+        while (x < n && y < m && a[aFrom + x].equals(b[bFrom + y])) {
+          x++;
+          y++;
+        }
+        v[max + k] = x;
+        if (x >= n && y >= m) {
+          edits = d;
+          break;
+        }
+      }
+      trace.add(Arrays.copyOfRange(v, max - d, max + d + 1));
+    }
+    // trace back from the end, collecting the script backwards:
+    char[] ops = new char[max];
+    int[] xs = new int[ops.length];
+    int[] ys = new int[ops.length];
+    int count = 0;
+    int x = n;
+    int y = m;
+    for (int d = edits; d > 0; d--) {
+      int[] previous = trace.get(d - 1);
+      int k = x - y;
+      int previousK;
+      if (k == -d || (k != d && previous[k - 1 + d - 1] < previous[k + 1 + d - 1])) {
+        previousK = k + 1;
+      } else {
+        previousK = k - 1;
+      }
+      int previousX = previous[previousK + d - 1];
+      int previousY = previousX - previousK;
+      while (x > previousX && y > previousY) {
+        x--;
+        y--;
+        ops[count] = SAME;
+        xs[count] = x;
+        ys[count++] = y;
+      }
+      if (previousK == k + 1) {
+        ops[count] = ADDED;
+        xs[count] = x;
+        ys[count++] = previousY;
+      } else {
+        ops[count] = REMOVED;
+        xs[count] = previousX;
+        ys[count++] = y;
+      }
+      x = previousX;
+      y = previousY;
+    }
+    while (x > 0 && y > 0) {
+      x--;
+      y--;
+      ops[count] = SAME;
+      xs[count] = x;
+      ys[count++] = y;
+    }
+    for (int i = count - 1; i >= 0; i--) {
+      script.add(ops[i], aFrom + xs[i], bFrom + ys[i]);
+    }
+  }
+
+  /**
+   * The lines of both versions in order, each kept, removed or added.
+   */
+  private static final class Script {
+
+    private final char[] ops;
+    private final int[] as;
+    private final int[] bs;
+    private int size;
+    private int added;
+    private int removed;
+
+    Script(int capacity) {
+      this.ops = new char[capacity];
+      this.as = new int[capacity];
+      this.bs = new int[capacity];
+    }
+
+    void add(char op, int a, int b) {
+      this.ops[this.size] = op;
+      this.as[this.size] = a;
+      this.bs[this.size++] = b;
+      if (op == ADDED) {
+        this.added++;
+      } else if (op == REMOVED) {
+        this.removed++;
+      }
+    }
+
+    /**
+     * Print the changes in hunks, with {@link #CONTEXT} lines around each;
+     * changes closer together than that share a hunk.
+     */
+    void hunks(String[] a, String[] b, List<String> lines) {
+      // the lines of each version before the current position:
+      int aLine = 0;
+      int bLine = 0;
+      int i = 0;
+      while (i < this.size) {
+        int change = this.next(i);
+        if (change == this.size) {
+          return;
+        }
+        int start = Math.max(i, change - CONTEXT);
+        for (; i < start; i++) {
+          aLine++;
+          bLine++;
+        }
+        // the last change of the hunk:
+        int end = change;
+        for (int next = this.next(end + 1); next < this.size
+                && next - end <= 2 * CONTEXT; next = this.next(end + 1)) {
+          end = next;
+        }
+        end = Math.min(this.size, end + CONTEXT + 1);
+        int aCount = 0;
+        int bCount = 0;
+        for (int j = start; j < end; j++) {
+          if (this.ops[j] != ADDED) {
+            aCount++;
+          }
+          if (this.ops[j] != REMOVED) {
+            bCount++;
+          }
+        }
+        lines.add("@@ -" + range(aLine, aCount) + " +" + range(bLine, bCount)
+                + " @@");
+        for (; i < end; i++) {
+          String line = this.ops[i] == ADDED ? b[this.bs[i]] : a[this.as[i]];
+          if (this.ops[i] != ADDED) {
+            aLine++;
+          }
+          if (this.ops[i] != REMOVED) {
+            bLine++;
+          }
+          if (line.endsWith("\n")) {
+            lines.add(this.ops[i] + line.substring(0, line.length() - 1));
+          } else {
+            lines.add(this.ops[i] + line);
+            lines.add("\\ No newline at end of file");
+          }
+        }
+      }
+    }
+
+    /**
+     * @return the position of the first change at or after the given one;
+     * the size if there is none.
+     */
+    private int next(int from) {
+      int i = from;
+      while (i < this.size && this.ops[i] == SAME) {
+        i++;
+      }
+      return i;
+    }
+
+    /**
+     * Format the range of a hunk: the first line (the line before, if
+     * empty), and the number of lines unless one.
+     */
+    private static String range(int before, int count) {
+      if (count == 1) {
+        return String.valueOf(before + 1);
+      }
+      return (count == 0 ? before : before + 1) + "," + count;
+    }
+  }
+}
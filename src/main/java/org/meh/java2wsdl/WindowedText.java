@@ -0,0 +1,401 @@
+package org.meh.java2wsdl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The text of a file read through a window rather than decoded in to the
+ * heap whole: the file is decoded a block of chars at a time, and only the
+ * last few blocks read are kept, so the heap a large source takes is a few
+ * blocks, an index of where each block starts (a few bytes a block), and
+ * what is made of the text (its outline, its edits and the pieces of the
+ * result), whatever its size.
+ *
+ * Where a charset encodes every char in a single byte, a block starts at the
+ * byte of its first char. Otherwise the file is decoded once, streaming, when
+ * it is opened, to find the byte each block starts at; a block is then
+ * decoded again on its own whenever it is read, so only charsets that decode
+ * the same from any char boundary can be read this way (see
+ * {@link #canRead(Charset)}).
+ *
+ * The file is opened for each block read and closed again, so it is never
+ * held open (or mapped) while the annotated source replaces it; a block read
+ * once the file has changed fails, rather than mixing two versions of the
+ * file. The text can be up to {@link Integer#MAX_VALUE} chars long, as any
+ * CharSequence. It is not safe to use from several threads at once, as the
+ * text of a source is not.
+ */
+final class WindowedText implements CharSequence {
+
+  /**
+   * Chars in a block; a block may be a char short, to keep a surrogate pair
+   * whole.
+   */
+  static final int BLOCK_CHARS = 1 << 16;
+  /**
+   * Blocks kept once read.
+   */
+  private static final int CACHED_BLOCKS = 4;
+  /**
+   * Bytes read at a time while indexing a file.
+   */
+  private static final int READ_CHUNK = 1 << 16;
+  /**
+   * Charsets that decode the same from any char boundary, besides those
+   * encoding every char in a single byte.
+   */
+  private static final String[] RESTARTABLE = {"UTF-8", "UTF-16BE",
+    "UTF-16LE", "UTF-32BE", "UTF-32LE"};
+  /**
+   * The blocks of the file.
+   */
+  private final Blocks blocks;
+  /**
+   * Start of the text in the file, in chars.
+   */
+  private final int offset;
+  /**
+   * Length of the text.
+   */
+  private final int length;
+
+  private WindowedText(Blocks blocks, int offset, int length) {
+    this.blocks = blocks;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * Determine if text in a charset can be read through a window.
+   *
+   * @param charset the charset.
+   * @return true if the charset decodes the same from any char boundary.
+   */
+  static boolean canRead(Charset charset) {
+    return isSingleByte(charset)
+            || Arrays.asList(RESTARTABLE).contains(charset.name());
+  }
+
+  /**
+   * Open the text of a file.
+   *
+   * @param file the file.
+   * @param charset the encoding of the file.
+   * @return the text of the file.
+   * @throws IOException if the file could not be read, is longer than a
+   * CharSequence can be, or the charset cannot be read through a window.
+   */
+  static WindowedText open(Path file, Charset charset) throws IOException {
+    if (!canRead(charset)) {
+      throw new IOException(file + " cannot be read in bounded memory in "
+              + charset.name() + ".");
+    }
+    Blocks blocks = new Blocks(file, charset);
+    return new WindowedText(blocks, 0, blocks.length);
+  }
+
+  public int length() {
+    return this.length;
+  }
+
+  public char charAt(int index) {
+    if (index < 0 || index >= this.length) {
+      throw new IndexOutOfBoundsException(String.valueOf(index));
+    }
+    return this.blocks.charAt(this.offset + index);
+  }
+
+  public CharSequence subSequence(int start, int end) {
+    if (start < 0 || end > this.length || start > end) {
+      throw new IndexOutOfBoundsException(start + ", " + end);
+    }
+    return new WindowedText(this.blocks, this.offset + start, end - start);
+  }
+
+  /**
+   * Copy the text in to the heap.
+   */
+  @Override
+  public String toString() {
+    char[] text = new char[this.length];
+    for (int i = 0; i < text.length; i++) {
+      text[i] = this.blocks.charAt(this.offset + i);
+    }
+    return new String(text);
+  }
+
+  /**
+   * Determine if a charset decodes every byte to a single char.
+   */
+  private static boolean isSingleByte(Charset charset) {
+    return charset.canEncode() && charset.newEncoder().maxBytesPerChar() == 1
+            && charset.newDecoder().maxCharsPerByte() == 1;
+  }
+
+  /**
+   * Get a decoder replacing what it cannot decode, as a source read in to
+   * the heap is decoded.
+   */
+  private static CharsetDecoder decoder(Charset charset) {
+    return charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  }
+
+  /**
+   * The blocks of a file, and the few last read.
+   */
+  private static final class Blocks {
+
+    private final Path file;
+    private final Charset charset;
+    /**
+     * Size and time of the file when opened.
+     */
+    private final long size;
+    private final long lastModified;
+    /**
+     * Length of the text, in chars.
+     */
+    private final int length;
+    /**
+     * Number of blocks.
+     */
+    private int count;
+    /**
+     * First char of each block, and the length of the text after the last;
+     * null if every char takes a byte.
+     */
+    private int[] charStarts;
+    /**
+     * First byte of each block, and the size of the file after the last;
+     * null if every char takes a byte.
+     */
+    private long[] byteStarts;
+    /**
+     * The blocks kept, and the number of each; -1 for none.
+     */
+    private final char[][] cached = new char[CACHED_BLOCKS][];
+    private final int[] cachedBlocks = new int[CACHED_BLOCKS];
+    /**
+     * The cached block to be replaced next.
+     */
+    private int next;
+    /**
+     * The block last read, and the chars it holds.
+     */
+    private char[] current;
+    private int currentStart;
+    private int currentEnd;
+    /**
+     * Reads the bytes of a block.
+     */
+    private ByteBuffer bytes;
+
+    Blocks(Path file, Charset charset) throws IOException {
+      this.file = file;
+      this.charset = charset;
+      Arrays.fill(this.cachedBlocks, -1);
+      FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+      try {
+        this.size = channel.size();
+        this.lastModified = Files.getLastModifiedTime(file).toMillis();
+        if (isSingleByte(charset)) {
+          if (this.size > Integer.MAX_VALUE) {
+            throw tooLarge(file);
+          }
+          this.length = (int) this.size;
+          this.count = (this.length + BLOCK_CHARS - 1) / BLOCK_CHARS;
+        } else {
+          this.length = this.index(channel);
+        }
+      } finally {
+        channel.close();
+      }
+    }
+
+    /**
+     * Decode the whole file, streaming, to find the byte each block starts
+     * at.
+     *
+     * @return the length of the text.
+     */
+    private int index(FileChannel channel) throws IOException {
+      CharsetDecoder decoder = decoder(this.charset);
+      ByteBuffer in = ByteBuffer.allocate(READ_CHUNK);
+      in.flip();
+      CharBuffer out = CharBuffer.allocate(BLOCK_CHARS);
+      this.charStarts = new int[16];
+      this.byteStarts = new long[16];
+      long read = 0;
+      long chars = 0;
+      // the first byte of the block being decoded:
+      long blockStart = 0;
+      boolean end = false;
+      while (true) {
+        CoderResult result = decoder.decode(in, out, end);
+        if (result.isUnderflow() && !end) {
+          in.compact();
+          int bytesRead = channel.read(in);
+          in.flip();
+          if (bytesRead < 0) {
+            end = true;
+          } else {
+            read += bytesRead;
+          }
+          continue;
+        }
+        if (result.isUnderflow()) {
+          result = decoder.flush(out);
+        }
+        if (!result.isUnderflow() && !result.isOverflow()) {
+          result.throwException();
+        }
+        if (out.position() > 0) {
+          this.add((int) chars, blockStart);
+          chars += out.position();
+          if (chars > Integer.MAX_VALUE) {
+            throw tooLarge(this.file);
+          }
+          blockStart = read - in.remaining();
+          out.clear();
+        }
+        if (result.isUnderflow()) {
+          break;
+        }
+      }
+      this.charStarts[this.count] = (int) chars;
+      this.byteStarts[this.count] = read;
+      return (int) chars;
+    }
+
+    /**
+     * Add a block.
+     */
+    private void add(int charStart, long byteStart) {
+      if (this.count + 1 >= this.charStarts.length) {
+        this.charStarts = Arrays.copyOf(this.charStarts, this.charStarts.length * 2);
+        this.byteStarts = Arrays.copyOf(this.byteStarts, this.byteStarts.length * 2);
+      }
+      this.charStarts[this.count] = charStart;
+      this.byteStarts[this.count] = byteStart;
+      this.count++;
+    }
+
+    char charAt(int index) {
+      if (index < this.currentStart || index >= this.currentEnd) {
+        this.load(this.blockOf(index));
+      }
+      return this.current[index - this.currentStart];
+    }
+
+    /**
+     * Find the block holding a char.
+     */
+    private int blockOf(int index) {
+      if (this.charStarts == null) {
+        return index / BLOCK_CHARS;
+      }
+      int block = Arrays.binarySearch(this.charStarts, 0, this.count, index);
+      return block >= 0 ? block : -block - 2;
+    }
+
+    /**
+     * Make a block the current one, reading it unless kept.
+     */
+    private void load(int block) {
+      int slot = -1;
+      for (int i = 0; i < CACHED_BLOCKS; i++) {
+        if (this.cachedBlocks[i] == block) {
+          slot = i;
+        }
+      }
+      if (slot < 0) {
+        slot = this.next;
+        this.next = (this.next + 1) % CACHED_BLOCKS;
+        try {
+          this.cached[slot] = this.read(block, this.cached[slot]);
+        } catch (IOException ex) {
+          throw new IllegalStateException("Could not read " + this.file, ex);
+        }
+        this.cachedBlocks[slot] = block;
+      }
+      this.current = this.cached[slot];
+      this.currentStart = this.charStart(block);
+      this.currentEnd = this.charStart(block + 1);
+    }
+
+    private int charStart(int block) {
+      return this.charStarts == null ? Math.min(block * BLOCK_CHARS, this.length)
+              : this.charStarts[block];
+    }
+
+    private long byteStart(int block) {
+      return this.byteStarts == null ? Math.min((long) block * BLOCK_CHARS,
+              this.size) : this.byteStarts[block];
+    }
+
+    /**
+     * Read and decode a block.
+     *
+     * @param block the block.
+     * @param reuse a block no longer kept, to decode in to; may be null.
+     * @return the chars of the block.
+     */
+    private char[] read(int block, char[] reuse) throws IOException {
+      long from = this.byteStart(block);
+      int size = (int) (this.byteStart(block + 1) - from);
+      int chars = this.charStart(block + 1) - this.charStart(block);
+      if (this.bytes == null || this.bytes.capacity() < size) {
+        this.bytes = ByteBuffer.allocate(size);
+      }
+      this.bytes.clear();
+      this.bytes.limit(size);
+      FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ);
+      try {
+        if (channel.size() != this.size
+                || Files.getLastModifiedTime(this.file).toMillis() != this.lastModified) {
+          throw new IOException(this.file + " changed while it was annotated.");
+        }
+        while (this.bytes.hasRemaining()
+                && channel.read(this.bytes, from + this.bytes.position()) > -1) {
+          // keep reading until the block is read
+        }
+      } finally {
+        channel.close();
+      }
+      this.bytes.flip();
+      char[] text = reuse != null && reuse.length >= chars ? reuse
+              : new char[Math.max(chars, BLOCK_CHARS)];
+      CharBuffer out = CharBuffer.wrap(text, 0, chars);
+      boolean last = block + 1 == this.count;
+      CharsetDecoder decoder = decoder(this.charset);
+      CoderResult result = decoder.decode(this.bytes, out, last);
+      if (last && result.isUnderflow()) {
+        result = decoder.flush(out);
+      }
+      if (out.position() != chars || this.bytes.hasRemaining()) {
+        throw new IOException(this.file + " changed while it was annotated.");
+      }
+      return text;
+    }
+  }
+
+  /**
+   * Report a file too long for a CharSequence.
+   */
+  private static IOException tooLarge(Path file) {
+    return new IOException(file + " is longer than " + Integer.MAX_VALUE
+            + " chars, the most that can be annotated.");
+  }
+}
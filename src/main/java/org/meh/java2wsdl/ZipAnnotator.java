@@ -0,0 +1,291 @@
+package org.meh.java2wsdl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+
+/**
+ * Annotates a zip (or jar) of generated sources entry by entry, writing the
+ * annotated sources and the adapters they need to another zip, without
+ * expanding anything on disk.
+ *
+ * Sources in an impl package are taken to be implementations, and any other
+ * source an interface (sources that turn out not to be interfaces are left
+ * alone). Adapters are written, one entry each, after the last entry of the
+ * zip; adapters the zip already has are kept, rather than created again.
+ * Entries that are not sources are copied as they are.
+ *
+ * A dry run writes no zip; the entries that would change, or be created,
+ * are printed as a run on directories prints them.
+ */
+class ZipAnnotator {
+
+  /**
+   * Path standing for standard in or out.
+   */
+  static final String STANDARD_STREAM = "-";
+  /**
+   * Annotates the sources.
+   */
+  private final SourceTransformer transformer;
+  /**
+   * Prefix to add to the XML type names of the implementation classes; not
+   * used if null.
+   */
+  private final String xmlTypePrefix;
+  /**
+   * Encoding of the sources.
+   */
+  private final Charset charset;
+  /**
+   * Where messages are reported.
+   */
+  private final RunLog log;
+  /**
+   * Collects what a dry run would write; null unless in a dry run.
+   */
+  private DryRun plan;
+
+  /**
+   * Create a new annotator.
+   *
+   * @param transformer annotates the sources.
+   * @param xmlTypePrefix prefix to add to the XML type names of the
+   * implementation classes; not used if null.
+   * @param charset encoding of the sources.
+   * @param log where messages are reported.
+   */
+  ZipAnnotator(SourceTransformer transformer, String xmlTypePrefix,
+          Charset charset, RunLog log) {
+    this.transformer = transformer;
+    this.xmlTypePrefix = xmlTypePrefix;
+    this.charset = charset;
+    this.log = log;
+  }
+
+  /**
+   * Annotate a zip in to another.
+   *
+   * @param in path of the zip to read, or - for standard in.
+   * @param out path of the zip to write (which may be the zip read), - for
+   * standard out, or null to only report what would be written.
+   * @return the number of sources changed.
+   * @throws IOException if either zip could not be read or written.
+   */
+  int annotate(String in, String out) throws IOException {
+    if (out != null && !STANDARD_STREAM.equals(in) && !STANDARD_STREAM.equals(out)) {
+      return this.annotate(new File(in), new File(out));
+    }
+    boolean standardIn = STANDARD_STREAM.equals(in);
+    InputStream input = new BufferedInputStream(standardIn ? System.in
+            : Files.newInputStream(new File(in).toPath()));
+    try {
+      if (out == null) {
+        this.plan = new DryRun(null);
+        try {
+          return this.annotate(input, NullOutputStream.NULL_OUTPUT_STREAM);
+        } finally {
+          this.plan = null;
+        }
+      }
+      if (!STANDARD_STREAM.equals(out)) {
+        OutputStream output = new BufferedOutputStream(
+                Files.newOutputStream(new File(out).toPath()));
+        try {
+          return this.annotate(input, output);
+        } finally {
+          output.close();
+        }
+      }
+      OutputStream output = new BufferedOutputStream(System.out);
+      int changed = this.annotate(input, output);
+      output.flush();
+      return changed;
+    } finally {
+      if (!standardIn) {
+        input.close();
+      }
+    }
+  }
+
+  /**
+   * Annotate a zip file in to another, which may be the same file; the
+   * output is only replaced once it is complete.
+   *
+   * @param in the zip to read.
+   * @param out the zip to write.
+   * @return the number of sources changed.
+   * @throws IOException if either zip could not be read or written.
+   */
+  int annotate(File in, File out) throws IOException {
+    Path target = out.toPath().toAbsolutePath();
+    Path temp = SourceIO.temporary(target);
+    try {
+      InputStream input = new BufferedInputStream(Files.newInputStream(in.toPath()));
+      int changed;
+      try {
+        OutputStream output = new BufferedOutputStream(Files.newOutputStream(temp));
+        try {
+          changed = this.annotate(input, output);
+        } finally {
+          output.close();
+        }
+      } finally {
+        input.close();
+      }
+      SourceIO.replace(temp, target);
+      return changed;
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Annotate a zip stream in to another; neither stream is closed, although
+   * the output zip is finished.
+   *
+   * @param in the zip to read.
+   * @param out the zip to write.
+   * @return the number of sources changed.
+   * @throws IOException if either zip could not be read or written.
+   */
+  int annotate(InputStream in, OutputStream out) throws IOException {
+    ZipInputStream zipIn = new ZipInputStream(in);
+    ZipOutputStream zipOut = new ZipOutputStream(out);
+    Set<String> names = new HashSet<String>();
+    Map<String, String> adapters = new LinkedHashMap<String, String>();
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream(16 * 1024);
+    byte[] chunk = new byte[8192];
+    int changed = 0;
+    int sources = 0;
+    ZipEntry entry;
+    while ((entry = zipIn.getNextEntry()) != null) {
+      if (!names.add(entry.getName())) {
+        this.log.file(Collections.singletonList(entry.getName()
+                + " is in the zip twice; keeping the first."));
+        continue;
+      }
+      ZipEntry copy = new ZipEntry(entry.getName());
+      if (entry.getTime() != -1) {
+        copy.setTime(entry.getTime());
+      }
+      zipOut.putNextEntry(copy);
+      buffer.reset();
+      int read;
+      while ((read = zipIn.read(chunk)) > -1) {
+        buffer.write(chunk, 0, read);
+      }
+      if (entry.isDirectory() || !entry.getName().endsWith(".java")) {
+        buffer.writeTo(zipOut);
+      } else {
+        SourceTransformer.Result result = this.transformer.transform(
+                ByteBuffer.wrap(buffer.toByteArray()), this.charset,
+                this.context(entry.getName()));
+        this.log.file(result.getMessages());
+        sources++;
+        if (result.isModified()) {
+          zipOut.write(result.getSource().getBytes(this.charset));
+          if (this.plan != null) {
+            this.plan.plan(new File(entry.getName()), new String(
+                    buffer.toByteArray(), this.charset), result.getSource());
+          }
+          changed++;
+        } else {
+          buffer.writeTo(zipOut);
+        }
+        this.addAdapters(adapters, result.getAdapters(), entry.getName());
+      }
+      zipOut.closeEntry();
+    }
+    List<String> messages = new ArrayList<String>();
+    int written = 0;
+    for (Map.Entry<String, String> adapter : adapters.entrySet()) {
+      String name = adapter.getKey().replace('.', '/') + ".java";
+      if (names.add(name)) {
+        zipOut.putNextEntry(new ZipEntry(name));
+        zipOut.write(adapter.getValue().getBytes(this.charset));
+        zipOut.closeEntry();
+        if (this.plan != null) {
+          this.plan.plan(new File(name), null, adapter.getValue());
+        }
+        written++;
+      } else {
+        messages.add(name + " already exists; leaving it.");
+      }
+    }
+    zipOut.finish();
+    this.log.file(messages);
+    if (this.plan != null) {
+      this.plan.print(this.log);
+    }
+    this.log.summary((this.plan != null ? "Would annotate " : "Annotated ")
+            + changed + " of " + sources + " sources; "
+            + (this.plan != null ? "would write " : "wrote ") + written
+            + " adapters.");
+    return changed;
+  }
+
+  /**
+   * Add the adapters of a source to those of the zip; an adapter already
+   * created by another source is kept, and reported if different.
+   *
+   * @param adapters the adapters of the zip, by qualified class name.
+   * @param created the adapters of the source.
+   * @param name the name of the entry of the source.
+   */
+  private void addAdapters(Map<String, String> adapters,
+          Map<String, String> created, String name) {
+    List<String> messages = new ArrayList<String>();
+    for (Map.Entry<String, String> adapter : created.entrySet()) {
+      String source = adapters.get(adapter.getKey());
+      if (source == null) {
+        adapters.put(adapter.getKey(), adapter.getValue());
+      } else if (!source.equals(adapter.getValue())) {
+        messages.add("[!] " + name + " would create " + adapter.getKey()
+                + " binding other types than another source did; leaving it.");
+      }
+    }
+    this.log.file(messages);
+  }
+
+  /**
+   * Determine what a source is from its entry name.
+   *
+   * @param name the name of the entry.
+   * @return the context of the source.
+   */
+  private SourceTransformer.Context context(String name) {
+    int slash = name.lastIndexOf('/');
+    String fileName = name.substring(slash + 1);
+    String packageName = slash < 0 ? "" : name.substring(0, slash).replace('/', '.');
+    String implSuffix = "." + AnnotatorApp.IMPL_PACKAGE;
+    if (packageName.endsWith(implSuffix)
+            || packageName.equals(AnnotatorApp.IMPL_PACKAGE)) {
+      return SourceTransformer.Context.forImplementation(fileName, packageName,
+              this.xmlTypePrefix);
+    }
+    String packageNameImpl = packageName.length() == 0
+            ? AnnotatorApp.IMPL_PACKAGE : packageName + implSuffix;
+    return SourceTransformer.Context.forInterface(fileName, packageName,
+            packageNameImpl);
+  }
+}
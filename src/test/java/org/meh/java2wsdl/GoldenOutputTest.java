@@ -0,0 +1,413 @@
+package org.meh.java2wsdl;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import junit.framework.TestCase;
+import org.apache.commons.io.output.NullOutputStream;
+
+/**
+ * Annotates a generated corpus the plain way (one file at a time, writing
+ * each in place) and checks the result against the recorded golden output,
+ * then checks that every other way of annotating the same corpus gives the
+ * same bytes.
+ *
+ * The golden output is recorded as the MD5 of every file (in md5sum format)
+ * in golden.md5; a change meant to change the output records it again with
+ * -Djava2wsdl.golden.update=true. It is not the output of the original
+ * annotator: a nested interface whose name starts with the name of another
+ * (Line2 after Line) no longer gets the adapter of the other as well, which
+ * the original textual anchors gave it. That one difference is pinned by
+ * {@link #testNestedNamePrefixGetsOwnAdapter()}.
+ */
+public class GoldenOutputTest extends TestCase {
+
+  /**
+   * Seed of the golden corpus.
+   */
+  private static final long SEED = 20141103L;
+  /**
+   * The recorded digests, next to this class.
+   */
+  private static final String GOLDEN = "golden.md5";
+  /**
+   * Set to record the golden output again, rather than checking it.
+   */
+  private static final String UPDATE_PROPERTY = "java2wsdl.golden.update";
+  /**
+   * Where the golden output is recorded from, relative to the project.
+   */
+  private static final String GOLDEN_SOURCE = "src/test/resources/org/meh/java2wsdl/" + GOLDEN;
+  /**
+   * An interface with nested interfaces named Line and Line2, and what it is
+   * annotated to, next to this class.
+   */
+  private static final String LINES = "LinesDocument.java.txt";
+  private static final String LINES_ANNOTATED = "LinesDocument.annotated.txt";
+  /**
+   * Holds a directory per run.
+   */
+  private File dir;
+  /**
+   * The corpus annotated.
+   */
+  private SourceCorpus corpus;
+
+  @Override
+  protected void setUp() throws IOException {
+    this.dir = Files.createTempDirectory("java2wsdl-golden").toFile();
+    this.corpus = new SourceCorpus(SEED);
+    this.corpus.setInterfaces(60);
+    this.corpus.setPackages(2);
+  }
+
+  @Override
+  protected void tearDown() {
+    delete(this.dir);
+  }
+
+  public void testSerialMatchesGolden() throws IOException {
+    Map<String, byte[]> serial = this.serial();
+    StringBuilder digests = new StringBuilder();
+    for (Map.Entry<String, byte[]> file : serial.entrySet()) {
+      digests.append(md5(file.getValue())).append("  ").append(file.getKey())
+              .append('\n');
+    }
+    if (System.getProperty(UPDATE_PROPERTY) != null) {
+      Files.write(new File(GOLDEN_SOURCE).toPath(),
+              digests.toString().getBytes(SourceCorpus.CHARSET));
+      return;
+    }
+    Map<String, String> golden = readGolden();
+    for (Map.Entry<String, byte[]> file : serial.entrySet()) {
+      assertEquals(file.getKey() + " differs from the golden output",
+              golden.get(file.getKey()), md5(file.getValue()));
+    }
+    golden.keySet().removeAll(serial.keySet());
+    assertTrue("not written: " + golden.keySet(), golden.isEmpty());
+  }
+
+  public void testAnnotatingAgainChangesNothing() throws IOException {
+    AnnotatorApp app = this.app("again");
+    Map<String, byte[]> once = this.annotate("again", app);
+    app.execute();
+    assertSameFiles(once, snapshot(this.root("again")));
+  }
+
+  public void testThreadsMatchSerial() throws IOException {
+    Map<String, byte[]> serial = this.serial();
+    AnnotatorApp app = this.app("threads");
+    app.setThreads(4);
+    assertSameFiles(serial, this.annotate("threads", app));
+  }
+
+  public void testSourceRootMatchesSerial() throws IOException {
+    Map<String, byte[]> serial = this.serial();
+    File root = this.root("source-root");
+    this.corpus.write(root);
+    AnnotatorApp app = new AnnotatorApp(root, root, "Impl", "",
+            SourceCorpus.SUB_INTERFACES, true);
+    this.quiet(app);
+    app.execute();
+    assertSameFiles(serial, snapshot(root));
+  }
+
+  public void testTransactionalMatchesSerial() throws IOException {
+    Map<String, byte[]> serial = this.serial();
+    AnnotatorApp app = this.app("transactional");
+    app.setTransactional(true);
+    assertSameFiles(serial, this.annotate("transactional", app));
+  }
+
+  public void testIncrementalMatchesSerial() throws IOException {
+    Map<String, byte[]> serial = this.serial();
+    AnnotatorApp app = this.app("incremental");
+    app.setIncremental(true);
+    assertSameFiles(serial, this.annotate("incremental", app));
+    // skipping every source changes nothing either:
+    app.execute();
+    assertSameFiles(serial, snapshot(this.root("incremental")));
+  }
+
+  public void testShardsMatchSerial() throws IOException {
+    Map<String, byte[]> serial = this.serial();
+    for (int i = 1; i <= 3; i++) {
+      AnnotatorApp shard = this.app("shards");
+      shard.setShard(i + "/3");
+      assertEquals(0, shard.execute());
+    }
+    AnnotatorApp merge = this.app("shards");
+    merge.setMergeShards(true);
+    assertEquals(0, merge.execute());
+    assertSameFiles(serial, snapshot(this.root("shards")));
+  }
+
+  public void testMergedAdaptersWithThreadsMatchSerial() throws IOException {
+    AnnotatorApp app = this.app("merged");
+    app.setMergeAdapters(true);
+    Map<String, byte[]> merged = this.annotate("merged", app);
+    app = this.app("merged-threads");
+    app.setMergeAdapters(true);
+    app.setThreads(4);
+    assertSameFiles(merged, this.annotate("merged-threads", app));
+  }
+
+  public void testBoundedMemoryMatchesSerial() throws IOException {
+    // a source large enough to be read through a window:
+    this.corpus.setLargeSize((int) SourceIO.WINDOW_THRESHOLD * 5 / 4);
+    Map<String, byte[]> serial = this.serial();
+    AnnotatorApp app = this.app("bounded");
+    app.setBoundedMemory(true);
+    app.setThreads(2);
+    assertSameFiles(serial, this.annotate("bounded", app));
+  }
+
+  public void testInMemoryMatchesSerial() throws IOException {
+    Map<String, byte[]> serial = this.serial();
+    SourceTransformer transformer = new SourceTransformer("Impl", true,
+            SourceCorpus.SUB_INTERFACES);
+    Map<String, byte[]> annotated = new TreeMap<String, byte[]>();
+    for (Map.Entry<String, String> source : this.corpus.generate().entrySet()) {
+      SourceTransformer.Result result = transformer.transform(source.getValue(),
+              SourceCorpus.context(source.getKey()));
+      annotated.put(source.getKey(), result.getSource().getBytes(SourceCorpus.CHARSET));
+      for (Map.Entry<String, String> adapter : result.getAdapters().entrySet()) {
+        annotated.put(adapter.getKey().replace('.', '/') + ".java",
+                adapter.getValue().getBytes(SourceCorpus.CHARSET));
+      }
+    }
+    assertSameFiles(serial, annotated);
+  }
+
+  public void testNestedNamePrefixGetsOwnAdapter() throws IOException {
+    SourceTransformer.Result result = new SourceTransformer("Impl", true,
+            SourceCorpus.SUB_INTERFACES).transform(resource(LINES),
+            SourceTransformer.Context.forInterface("LinesDocument.java",
+            "org.openeyes", "org.openeyes.impl"));
+    assertEquals(resource(LINES_ANNOTATED), result.getSource());
+    assertEquals(new TreeSet<String>(Arrays.asList(
+            "org.openeyes.XmlAdapterLinesDocumentImpl",
+            "org.openeyes.XmlAdapterLinesDocument_LineImpl",
+            "org.openeyes.XmlAdapterLinesDocument_Line2Impl")),
+            new TreeSet<String>(result.getAdapters().keySet()));
+  }
+
+  public void testZipMatchesSerial() throws IOException {
+    Map<String, byte[]> serial = this.serial();
+    File in = new File(this.dir, "sources.jar");
+    ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(in.toPath()));
+    try {
+      for (Map.Entry<String, String> source : this.corpus.generate().entrySet()) {
+        zip.putNextEntry(new ZipEntry(source.getKey()));
+        zip.write(source.getValue().getBytes(SourceCorpus.CHARSET));
+        zip.closeEntry();
+      }
+    } finally {
+      zip.close();
+    }
+    File out = new File(this.dir, "annotated.jar");
+    RunLog log = new RunLog(new PrintStream(NullOutputStream.NULL_OUTPUT_STREAM),
+            RunLog.Level.QUIET);
+    try {
+      new ZipAnnotator(new SourceTransformer("Impl", true,
+              SourceCorpus.SUB_INTERFACES), "", SourceCorpus.CHARSET, log)
+              .annotate(in.getPath(), out.getPath());
+    } finally {
+      log.close();
+    }
+    Map<String, byte[]> annotated = new TreeMap<String, byte[]>();
+    ZipFile annotatedZip = new ZipFile(out);
+    try {
+      Enumeration<? extends ZipEntry> entries = annotatedZip.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        if (!entry.isDirectory()) {
+          annotated.put(entry.getName(), read(annotatedZip.getInputStream(entry)));
+        }
+      }
+    } finally {
+      annotatedZip.close();
+    }
+    assertSameFiles(serial, annotated);
+  }
+
+  /**
+   * Get the directory of a run.
+   */
+  private File root(String name) {
+    return new File(this.dir, name);
+  }
+
+  /**
+   * Create a run annotating the corpus in the directory of the given name
+   * (writing the corpus there first, if not yet written), the way the
+   * command line does, printing nothing.
+   */
+  private AnnotatorApp app(String name) throws IOException {
+    File root = this.root(name);
+    if (!root.exists()) {
+      this.corpus.write(root);
+    }
+    StringBuilder interfaces = new StringBuilder();
+    StringBuilder implementations = new StringBuilder();
+    for (File dir : this.corpus.getInterfaceDirs(root)) {
+      interfaces.append(interfaces.length() == 0 ? "" : ";").append(dir.getPath());
+    }
+    for (File dir : this.corpus.getImplementationDirs(root)) {
+      implementations.append(implementations.length() == 0 ? "" : ";")
+              .append(dir.getPath());
+    }
+    AnnotatorApp app = new AnnotatorApp(root, interfaces.toString(),
+            implementations.toString(), "Impl", "", SourceCorpus.SUB_INTERFACES,
+            true);
+    this.quiet(app);
+    return app;
+  }
+
+  /**
+   * Make a run print nothing, and read the corpus in its encoding.
+   */
+  private void quiet(AnnotatorApp app) {
+    app.setLogLevel("quiet");
+    app.setEncoding(SourceCorpus.CHARSET.name());
+  }
+
+  /**
+   * Annotate the corpus the plain way, and take what the run left.
+   */
+  private Map<String, byte[]> serial() throws IOException {
+    return this.annotate("serial", this.app("serial"));
+  }
+
+  /**
+   * Annotate the corpus in the directory of a run, and take what the run
+   * left.
+   */
+  private Map<String, byte[]> annotate(String name, AnnotatorApp app)
+          throws IOException {
+    assertEquals(0, app.execute());
+    return snapshot(this.root(name));
+  }
+
+  /**
+   * Take every file of a directory (but the bookkeeping of the annotator),
+   * by its path relative to the directory.
+   */
+  private static Map<String, byte[]> snapshot(File root) throws IOException {
+    Map<String, byte[]> files = new TreeMap<String, byte[]>();
+    snapshot(root, "", files);
+    return files;
+  }
+
+  private static void snapshot(File dir, String prefix, Map<String, byte[]> files)
+          throws IOException {
+    File[] children = dir.listFiles();
+    if (children == null) {
+      return;
+    }
+    for (File child : children) {
+      if (child.getName().startsWith(".java2wsdl")) {
+        continue;
+      }
+      if (child.isDirectory()) {
+        snapshot(child, prefix + child.getName() + "/", files);
+      } else {
+        files.put(prefix + child.getName(), Files.readAllBytes(child.toPath()));
+      }
+    }
+  }
+
+  /**
+   * Check that two runs left the same files, byte for byte.
+   */
+  private static void assertSameFiles(Map<String, byte[]> expected,
+          Map<String, byte[]> actual) {
+    assertEquals(expected.keySet(), actual.keySet());
+    for (Map.Entry<String, byte[]> file : expected.entrySet()) {
+      if (!Arrays.equals(file.getValue(), actual.get(file.getKey()))) {
+        fail(file.getKey() + " differs:\n"
+                + new String(actual.get(file.getKey()), SourceCorpus.CHARSET));
+      }
+    }
+  }
+
+  /**
+   * Read the recorded digests, by path.
+   */
+  private static Map<String, String> readGolden() throws IOException {
+    InputStream in = GoldenOutputTest.class.getResourceAsStream(GOLDEN);
+    assertNotNull("no golden output; record it with -D" + UPDATE_PROPERTY
+            + "=true", in);
+    Map<String, String> golden = new TreeMap<String, String>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in,
+            SourceCorpus.CHARSET));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int space = line.indexOf("  ");
+        if (space > 0) {
+          golden.put(line.substring(space + 2), line.substring(0, space));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return golden;
+  }
+
+  /**
+   * Read a text next to this class.
+   */
+  private static String resource(String name) throws IOException {
+    InputStream in = GoldenOutputTest.class.getResourceAsStream(name);
+    assertNotNull("no " + name, in);
+    return new String(read(in), SourceCorpus.CHARSET);
+  }
+
+  private static byte[] read(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    for (int read; (read = in.read(buffer)) > -1;) {
+      out.write(buffer, 0, read);
+    }
+    in.close();
+    return out.toByteArray();
+  }
+
+  private static String md5(byte[] data) {
+    try {
+      StringBuilder hex = new StringBuilder(32);
+      for (byte b : MessageDigest.getInstance("MD5").digest(data)) {
+        hex.append(String.format("%02x", b & 0xff));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private static void delete(File file) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File child : files) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}
@@ -0,0 +1,494 @@
+package org.meh.java2wsdl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates a corpus of sources shaped like those XMLBeans generates:
+ * document and type interfaces with nested sub-interfaces, StringEnumAbstractBase
+ * enums and XmlAnySimpleType accessors, and the implementation classes (nested
+ * the same way) that go with them, in packages with an impl package each.
+ *
+ * The same seed and scale always give the same sources, byte for byte.
+ *
+ * The corpus is shared with the JMH benchmarks, which take it from the test
+ * jar, so the tests and the benchmarks annotate sources of the same shape.
+ */
+final class SourceCorpus {
+
+  /**
+   * Package the packages of the corpus are generated in.
+   */
+  static final String ROOT_PACKAGE = "org.openeyes.corpus";
+  /**
+   * Sub-interface listing (for -u) matching the generated documents.
+   */
+  static final String SUB_INTERFACES = "Document:Item,Gender";
+  /**
+   * Encoding of the sources.
+   */
+  static final Charset CHARSET = Charset.forName("UTF-8");
+  /**
+   * Names of the nested sub-interfaces.
+   */
+  private static final String[] SUB_NAMES = {"Item", "Gender", "Address",
+    "Line", "Code", "Period", "Contact"};
+  /**
+   * Decides what each source holds.
+   */
+  private final long seed;
+  /**
+   * Number of interfaces (each with its implementation).
+   */
+  private int interfaces = 40;
+  /**
+   * Number of packages the interfaces are spread over.
+   */
+  private int packages = 1;
+  /**
+   * Most sub-interfaces nested in an interface, at each level.
+   */
+  private int subInterfaces = 3;
+  /**
+   * How deep sub-interfaces are nested.
+   */
+  private int depth = 2;
+  /**
+   * Most XmlAnySimpleType accessors of an interface.
+   */
+  private int accessors = 3;
+  /**
+   * Percentage of interfaces declaring an enum.
+   */
+  private int enumPercent = 40;
+  /**
+   * Size the first interface is padded to with accessors, in bytes; 0 to
+   * not pad it.
+   */
+  private int largeSize;
+  /**
+   * True to give every interface the most sub-interfaces and accessors,
+   * rather than a random number up to them.
+   */
+  private boolean exact;
+
+  /**
+   * Create a new corpus of the default scale.
+   *
+   * @param seed decides what each source holds.
+   */
+  SourceCorpus(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * @param interfaces number of interfaces, each with its implementation.
+   */
+  void setInterfaces(int interfaces) {
+    this.interfaces = interfaces;
+  }
+
+  /**
+   * @param packages number of packages the interfaces are spread over.
+   */
+  void setPackages(int packages) {
+    this.packages = packages;
+  }
+
+  /**
+   * @param subInterfaces most sub-interfaces nested in an interface, at each
+   * level.
+   */
+  void setSubInterfaces(int subInterfaces) {
+    this.subInterfaces = subInterfaces;
+  }
+
+  /**
+   * @param depth how deep sub-interfaces are nested.
+   */
+  void setDepth(int depth) {
+    this.depth = depth;
+  }
+
+  /**
+   * @param accessors most XmlAnySimpleType accessors of an interface.
+   */
+  void setAccessors(int accessors) {
+    this.accessors = accessors;
+  }
+
+  /**
+   * @param enumPercent percentage of interfaces declaring an enum.
+   */
+  void setEnumPercent(int enumPercent) {
+    this.enumPercent = enumPercent;
+  }
+
+  /**
+   * @param largeSize size the first interface is padded to, in bytes (as
+   * very large schemas give); 0 to not pad it.
+   */
+  void setLargeSize(int largeSize) {
+    this.largeSize = largeSize;
+  }
+
+  /**
+   * @param exact true to give every interface the most sub-interfaces and
+   * accessors, rather than a random number up to them (as a benchmark
+   * scaling them needs).
+   */
+  void setExact(boolean exact) {
+    this.exact = exact;
+  }
+
+  /**
+   * @return the number of sources generated: every interface and its
+   * implementation.
+   */
+  int getSourceCount() {
+    return this.interfaces * 2;
+  }
+
+  /**
+   * Get the directory of each package of interfaces.
+   *
+   * @param root the source root.
+   * @return the directories, in the order of the packages.
+   */
+  File[] getInterfaceDirs(File root) {
+    File[] dirs = new File[Math.min(this.packages, this.interfaces)];
+    for (int i = 0; i < dirs.length; i++) {
+      dirs[i] = new File(root, this.packageName(i).replace('.', File.separatorChar));
+    }
+    return dirs;
+  }
+
+  /**
+   * Get the directory of the implementations of each package.
+   *
+   * @param root the source root.
+   * @return the directories, in the order of the packages.
+   */
+  File[] getImplementationDirs(File root) {
+    File[] dirs = this.getInterfaceDirs(root);
+    for (int i = 0; i < dirs.length; i++) {
+      dirs[i] = new File(dirs[i], "impl");
+    }
+    return dirs;
+  }
+
+  /**
+   * Generate the sources.
+   *
+   * @return the content of each source, by its path relative to the source
+   * root, interfaces first.
+   */
+  Map<String, String> generate() {
+    Random random = new Random(this.seed);
+    Map<String, String> interfaceSources = new LinkedHashMap<String, String>();
+    Map<String, String> implementationSources = new LinkedHashMap<String, String>();
+    int packageCount = Math.min(this.packages, this.interfaces);
+    for (int i = 0; i < this.interfaces; i++) {
+      String packageName = this.packageName(i % packageCount);
+      String name = random.nextInt(10) < 6 ? "Thing" + i + "Document" : "Type" + i;
+      Node node = this.node(name, 0, random);
+      if (i == 0 && this.largeSize > 0) {
+        // an accessor takes some 380 bytes of the interface:
+        node.accessors = Math.max(node.accessors, this.largeSize / 380 + 1);
+      }
+      String dir = packageName.replace('.', '/') + "/";
+      interfaceSources.put(dir + name + ".java", this.interfaceSource(packageName, node));
+      implementationSources.put(dir + "impl/" + name + "Impl.java",
+              this.implementationSource(packageName, node));
+    }
+    interfaceSources.putAll(implementationSources);
+    return interfaceSources;
+  }
+
+  /**
+   * Write the sources.
+   *
+   * @param root the source root.
+   * @return the files written, by their path relative to the source root.
+   * @throws IOException if a source could not be written.
+   */
+  Map<String, File> write(File root) throws IOException {
+    return write(this.generate(), root);
+  }
+
+  /**
+   * Write sources already generated.
+   *
+   * @param sources the content of each source, by its path relative to the
+   * source root.
+   * @param root the source root.
+   * @return the files written, by their path relative to the source root.
+   * @throws IOException if a source could not be written.
+   */
+  static Map<String, File> write(Map<String, String> sources, File root)
+          throws IOException {
+    Map<String, File> files = new LinkedHashMap<String, File>();
+    for (Map.Entry<String, String> source : sources.entrySet()) {
+      File file = new File(root, source.getKey());
+      file.getParentFile().mkdirs();
+      Files.write(file.toPath(), source.getValue().getBytes(CHARSET));
+      files.put(source.getKey(), file);
+    }
+    return files;
+  }
+
+  /**
+   * Get the context a generated source is annotated in, as a run on the
+   * directories of the corpus annotates it.
+   *
+   * @param path the path of the source, relative to the source root.
+   * @return the context of the source.
+   */
+  static SourceTransformer.Context context(String path) {
+    int slash = path.lastIndexOf('/');
+    String packageName = path.substring(0, slash).replace('/', '.');
+    String fileName = path.substring(slash + 1);
+    if (packageName.endsWith(".impl")) {
+      return SourceTransformer.Context.forImplementation(fileName, packageName, "");
+    }
+    return SourceTransformer.Context.forInterface(fileName, packageName,
+            packageName + ".impl");
+  }
+
+  /**
+   * Name the package of the given number.
+   */
+  private String packageName(int number) {
+    return this.packages <= 1 ? ROOT_PACKAGE : ROOT_PACKAGE + ".p" + number;
+  }
+
+  /**
+   * Decide what an interface (or a sub-interface) holds.
+   */
+  private Node node(String name, int level, Random random) {
+    Node node = new Node(name);
+    node.accessors = this.exact ? this.accessors : random.nextInt(this.accessors + 1);
+    node.enumerated = random.nextInt(100) < this.enumPercent;
+    if (level < this.depth) {
+      int count = this.exact ? this.subInterfaces : random.nextInt(this.subInterfaces + 1);
+      for (int i = 0; i < count; i++) {
+        String sub = SUB_NAMES[random.nextInt(SUB_NAMES.length)];
+        for (Node sibling : node.children) {
+          if (sibling.name.equals(sub)) {
+            sub = sub + i;
+          }
+        }
+        node.children.add(this.node(sub, level + 1, random));
+      }
+    }
+    return node;
+  }
+
+  /**
+   * Render an interface.
+   */
+  private String interfaceSource(String packageName, Node node) {
+    StringBuilder out = new StringBuilder(2048);
+    out.append("/*\n * An XML document type.\n * Localname: ").append(node.name)
+            .append("\n * Namespace: http://openeyes.org\n")
+            .append(" * Java type: ").append(packageName).append('.').append(node.name)
+            .append("\n *\n * Automatically generated - do not modify.\n */\n");
+    out.append("package ").append(packageName).append(";\n\n\n");
+    out.append("/**\n * A document containing one ").append(node.name)
+            .append(" element.\n *\n * This is a complex type.\n */\n");
+    out.append("public interface ").append(node.name)
+            .append(" extends org.apache.xmlbeans.XmlObject\n{\n");
+    out.append("    public static final org.apache.xmlbeans.SchemaType type =")
+            .append(" (org.apache.xmlbeans.SchemaType)\n        org.apache.xmlbeans.XmlBeans")
+            .append(".typeSystemForClassLoader(").append(node.name)
+            .append(".class.getClassLoader(), \"schemaorg_apache_xmlbeans.system.corpus\")")
+            .append(".resolveHandle(\"").append(node.name.toLowerCase()).append("type\");\n\n");
+    this.interfaceMembers(out, "    ", node);
+    out.append("}\n");
+    return out.toString();
+  }
+
+  /**
+   * Render the members of an interface, and its sub-interfaces.
+   */
+  private void interfaceMembers(StringBuilder out, String indent, Node node) {
+    out.append(indent).append("/**\n").append(indent)
+            .append(" * Gets the \"name\" element\n").append(indent).append(" */\n");
+    out.append(indent).append("java.lang.String getName();\n\n");
+    for (int i = 0; i < node.accessors; i++) {
+      out.append(indent).append("/**\n").append(indent).append(" * Gets the \"value")
+              .append(i).append("\" element\n").append(indent).append(" */\n");
+      out.append(indent).append("org.apache.xmlbeans.XmlAnySimpleType getValue")
+              .append(i).append("();\n\n");
+      out.append(indent).append("/**\n").append(indent).append(" * Sets the \"value")
+              .append(i).append("\" element\n").append(indent).append(" */\n");
+      out.append(indent).append("void setValue").append(i)
+              .append("(org.apache.xmlbeans.XmlAnySimpleType value").append(i)
+              .append(");\n\n");
+      out.append(indent).append("/**\n").append(indent)
+              .append(" * Appends and returns a new empty \"value").append(i)
+              .append("\" element\n").append(indent).append(" */\n");
+      out.append(indent).append("org.apache.xmlbeans.XmlAnySimpleType addNewValue")
+              .append(i).append("();\n\n");
+    }
+    if (node.enumerated) {
+      out.append(indent).append("org.apache.xmlbeans.StringEnumAbstractBase enumValue();\n");
+      out.append(indent).append("void set(org.apache.xmlbeans.StringEnumAbstractBase e);\n\n");
+      out.append(indent).append("static final Enum MALE = Enum.forString(\"male\");\n");
+      out.append(indent).append("static final Enum FEMALE = Enum.forString(\"female\");\n\n");
+      out.append(indent).append("static final int INT_MALE = Enum.INT_MALE;\n");
+      out.append(indent).append("static final int INT_FEMALE = Enum.INT_FEMALE;\n\n");
+      out.append(indent).append("/**\n").append(indent)
+              .append(" * Enumeration value class for this type.\n").append(indent)
+              .append(" */\n");
+      out.append(indent).append("static final class Enum extends")
+              .append(" org.apache.xmlbeans.StringEnumAbstractBase\n");
+      out.append(indent).append("{\n");
+      out.append(indent).append("    public static Enum forString(java.lang.String s)\n");
+      out.append(indent).append("        { return (Enum)table.forString(s); }\n");
+      out.append(indent).append("    public static Enum forInt(int i)\n");
+      out.append(indent).append("        { return (Enum)table.forInt(i); }\n\n");
+      out.append(indent).append("    private Enum(java.lang.String s, int i)\n");
+      out.append(indent).append("        { super(s, i); }\n\n");
+      out.append(indent).append("    static final int INT_MALE = 1;\n");
+      out.append(indent).append("    static final int INT_FEMALE = 2;\n\n");
+      out.append(indent).append("    public static final org.apache.xmlbeans.StringEnumAbstractBase.Table table =\n");
+      out.append(indent).append("        new org.apache.xmlbeans.StringEnumAbstractBase.Table\n");
+      out.append(indent).append("    (\n").append(indent)
+              .append("        new Enum[]\n").append(indent).append("        {\n");
+      out.append(indent).append("            new Enum(\"male\", INT_MALE),\n");
+      out.append(indent).append("            new Enum(\"female\", INT_FEMALE),\n");
+      out.append(indent).append("        }\n").append(indent).append("    );\n");
+      out.append(indent).append("}\n\n");
+    }
+    for (Node child : node.children) {
+      out.append(indent).append("/**\n").append(indent).append(" * An XML ")
+              .append(child.name).append("(@http://openeyes.org).\n").append(indent)
+              .append(" *\n").append(indent).append(" * This is a complex type.\n")
+              .append(indent).append(" */\n");
+      out.append(indent).append("public interface ").append(child.name)
+              .append(" extends org.apache.xmlbeans.XmlObject\n");
+      out.append(indent).append("{\n");
+      this.interfaceMembers(out, indent + "    ", child);
+      out.append(indent).append("}\n\n");
+    }
+    out.append(indent).append("/**\n").append(indent)
+            .append(" * A factory class with static methods for creating instances\n")
+            .append(indent).append(" */\n");
+    out.append(indent).append("public static final class Factory\n");
+    out.append(indent).append("{\n").append(indent)
+            .append("    private Factory() { } // No instance of this class allowed\n")
+            .append(indent).append("}\n");
+  }
+
+  /**
+   * Render the implementation of an interface.
+   */
+  private String implementationSource(String packageName, Node node) {
+    StringBuilder out = new StringBuilder(2048);
+    out.append("/*\n * An XML document type.\n * Localname: ").append(node.name)
+            .append("\n * Namespace: http://openeyes.org\n")
+            .append(" * Java type: ").append(packageName).append('.').append(node.name)
+            .append("\n *\n * Automatically generated - do not modify.\n */\n");
+    out.append("package ").append(packageName).append(".impl;\n");
+    out.append("/**\n * A document containing one ").append(node.name)
+            .append(" element.\n *\n * This is a complex type.\n */\n");
+    this.implementation(out, "", packageName + "." + node.name, node, true);
+    return out.toString();
+  }
+
+  /**
+   * Render an implementation class, and the classes of its sub-interfaces.
+   */
+  private void implementation(StringBuilder out, String indent, String iface,
+          Node node, boolean topLevel) {
+    String name = node.name + "Impl";
+    out.append(indent).append(topLevel ? "public class " : "public static class ")
+            .append(name).append(" extends org.apache.xmlbeans.impl.values.")
+            .append(node.enumerated ? "JavaStringEnumerationHolderEx"
+            : "XmlComplexContentImpl").append(" implements ").append(iface).append('\n');
+    out.append(indent).append("{\n");
+    out.append(indent).append("    private static final long serialVersionUID = 1L;\n");
+    out.append(indent).append("    \n");
+    out.append(indent).append("    public ").append(name)
+            .append("(org.apache.xmlbeans.SchemaType sType)\n");
+    out.append(indent).append("    {\n").append(indent)
+            .append("        super(sType);\n").append(indent).append("    }\n");
+    out.append(indent).append("    \n");
+    for (int i = 0; i < node.accessors; i++) {
+      out.append(indent).append("    private static final javax.xml.namespace.QName VALUE")
+              .append(i).append("$").append(2 * i)
+              .append(" = \n").append(indent)
+              .append("        new javax.xml.namespace.QName(\"http://openeyes.org\", \"value")
+              .append(i).append("\");\n");
+    }
+    for (int i = 0; i < node.accessors; i++) {
+      out.append(indent).append("    \n").append(indent).append("    /**\n")
+              .append(indent).append("     * Gets the \"value").append(i)
+              .append("\" element\n").append(indent).append("     */\n");
+      out.append(indent).append("    public org.apache.xmlbeans.XmlAnySimpleType getValue")
+              .append(i).append("()\n");
+      out.append(indent).append("    {\n").append(indent)
+              .append("        synchronized (monitor())\n").append(indent)
+              .append("        {\n");
+      out.append(indent).append("            check_orphaned();\n");
+      out.append(indent).append("            org.apache.xmlbeans.XmlAnySimpleType target = null;\n");
+      out.append(indent).append("            target = (org.apache.xmlbeans.XmlAnySimpleType)")
+              .append("get_store().find_element_user(VALUE").append(i).append("$")
+              .append(2 * i).append(", 0);\n");
+      out.append(indent).append("            if (target == null)\n").append(indent)
+              .append("            {\n").append(indent)
+              .append("                return null;\n").append(indent)
+              .append("            }\n");
+      out.append(indent).append("            return target;\n").append(indent)
+              .append("        }\n").append(indent).append("    }\n");
+      out.append(indent).append("    \n").append(indent).append("    /**\n")
+              .append(indent).append("     * Appends and returns a new empty \"value")
+              .append(i).append("\" element\n").append(indent).append("     */\n");
+      out.append(indent).append("    public org.apache.xmlbeans.XmlAnySimpleType addNewValue")
+              .append(i).append("()\n");
+      out.append(indent).append("    {\n").append(indent)
+              .append("        synchronized (monitor())\n").append(indent)
+              .append("        {\n");
+      out.append(indent).append("            check_orphaned();\n");
+      out.append(indent).append("            org.apache.xmlbeans.XmlAnySimpleType target = null;\n");
+      out.append(indent).append("            target = (org.apache.xmlbeans.XmlAnySimpleType)")
+              .append("get_store().add_element_user(VALUE").append(i).append("$")
+              .append(2 * i).append(");\n");
+      out.append(indent).append("            return target;\n").append(indent)
+              .append("        }\n").append(indent).append("    }\n");
+    }
+    for (Node child : node.children) {
+      out.append(indent).append("    /**\n").append(indent).append("     * An XML ")
+              .append(child.name).append("(@http://openeyes.org).\n").append(indent)
+              .append("     *\n").append(indent)
+              .append("     * This is a complex type.\n").append(indent)
+              .append("     */\n");
+      this.implementation(out, indent + "    ", iface + "." + child.name, child,
+              false);
+    }
+    out.append(indent).append("}\n");
+  }
+
+  /**
+   * What an interface holds.
+   */
+  private static final class Node {
+
+    private final String name;
+    private final List<Node> children = new ArrayList<Node>();
+    private int accessors;
+    private boolean enumerated;
+
+    Node(String name) {
+      this.name = name;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package org.meh.java2wsdl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ * Annotates a generated corpus of {@value #INTERFACES} interfaces and their
+ * implementations, and fails if fewer files are annotated a second than
+ * the threshold; the threshold is far below what the annotator does on any
+ * build machine, so only a gross regression fails it.
+ *
+ * The threshold is set with -Djava2wsdl.throughput.min (files a second),
+ * and the check left out with -Djava2wsdl.throughput.min=0; the JMH
+ * benchmarks measure throughput properly.
+ */
+public class ThroughputSmokeTest extends TestCase {
+
+  /**
+   * Number of interfaces in the corpus.
+   */
+  private static final int INTERFACES = 500;
+  /**
+   * Number of runs measured; the fastest counts.
+   */
+  private static final int RUNS = 3;
+  /**
+   * Sets the least files a second a run may annotate.
+   */
+  private static final String MIN_PROPERTY = "java2wsdl.throughput.min";
+  /**
+   * The least files a second a run may annotate, unless set.
+   */
+  private static final int DEFAULT_MIN = 100;
+  /**
+   * Holds a directory per run.
+   */
+  private File dir;
+  /**
+   * The corpus annotated.
+   */
+  private SourceCorpus corpus;
+
+  @Override
+  protected void setUp() throws IOException {
+    this.dir = Files.createTempDirectory("java2wsdl-throughput").toFile();
+    this.corpus = new SourceCorpus(1);
+    this.corpus.setInterfaces(INTERFACES);
+    this.corpus.setPackages(4);
+  }
+
+  @Override
+  protected void tearDown() {
+    delete(this.dir);
+  }
+
+  public void testSerialThroughput() throws IOException {
+    this.checkThroughput(1);
+  }
+
+  public void testThreadedThroughput() throws IOException {
+    this.checkThroughput(4);
+  }
+
+  /**
+   * Annotate the corpus once to warm up, then measure the fastest of a few
+   * runs, each on a fresh copy of the corpus.
+   */
+  private void checkThroughput(int threads) throws IOException {
+    int min = Integer.getInteger(MIN_PROPERTY, DEFAULT_MIN).intValue();
+    this.run("warm-up", threads);
+    long fastest = Long.MAX_VALUE;
+    for (int i = 0; i < RUNS; i++) {
+      fastest = Math.min(fastest, this.run("run" + i, threads));
+    }
+    double perSecond = this.corpus.getSourceCount()
+            / (fastest / (double) TimeUnit.SECONDS.toNanos(1));
+    if (min > 0 && perSecond < min) {
+      fail(String.format("Annotated %.0f files a second on %d threads;"
+              + " at least %d expected.", Double.valueOf(perSecond),
+              Integer.valueOf(threads), Integer.valueOf(min)));
+    }
+  }
+
+  /**
+   * Write the corpus and annotate it.
+   *
+   * @return the time the run took, in nanoseconds; writing the corpus is
+   * not counted.
+   */
+  private long run(String name, int threads) throws IOException {
+    File root = new File(this.dir, name);
+    this.corpus.write(root);
+    StringBuilder interfaces = new StringBuilder();
+    StringBuilder implementations = new StringBuilder();
+    for (File dir : this.corpus.getInterfaceDirs(root)) {
+      interfaces.append(interfaces.length() == 0 ? "" : ";").append(dir.getPath());
+    }
+    for (File dir : this.corpus.getImplementationDirs(root)) {
+      implementations.append(implementations.length() == 0 ? "" : ";")
+              .append(dir.getPath());
+    }
+    AnnotatorApp app = new AnnotatorApp(root, interfaces.toString(),
+            implementations.toString(), "Impl", "", SourceCorpus.SUB_INTERFACES,
+            true);
+    app.setLogLevel("quiet");
+    app.setEncoding(SourceCorpus.CHARSET.name());
+    app.setThreads(threads);
+    long start = System.nanoTime();
+    assertEquals(0, app.execute());
+    long elapsed = System.nanoTime() - start;
+    delete(root);
+    return elapsed;
+  }
+
+  private static void delete(File file) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File child : files) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+}